@@ -1,10 +1,5 @@
 package com.example.myapplication;
 
-import static com.example.myapplication.CustomData.readAndConvertBytesToString;
-import static com.example.myapplication.CustomData.readAndDeserializeMessageLength;
-import static com.example.myapplication.FileService.input;
-import static com.example.myapplication.FileService.outputStream;
-
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.ContentResolver;
@@ -19,6 +14,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.provider.OpenableColumns;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.webkit.MimeTypeMap;
@@ -36,28 +32,36 @@ import androidx.core.app.ActivityCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatActivity extends AppCompatActivity implements ProgressListener {
     private static final int PICK_FILE_REQUEST = 1;
     private static final int REQUEST_MANAGE_EXTERNAL_STORAGE = 112;
-    private static final String FILE_COMMAND = "File";
-    private static final String MESSAGE_COMMAND = "Message";
+    /** The shortest time between two progress updates of the transfers, 0 updates them on every frame. */
+    static final long PROGRESS_INTERVAL_MILLIS = 0;
 
     @SuppressLint("StaticFieldLeak")
     public static ChatActivity instance;
     private EditText messageEditText;
     @SuppressLint("StaticFieldLeak")
     protected static MessageAdapter messageAdapter;
-    static final List<Message> messages = new ArrayList<>();
+    /** The chat history, opened once per process, pages of it are read from the disk as they are shown. */
+    static MessageStore messages;
+    /** Set while a new snapshot of the history waits for the main thread, so a burst of messages posts once. */
+    private static final AtomicBoolean snapshotPosted = new AtomicBoolean();
     private static RecyclerView recyclerView;
     private TextView progressText;
     public static final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<Long, Message> sentFileMessages = new HashMap<>();
+    private final AtomicBoolean transferProgressPosted = new AtomicBoolean();
+    private ProgressDispatcher progressDispatcher;
     @SuppressLint("StaticFieldLeak")
     static Context context;
 
@@ -73,6 +77,8 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
 
         initializeViews();
 
+        openMessageStore(this);
+
         setupMessageAdapter();
 
         setupSendButton();
@@ -80,6 +86,8 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
         setupAttachButton();
 
         setupMessageAdapterClickListener();
+
+        setupTransferListener();
     }
     @RequiresApi(api = Build.VERSION_CODES.R)
     public void checkStoragePermission() {
@@ -94,8 +102,23 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
         messageEditText = findViewById(R.id.chat_input);
         progressText = findViewById(R.id.progressText);
     }
+    /**
+     * Opens the chat history once per process, by the service or the activity, whichever starts first.
+     * Only the end of the log is read, however long the history is.
+     *
+     * @param context - the context of the app directory holding the history.
+     */
+    static synchronized void openMessageStore(Context context) {
+        if (messages == null) {
+            try {
+                messages = new MessageStore(new File(context.getFilesDir(), "messages"));
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot open the chat history", e);
+            }
+        }
+    }
     private void setupMessageAdapter() {
-        messageAdapter = new MessageAdapter(ChatActivity.this, messages);
+        messageAdapter = new MessageAdapter(ChatActivity.this, messages.snapshot());
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.setAdapter(messageAdapter);
         recyclerView.smoothScrollToPosition(messages.size());
@@ -113,19 +136,112 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
         });
     }
     private void sendMessage(String messageContent) {
-        handler.post(() -> {
-            SendMessageCommand sendMessageCommand = new SendMessageCommand(outputStream, messageContent);
-            sendMessageCommand.execute();
-        });
+        // Only queues the frame, encoded once, the writer thread of every connection writes it
+        SendMessageCommand sendMessageCommand = new SendMessageCommand(FileService.room, messageContent);
+        sendMessageCommand.execute();
 
         Message message = new Message(FileService.username, messageContent, System.currentTimeMillis(), MessageType.MESSAGE_SENT);
-        messages.add(message);
-        messageAdapter.notifyItemInserted(messages.size() - 1);
+        displayMessage(message);
     }
+
+    /**
+     * Adds a message to the history and shows it, from any thread. The store is the only owner of the history:
+     * the message is written on the writer thread of the store, and once it is, the main thread shows a new
+     * snapshot of the store, which binds only the rows added since the shown one.
+     *
+     * @param message - the message to add.
+     */
     static void displayMessage(Message message) {
-        messages.add(message);
-        recyclerView.smoothScrollToPosition(messages.size());
-        messageAdapter.notifyItemInserted(messages.size() - 1);
+        messages.append(message, POST_SNAPSHOT);
+    }
+    /** Created once, so a message allocates no callback. */
+    private static final Runnable POST_SNAPSHOT = () -> {
+        if (snapshotPosted.compareAndSet(false, true)) {
+            handler.post(ChatActivity::showLatestSnapshot);
+        }
+    };
+    private static void showLatestSnapshot() {
+        snapshotPosted.set(false);
+        // The adapter is created with the latest snapshot if the activity was not yet
+        if (messageAdapter != null) {
+            MessageStore.Snapshot snapshot = messages.snapshot();
+            messageAdapter.submitSnapshot(snapshot);
+            recyclerView.smoothScrollToPosition(snapshot.size());
+        }
+    }
+    /**
+     * Shows the progress of the transfer queue and adds a sent file to the chat once its transfer completed.
+     * The chunks of every transfer report to the {@link ProgressDispatcher}, which hands their latest progress
+     * to the transfers once per frame, so the main thread redraws at most once per frame however fast the link is.
+     * At most one update waits for the main thread at a time.
+     */
+    private void setupTransferListener() {
+        ProgressBar progressBar = findViewById(R.id.progressBar1);
+        Choreographer choreographer = Choreographer.getInstance();
+        Choreographer.FrameCallback dispatchProgress = frameTimeNanos -> progressDispatcher.dispatch();
+        progressDispatcher = new ProgressDispatcher(
+                delayNanos -> choreographer.postFrameCallbackDelayed(dispatchProgress, TimeUnit.NANOSECONDS.toMillis(delayNanos)),
+                PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        // Created once, posting it allocates nothing
+        Runnable showProgress = () -> {
+            transferProgressPosted.set(false);
+            showTransferProgress(progressBar);
+        };
+        FileService.transferManager.setListener(new TransferManager.Listener() {
+            @Override
+            public void onTransfersChanged() {
+                // Posted even on the main thread, so a dispatch updating many transfers redraws once
+                if (transferProgressPosted.compareAndSet(false, true)) {
+                    handler.post(showProgress);
+                }
+            }
+
+            @Override
+            public void onTransferFinished(TransferManager.Transfer transfer) {
+                handler.post(() -> {
+                    progressDispatcher.unregister(transfer);
+                    Message message = sentFileMessages.remove(transfer.getId());
+                    // A file sent to several peers is shown once, when the first of them has it
+                    if (message != null && transfer.getState() == TransferManager.State.COMPLETED) {
+                        sentFileMessages.values().removeIf(sent -> sent == message);
+                        displayMessage(message);
+                    }
+                });
+            }
+        });
+    }
+    private void showTransferProgress(ProgressBar progressBar) {
+        List<TransferManager.Transfer> transfers = FileService.transferManager.getTransfers();
+        if (transfers.isEmpty()) {
+            // Hide the progress bar after the last file is sent
+            progressBar.setVisibility(View.GONE);
+            progressText.setText("");
+            return;
+        }
+
+        long totalBytes = 0;
+        long bytesTransferred = 0;
+        int queued = 0;
+        for (TransferManager.Transfer transfer : transfers) {
+            totalBytes += transfer.getTotalBytes();
+            bytesTransferred += transfer.getBytesTransferred();
+            if (transfer.getState() != TransferManager.State.ACTIVE) {
+                queued++;
+            }
+        }
+        // The throughput of the last seconds over all transfers, so a stall shows right away
+        TransferMetrics.DirectionSnapshot sent = TransferMetrics.DEFAULT.snapshot().sent;
+
+        progressBar.setVisibility(View.VISIBLE);
+        progressBar.setProgress(totalBytes > 0 ? (int) (bytesTransferred * 100 / totalBytes) : 0);
+        String progressTextStr = String.format(Locale.getDefault(),
+                "Transferred: %d/%d MB\nSpeed: %.2f MB/s\nQueued: %d\nStalls: %d",
+                bytesTransferred / (1024 * 1024),
+                totalBytes / (1024 * 1024),
+                sent.bytesPerSecond / (1024 * 1024),
+                queued,
+                sent.stalls);
+        progressText.setText(progressTextStr);
     }
     private void setupAttachButton() {
         ImageButton attachButton = findViewById(R.id.attach_button);
@@ -143,9 +259,9 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
     }
     private void setupMessageAdapterClickListener() {
         messageAdapter.setOnItemClickListener((view, position) -> {
-            Message message = messages.get(position);
-            if (message.getMessageType() == MessageType.FILE_RECEIVED || message.getMessageType() == MessageType.FILE_SENT) {
-                launchFileOpenActivity(message.getFilePath());
+            String filePath = messageAdapter.getFilePath(position);
+            if (filePath != null) {
+                launchFileOpenActivity(filePath);
             }
         });
     }
@@ -163,83 +279,33 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
     }
 
     /**
+     * Returns the receive command which handles frames of the given type.
      *
-     * @return
+     * @param frameType - the type of the frame that was read.
+     * @param session - the session the frame was read from, which the command answers on.
+     * @return - the matching command, or null if the frame type has no receive command.
      */
-    public static Thread readCommand() {
-        return new Thread(() -> {
-            while (true) {
-                try {
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                    if (input.available() > 0) {
-                        while (true) {
-                            int read;
-                            try {
-                                if (!(input.available() > 0)) {
-                                    break;
-                                }
-                                //converting command length byte[] to int
-                                int cmdLength = readAndDeserializeNextElementSize(byteArrayOutputStream);
-
-                                Log.d("ChatActivity", "Command length: " + cmdLength);
-                                byte[] bytesOfCommand = new byte[cmdLength];
-
-                                read = input.read(bytesOfCommand, 0, cmdLength);
-
-                                //convert command to string
-                                String commandName = readAndConvertBytesToString(byteArrayOutputStream, read, bytesOfCommand);
-
-                                final Command[] command = {null};
-
-                                switch (commandName) {
-                                    case MESSAGE_COMMAND:
-                                        command[0] = new ReceiveMessageCommand();
-                                        break;
-                                    case FILE_COMMAND:
-                                        command[0] = new ReceiveFileCommand();
-                                        break;
-                                }
-
-                                if (command[0] != null) {
-                                    command[0].execute();
-                                }
-
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
+    static Command createReceiveCommand(FrameType frameType, Session session) {
+        switch (frameType) {
+            case MESSAGE:
+                return new ReceiveMessageCommand(session);
+            case FILE:
+                return new ReceiveFileCommand(session);
+            default:
+                return TransferCommands.create(frameType, session);
+        }
     }
 
     /**
+     * Shows the dialog offered when a received file cannot be written.
+     * Retrying keeps the partial file, so a resumable transfer continues from its committed offset
+     * the next time the sender offers it. Cancelling closes the connection and discards the partial file.
      *
-     * @param bos
-     * @return
-     * @throws IOException
+     * @param activity - the chat activity.
+     * @param file - the file being received.
+     * @param transferId - the id of the resumable transfer writing the file, or null.
      */
-    static int readAndDeserializeNextElementSize(ByteArrayOutputStream bos) throws IOException {
-        byte[] fileBytesArray = new byte[4];
-        int bytesRead = 0;
-
-        while(bytesRead < 4){
-            int readResult = input.read(fileBytesArray,bytesRead, 4 - bytesRead);
-            if(readResult == -1){
-                break;
-            }
-            bytesRead += readResult;
-        }
-        if(bytesRead != 4){
-            throw new IOException("Failed to read 4 bytes for the command length");
-        }
-        return readAndDeserializeMessageLength(bos,bytesRead,fileBytesArray);
-    }
-
-    static void showCustomProgressDialog(ChatActivity activity, File file) {
+    static void showCustomProgressDialog(ChatActivity activity, File file, String transferId) {
         activity.runOnUiThread(() -> {
             // Check if the activity is not finishing or destroyed
             if (!activity.isFinishing() && !activity.isDestroyed()) {
@@ -259,29 +325,23 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
 
                 // Set the retry button listener
                 Button retryButton = view.findViewById(R.id.retry_button);
-                retryButton.setOnClickListener(v -> {
-                    // Retry by calling the execute method again
-                    ReceiveFileCommand receiveFileCommand = new ReceiveFileCommand();
-                    try {
-                        receiveFileCommand.execute();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    progressDialog.dismiss();
-                });
+                retryButton.setOnClickListener(v -> progressDialog.dismiss());
 
                 // Set the cancel button listener
                 Button cancelButton = view.findViewById(R.id.cancel_button);
                 cancelButton.setOnClickListener(v -> {
                     progressDialog.dismiss();
                     try{
-                        input.close();
+                        FileService.stopConnection();
                     } catch (IOException e){
                         throw new RuntimeException();
                     }
                     if(file.exists()){
                         file.delete();
                     }
+                    if (transferId != null) {
+                        FileService.transferJournal.remove(transferId);
+                    }
                 });
             }
         });
@@ -311,56 +371,24 @@ public class ChatActivity extends AppCompatActivity implements ProgressListener
                 String fileName = getFileName(file);
                 System.out.println("File name: " + fileName);
                 String filePath = file.getPath();
-                int fileSize = fileName.length();
-
-                // Create and display the progress bar
-                ProgressBar progressBar = findViewById(R.id.progressBar1);
-                progressBar.setVisibility(View.VISIBLE);
-                progressBar.setProgress(0);
-
-                // Create a progress listener
-                ProgressListener progressListener = (bytesTransferred, totalBytes, speed) -> {
-                    // Update UI with the progress
-                    runOnUiThread(() -> {
-                        // Update progress bar
-                        int progress = (int) (bytesTransferred * 100 / totalBytes);
-                        progressBar.setProgress(progress);
-
-                        // Update progress text
-                        String progressTextStr = String.format(Locale.getDefault(),
-                                "Transferred: %d/%d MB\nSpeed: %.2f MB/s",
-                                bytesTransferred / (1024 * 1024),
-                                totalBytes / (1024 * 1024),
-                                speed);
-                        progressText.setText(progressTextStr);
-                    });
-                };
-
-                handler.postDelayed(() -> {
-                    // Update the progress bar while the file is being sent
-                    for (int progress = 0; progress <= 100; progress += 10) {
-                        try {
-                            Thread.sleep(100); // Simulate a delay in sending the file
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                        final int currentProgress = progress;
-                        runOnUiThread(() -> progressBar.setProgress(currentProgress));
-                    }
-
-                    ContentResolver contentResolver = getContentResolver();
-
-                    SendFileCommand sendFileCommand = new SendFileCommand(FILE_COMMAND,contentResolver, outputStream, data,progressListener);
-                    sendFileCommand.execute();
-
-                    Message message = new Message(MessageType.FILE_SENT, filePath,fileName, fileSize);
-                    messages.add(message);
-
-                    messageAdapter.notifyDataSetChanged();
-
-                    // Hide the progress bar after the file is sent
-                    progressBar.setVisibility(View.GONE);
-                },1000);
+                ContentResolver contentResolver = getContentResolver();
+                long fileSize = SendFileCommand.getFileSize(contentResolver, file);
+                Message message = new Message(MessageType.FILE_SENT, filePath, fileName, fileSize);
+
+                // Every peer gets its own transfer, run on a thread of the transfer manager, which reports its progress;
+                // the first of them to need the content hash computes it for all
+                SendFileCommand.SharedContentHash contentHash = new SendFileCommand.SharedContentHash();
+                boolean queued = false;
+                for (Session session : FileService.sessions) {
+                    TransferManager.Transfer transfer = FileService.transferManager.enqueue(fileName, fileSize, TransferManager.PRIORITY_NORMAL,
+                            progressListener -> new SendFileCommand(contentResolver, session, data, progressDispatcher.register(progressListener), contentHash));
+                    sentFileMessages.put(transfer.getId(), message);
+                    queued = true;
+                }
+                if (!queued) {
+                    // No peer to wait for, the file is shown at once
+                    displayMessage(message);
+                }
             }
         }
     }
@@ -1,7 +1,5 @@
 package com.example.myapplication;
 
-import static com.example.myapplication.ChatActivity.readCommand;
-
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
@@ -9,28 +7,95 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A service class for handling file-related operations over a socket connection.
+ * A service class for handling file-related operations over socket connections.
+ * Every connected peer has its own {@link Session}; a device waiting for connections accepts peers
+ * until {@link #MAX_SESSIONS} are connected, so it can serve as the hub of many peers at once.
  */
 public class FileService extends Service {
     protected static String username;
     private static final int PORT = 7777;
-    private static ServerSocket serverSocket;
-    private static Socket server;
-    protected static Socket client;
-    protected static DataOutputStream outputStream;
-    protected static DataInputStream input;
+    /** The most peers connected at the same time, each session runs a reader and a writer thread. */
+    static final int MAX_SESSIONS = 64;
+    private static ServerSocketChannel serverSocket;
+    /** The connected peers, in the order they connected. */
+    protected static final List<Session> sessions = new CopyOnWriteArrayList<>();
+    /** The chat bytes that may wait for one peer before it is disconnected as too slow for the room. */
+    static final int MAX_QUEUED_BYTES = 256 * 1024;
+    /** The group chat of all connected peers, every message is encoded once and queued for each of them. */
+    protected static final Room room = new Room(MAX_QUEUED_BYTES, Room.SlowMemberPolicy.DISCONNECT);
+    protected static TransferJournal transferJournal;
+    /** The content hashes of received and sent files, see {@link ContentIndex}. */
+    protected static ContentIndex contentIndex;
+    protected static final TransferManager transferManager = new TransferManager(TransferManager.DEFAULT_MAX_CONCURRENT);
+    /**
+     * The number of parallel connections used for large files. 1 sends every file on the main connection,
+     * {@link RangeTransfer#AUTO_STREAMS} picks the number from the file size.
+     */
+    protected static volatile int parallelStreams = 1;
+    /**
+     * Whether files sent on the chat connection are compressed in parallel blocks, which pays off on slow links.
+     * Files in compressed formats are always sent as they are.
+     */
+    protected static volatile boolean compressTransfers = false;
+    /** When the writer of the next connection writes the frames it collected, see {@link FlushPolicy}. */
+    protected static volatile FlushPolicy flushPolicy = FlushPolicy.IMMEDIATE;
+    /** The time between two dumps of the {@link TransferMetrics} to the log. */
+    static final long METRICS_LOG_MINUTES = 1;
+    private ScheduledExecutorService metricsLogger;
+    /** Keeps the received files in the Downloads folder and shows them in the chat. */
+    static final TransferStore transferStore = new TransferStore() {
+        @Override
+        public TransferJournal getTransferJournal() {
+            return transferJournal;
+        }
+
+        @Override
+        public ContentIndex getContentIndex() {
+            return contentIndex;
+        }
+
+        @Override
+        public File prepareFileForWriting(String fileName, long fileSize, String transferId) {
+            return ReceiveFileCommand.prepareFileForWriting(fileName, fileSize, transferId);
+        }
+
+        @Override
+        public void preallocate(RandomAccessFile file, long length) throws IOException {
+            ReceiveFileCommand.preallocate(file, length);
+        }
+
+        @Override
+        public void onFileReceived(Session session, String transferId, File file) {
+            ReceiveFileCommand.updateUIWithReceivedFile(file);
+        }
+    };
 
     public int onStartCommand(Intent intent, int flags, int startId) {
+        transferJournal = new TransferJournal(new File(getFilesDir(), "transfers"));
+        contentIndex = new ContentIndex(new File(getFilesDir(), "content-index"));
+        ChatActivity.openMessageStore(this);
+        if (metricsLogger == null) {
+            metricsLogger = Executors.newSingleThreadScheduledExecutor();
+            TransferMetrics.DEFAULT.logPeriodically(metricsLogger, METRICS_LOG_MINUTES, TimeUnit.MINUTES,
+                    snapshot -> Log.i("Metrics", snapshot));
+        }
 
         try {
-            serverSocket = new ServerSocket(PORT);
+            serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(PORT));
 
             System.out.println(serverSocket);
 
@@ -42,37 +107,43 @@ public class FileService extends Service {
     }
 
     /**
-     * Waits for a connection from a client.
+     * Waits for connections from clients and starts a session for each of them, until the server socket is closed.
      *
-     * @param name - the username for the connection.
-     * @return - A new thread for handling the connection.
+     * @param name - the username for the connections.
+     * @return - A new thread accepting the connections.
      */
     public static Thread waitForConnection(String name) {
         //socket connection server side
-        Log.i("Server", "Listening for client connection.");
+        Log.i("Server", "Listening for client connections.");
+        FileService.username = name;
 
         return new Thread(() -> {
-            try {
-                server = serverSocket.accept();
-
-                // Get the client's IP address
-                String ipAddress = server.getInetAddress().getHostAddress();
-
-                Log.i("Server", "Client connected from: " + ipAddress);
-
-                input = new DataInputStream(server.getInputStream());
-
-                outputStream = new DataOutputStream(server.getOutputStream());
-
-                FileService.username = name;
-
-                readCommand().setDaemon(true);
-                readCommand().start();
-
-            } catch (IOException e) {
-                e.printStackTrace();
+            while (serverSocket.isOpen()) {
+                SocketChannel socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isOpen()) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+                try {
+                    // Get the client's IP address
+                    String ipAddress = socket.socket().getInetAddress().getHostAddress();
+                    if (sessions.size() >= MAX_SESSIONS) {
+                        Log.w("Server", "Refusing " + ipAddress + ", " + MAX_SESSIONS + " peers are connected");
+                        socket.close();
+                        continue;
+                    }
+                    configureSocket(socket);
+                    Log.i("Server", "Client connected from: " + ipAddress);
+                    startSession(ipAddress, socket);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-        });
+        }, "acceptor");
     }
 
     /**
@@ -89,22 +160,66 @@ public class FileService extends Service {
         try {
             //socket connection client side
             FileService.username = username;
-            client = new Socket(ip, port);
+            SocketChannel socket = SocketChannel.open(new InetSocketAddress(ip, port));
+            configureSocket(socket);
 
-            String serverIPAddress = client.getLocalAddress().getHostAddress();
+            String serverIPAddress = socket.socket().getLocalAddress().getHostAddress();
             Log.i("Client", "Connected to server at: " + serverIPAddress);
 
-            input = new DataInputStream(client.getInputStream());
-            outputStream = new DataOutputStream(client.getOutputStream());
-
-            readCommand().setDaemon(true);
-            readCommand().start();
+            startSession(ip, socket);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Sets the options of the chat connection. The {@link FrameWriter} coalesces small frames itself, so Nagle's
+     * algorithm is turned off: it would only hold a message back until the previous one is acknowledged.
+     *
+     * @param socket - the connected socket.
+     * @throws IOException - if the options cannot be set
+     */
+    static void configureSocket(SocketChannel socket) throws IOException {
+        socket.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Starts the session of a connected peer. Its frames are handled by the commands of
+     * {@link ChatActivity#createReceiveCommand}, on the reader thread of the session.
+     *
+     * @param peer - the address of the peer, used to name the threads of the session.
+     * @param socket - the connected socket.
+     * @return - the started session.
+     */
+    static Session startSession(String peer, SocketChannel socket) {
+        Session session = new Session(peer, socket, flushPolicy, transferStore);
+        sessions.add(session);
+        room.join(session);
+        session.start(new Session.Listener() {
+            @Override
+            public void onFrame(Session session, FrameType frameType) throws IOException {
+                Command command = ChatActivity.createReceiveCommand(frameType, session);
+                if (command != null) {
+                    command.execute();
+                }
+            }
+
+            @Override
+            public void onDisconnected(Session session, IOException cause) {
+                Log.i("FileService", "Connection to " + session.peer + " closed", cause);
+                sessions.remove(session);
+                room.leave(session);
+                try {
+                    session.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        return session;
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -113,6 +228,9 @@ public class FileService extends Service {
 
     @Override
     public void onDestroy() {
+        if (metricsLogger != null) {
+            metricsLogger.shutdownNow();
+        }
         try {
             stopConnection();
         } catch (IOException e) {
@@ -122,16 +240,23 @@ public class FileService extends Service {
     }
 
     /**
-     * Stops the connection and closes associated resources.
+     * Stops all connections and closes associated resources.
      *
-     * @throws IOException - if an I/O error occurs when closing the connection.
+     * @throws IOException - if an I/O error occurs when closing a connection.
      */
     public static void stopConnection() throws IOException {
-        if (client != null)
-            client.close();
-        if (input != null)
-            input.close();
-        if (server != null)
-            server.close();
+        IOException failure = null;
+        for (Session session : sessions) {
+            sessions.remove(session);
+            room.leave(session);
+            try {
+                session.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
     }
 }
\ No newline at end of file
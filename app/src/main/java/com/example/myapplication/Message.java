@@ -31,6 +31,20 @@ public class Message {
         this.fileSize = fileSize;
     }
 
+    /**
+     * Restores a message read back from the {@link MessageStore}.
+     */
+    Message(MessageType messageType, String username, String content, long timestamp,
+            String filePath, String fileName, long fileSize) {
+        this.messageType = messageType;
+        this.username = username;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.filePath = filePath;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -50,6 +64,9 @@ public class Message {
     public String getFileName() {
         return fileName;
     }
+    public long getFileSize() {
+        return fileSize;
+    }
 }
 
 
@@ -1,6 +1,9 @@
 package com.example.myapplication;
 
+import android.annotation.SuppressLint;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,102 +11,169 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
 
 /**
  * The MessageAdapter class is responsible for displaying messages and files within a RecyclerView.
  * It extends RecyclerView.Adapter and overrides necessary methods to support different message types.
+ * It shows an immutable {@link MessageStore.Snapshot} of the history, replaced on the main thread by
+ * {@link #submitSnapshot}, so messages added by other threads meanwhile never change what the RecyclerView sees.
+ * Rows show {@link MessageDisplay}s, which a {@link MessageDisplayCache} computes ahead in the background
+ * from the pages of the history, so binding a row of a computed page allocates nothing.
+ * Messages are never changed or removed, so the position of a message is its stable id and a newer snapshot
+ * differs from the shown one by the messages inserted at its end: only those rows are bound.
  */
 public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
-    private final List<Message> messages;
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    private MessageStore.Snapshot messages;
+    private final MessageDisplayCache displays;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private OnItemClickListener onItemClickListener;
     private final Context context;
 
-    public MessageAdapter(Context context, List<Message> messages) {
+    public MessageAdapter(Context context, MessageStore.Snapshot messages) {
         this.context = context;
         this.messages = messages;
+        this.displays = new MessageDisplayCache(context, (start, count) -> mainHandler.post(() -> rebind(start, count)));
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows a newer snapshot of the history, on the main thread.
+     *
+     * @param snapshot - the snapshot to show.
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    public void submitSnapshot(MessageStore.Snapshot snapshot) {
+        MessageStore.Snapshot previous = messages;
+        messages = snapshot;
+        if (snapshot.continues(previous)) {
+            if (snapshot.size() > previous.size()) {
+                notifyItemRangeInserted(previous.size(), snapshot.size() - previous.size());
+            }
+        } else {
+            // Another store, there is nothing to compare
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Binds the rows of a page again once its models are computed, replacing their placeholders.
+     */
+    private void rebind(int start, int count) {
+        int end = Math.min(start + count, messages.size());
+        if (start < end) {
+            notifyItemRangeChanged(start, end - start);
+        }
+    }
+
+    /**
+     * @param position - the position of a row.
+     * @return - the path of the file shown in the row, from its model so nothing is read from the disk,
+     * or null if the row shows a chat message.
+     */
+    public String getFilePath(int position) {
+        return displays.get(messages, position).filePath;
     }
 
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view;
-        MessageType messageType = MessageType.values()[viewType];
+        MessageType messageType = MESSAGE_TYPES[viewType];
 
         switch (messageType){
             case MESSAGE_SENT:
                 view = LayoutInflater.from(parent.getContext())
                         .inflate(R.layout.send_message, parent, false);
-                return new MessageViewHolder(view);
+                MessageViewHolder sentHolder = new MessageViewHolder(view);
+                displays.setTextParams(viewType, TextViewCompat.getTextMetricsParams(sentHolder.messageTextViewSender));
+                return sentHolder;
             case MESSAGE_RECEIVED:
                 view = LayoutInflater.from(parent.getContext())
                         .inflate(R.layout.receive_message, parent, false);
-                return new MessageViewHolder(view);
+                MessageViewHolder receivedHolder = new MessageViewHolder(view);
+                displays.setTextParams(viewType, TextViewCompat.getTextMetricsParams(receivedHolder.messageTextViewReceiver));
+                return receivedHolder;
             case FILE_SENT:
                 view = LayoutInflater.from(parent.getContext())
                         .inflate(R.layout.send_file,parent,false);
-                return new FileViewHolder(view,context);
+                return createFileViewHolder(view);
             case FILE_RECEIVED:
                 view = LayoutInflater.from(parent.getContext())
                         .inflate(R.layout.receive_file,parent,false);
-                return new FileViewHolder(view,context);
+                return createFileViewHolder(view);
             default:
                 return null;
         }
     }
 
+    /**
+     * Creates the holder of a file row, with its click listener, which finds the row's position when clicked.
+     */
+    private FileViewHolder createFileViewHolder(View view) {
+        FileViewHolder fileHolder = new FileViewHolder(view, context);
+        fileHolder.itemView.setOnClickListener(clicked -> {
+            if (onItemClickListener != null) {
+                int adapterPosition = fileHolder.getAdapterPosition();
+                if (adapterPosition != RecyclerView.NO_POSITION) {
+                    onItemClickListener.onItemClick(clicked, adapterPosition);
+                }
+            }
+        });
+        return fileHolder;
+    }
+
+    /**
+     * Shows the precomputed model of the message, which only sets the views.
+     */
     @Override
     public void onBindViewHolder(@NonNull final MessageViewHolder holder, int position) {
-        Message message = messages.get(position);
+        MessageDisplay display = displays.get(messages, position);
 
         if(holder instanceof FileViewHolder){
             FileViewHolder fileHolder = (FileViewHolder) holder;
-            fileHolder.fileNameTextView.setText(message.getFileName());
-
-            // Set the file icon based on the file extension
-            String extension = FileViewHolder.getExtensionFromPath(message.getFilePath());
-            int iconResId = FileViewHolder.getFileIconResId(extension);
-
-            fileHolder.fileIconImageView.setImageResource(iconResId);
-
-            fileHolder.setFilePath(message.getFilePath());
-
-            // Set click listener to the file view
-            fileHolder.itemView.setOnClickListener(view -> {
-                if (onItemClickListener != null) {
-                    int adapterPosition = holder.getAdapterPosition();
-                    if (adapterPosition != RecyclerView.NO_POSITION) {
-                        onItemClickListener.onItemClick(view, adapterPosition);
-                    }
-                }
-            });
+            fileHolder.fileNameTextView.setText(display.fileName);
+            fileHolder.fileSizeTextView.setText(display.fileSize);
+            fileHolder.fileIconImageView.setImageResource(display.iconResId);
+            fileHolder.filePath = display.filePath;
         } else {
             // It's a message ViewHolder
-            MessageType messageType = MessageType.values()[holder.getItemViewType()];
-            if (messageType == MessageType.MESSAGE_SENT) {
-                holder.messageTextViewSender.setText(message.getContent());
-                holder.timestampTextViewSender.setText(getFormattedTimestamp(message.getTimestamp()));
-
-            } else if (messageType == MessageType.MESSAGE_RECEIVED) {
-                holder.messageTextViewReceiver.setText(message.getContent());
-                holder.timestampTextViewReceiver.setText(getFormattedTimestamp(message.getTimestamp()));
-                holder.usernameTextViewReceiver.setText(message.getUsername());
+            if (display.viewType == MessageType.MESSAGE_SENT.ordinal()) {
+                setContent(holder.messageTextViewSender, display.content);
+                holder.timestampTextViewSender.setText(display.time);
+
+            } else if (display.viewType == MessageType.MESSAGE_RECEIVED.ordinal()) {
+                setContent(holder.messageTextViewReceiver, display.content);
+                holder.timestampTextViewReceiver.setText(display.time);
+                holder.usernameTextViewReceiver.setText(display.username);
             }
         }
     }
 
+    private static void setContent(TextView textView, CharSequence content) {
+        if (content instanceof PrecomputedTextCompat) {
+            TextViewCompat.setPrecomputedText(textView, (PrecomputedTextCompat) content);
+        } else {
+            textView.setText(content);
+        }
+    }
+
     @Override
     public int getItemCount() { return messages.size(); }
 
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
     @Override
     public int getItemViewType(int position) {
-        Message message =  messages.get(position);
-        return message.getMessageType().ordinal();
+        return displays.get(messages, position).viewType;
     }
 
     /**
@@ -114,16 +184,6 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         this.onItemClickListener = listener;
     }
 
-    /**
-     * Returns a formatted string representing the timestamp of a message.
-     * @param timestamp - the timestamp in milliseconds.
-     * @return - a string representing the formatted timestamp.
-     */
-    private String getFormattedTimestamp(long timestamp) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        return dateFormat.format(new Date(timestamp));
-    }
-
     /**
      * An interface to be implemented by listeners for handling item clicks in the RecyclerView.
      */
@@ -167,14 +227,6 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
             fileSizeTextView = itemView.findViewById(R.id.file_size);
             fileIconImageView = itemView.findViewById(R.id.file_icon);
         }
-        public void setFilePath(String filePath) {
-            this.filePath = filePath;
-
-            String extension = getExtensionFromPath(filePath);
-            int iconResID = getFileIconResId(extension);
-
-            fileIconImageView.setImageResource(iconResID);
-        }
 
         /**
          * Returns a file extension from the given file path.
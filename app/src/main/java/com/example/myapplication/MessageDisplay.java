@@ -0,0 +1,33 @@
+package com.example.myapplication;
+
+/**
+ * What a row of the chat shows for a message, computed ahead by the {@link MessageDisplayCache},
+ * so binding the row only hands these values to its views.
+ */
+final class MessageDisplay {
+    /** The ordinal of the {@link MessageType}, the view type of the row. */
+    final int viewType;
+    /** The text of a chat message, a PrecomputedTextCompat for a long one, null for a file. */
+    final CharSequence content;
+    final String username;
+    /** The time of a chat message as shown, "HH:mm". */
+    final String time;
+    final String fileName;
+    final String filePath;
+    /** The size of a file as shown, e.g. "4.2 MB". */
+    final String fileSize;
+    /** The icon of a file, chosen by its extension. */
+    final int iconResId;
+
+    MessageDisplay(int viewType, CharSequence content, String username, String time,
+                   String fileName, String filePath, String fileSize, int iconResId) {
+        this.viewType = viewType;
+        this.content = content;
+        this.username = username;
+        this.time = time;
+        this.fileName = fileName;
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.iconResId = iconResId;
+    }
+}
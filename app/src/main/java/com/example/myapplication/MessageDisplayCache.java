@@ -0,0 +1,288 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.text.format.Formatter;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Turns the messages of the history into {@link MessageDisplay}s ahead of the rows showing them.
+ * The models are computed a page of {@link MessageStore#PAGE_SIZE} at a time on a background thread,
+ * which also reads the page from the disk: the page shown, then the one the user scrolls towards.
+ * The last {@link #CACHED_PAGES} pages are kept in fixed slots, so looking up a computed model allocates
+ * nothing. The main thread never reads the disk: a row bound before its page is computed gets its model computed
+ * on the spot if the message is in memory, e.g. one just added, and otherwise {@link #PLACEHOLDER}, until the
+ * {@link Listener} hears that the page is computed and binds its rows again.
+ * <p>
+ * Times are formatted once per minute, the last {@link #CACHED_MINUTES} minutes are kept. Chat messages of at least
+ * {@link #LONG_BODY_CHARS} characters are laid out ahead as PrecomputedTextCompat, with the text metrics of the
+ * rows, which are known once the first row of the type is created.
+ */
+class MessageDisplayCache {
+    static final int CACHED_PAGES = 8;
+    static final int CACHED_MINUTES = 32;
+    static final int LONG_BODY_CHARS = 200;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    /** Shown by a row whose message is still being read from the disk. */
+    static final MessageDisplay PLACEHOLDER = new MessageDisplay(MessageType.MESSAGE_RECEIVED.ordinal(), "", "", "",
+            null, null, null, 0);
+
+    /** Computes the pages, shared by the adapters of every chat activity. */
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Hears about the pages computed in the background whose rows were shown with placeholders.
+     */
+    interface Listener {
+        /**
+         * Called on the background thread.
+         *
+         * @param start - the position of the first message of the page.
+         * @param count - the number of messages of the page.
+         */
+        void onPageComputed(int start, int count);
+    }
+
+    private final Context context;
+    private final Executor executor;
+    private final Listener listener;
+    private final int[] pageNumbers = new int[CACHED_PAGES];
+    private final MessageDisplay[][] pages = new MessageDisplay[CACHED_PAGES][MessageStore.PAGE_SIZE];
+    /** The number of models of every page computed so far. */
+    private final int[] computed = new int[CACHED_PAGES];
+    /** Whether rows of the page were shown with placeholders, which the listener hears about. */
+    private final boolean[] placeholders = new boolean[CACHED_PAGES];
+    /** The latest page with placeholders not computed yet, -1 if none, and the history it was shown from. */
+    private int wanted = -1;
+    private MessageStore.Snapshot wantedSnapshot;
+    private final long[] lastUsed = new long[CACHED_PAGES];
+    private long uses;
+    /** The page being computed in the background, -1 if none. */
+    private int prefetching = -1;
+    private final PrecomputedTextCompat.Params[] textParams = new PrecomputedTextCompat.Params[MESSAGE_TYPES.length];
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final long[] minutes = new long[CACHED_MINUTES];
+    private final String[] minuteTexts = new String[CACHED_MINUTES];
+
+    MessageDisplayCache(Context context, Listener listener) {
+        this(context, EXECUTOR, listener);
+    }
+
+    /**
+     * @param context - the context the file sizes are formatted for.
+     * @param executor - computes the pages, on a background thread.
+     * @param listener - hears about the pages whose placeholders can be replaced.
+     */
+    MessageDisplayCache(Context context, Executor executor, Listener listener) {
+        this.context = context;
+        this.executor = executor;
+        this.listener = listener;
+        Arrays.fill(pageNumbers, -1);
+    }
+
+    /**
+     * Sets the text metrics of the rows of a type, so long messages shown by them are precomputed from now on.
+     *
+     * @param viewType - the view type of the rows.
+     * @param params - the text metrics of the message view of the rows.
+     */
+    synchronized void setTextParams(int viewType, PrecomputedTextCompat.Params params) {
+        textParams[viewType] = params;
+    }
+
+    /**
+     * Returns the model of a message, on the main thread, and starts computing the page the user scrolls towards.
+     *
+     * @param snapshot - the history shown.
+     * @param position - the position of the message.
+     * @return - the model of the message.
+     */
+    synchronized MessageDisplay get(MessageStore.Snapshot snapshot, int position) {
+        int page = position / MessageStore.PAGE_SIZE;
+        int offset = position % MessageStore.PAGE_SIZE;
+        int slot = slotOf(page);
+        if (slot < 0) {
+            slot = claim(page);
+        }
+        lastUsed[slot] = ++uses;
+        MessageDisplay display = pages[slot][offset];
+        if (display == null) {
+            Message message = snapshot.peek(position);
+            if (message != null) {
+                display = create(message, false);
+                pages[slot][offset] = display;
+                computed[slot]++;
+            } else {
+                display = PLACEHOLDER;
+                placeholders[slot] = true;
+                wanted = page;
+                wantedSnapshot = snapshot;
+            }
+        }
+
+        prefetch(snapshot, page);
+        prefetch(snapshot, offset < MessageStore.PAGE_SIZE / 2 ? page - 1 : page + 1);
+        return display;
+    }
+
+    private int slotOf(int page) {
+        for (int slot = 0; slot < CACHED_PAGES; slot++) {
+            if (pageNumbers[slot] == page) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes the slot of the page used least recently for another page.
+     */
+    private int claim(int page) {
+        int slot = 0;
+        for (int candidate = 1; candidate < CACHED_PAGES; candidate++) {
+            if (lastUsed[candidate] < lastUsed[slot]) {
+                slot = candidate;
+            }
+        }
+        pageNumbers[slot] = page;
+        Arrays.fill(pages[slot], null);
+        computed[slot] = 0;
+        placeholders[slot] = false;
+        return slot;
+    }
+
+    /**
+     * Computes the missing models of a page in the background, unless another page is being computed.
+     */
+    private void prefetch(MessageStore.Snapshot snapshot, int page) {
+        int start = page * MessageStore.PAGE_SIZE;
+        if (prefetching >= 0 || page < 0 || start >= snapshot.size()) {
+            return;
+        }
+        int slot = slotOf(page);
+        if (slot >= 0 && computed[slot] == Math.min(MessageStore.PAGE_SIZE, snapshot.size() - start)) {
+            return;
+        }
+        prefetching = page;
+        executor.execute(() -> computePage(snapshot, page));
+    }
+
+    private void computePage(MessageStore.Snapshot snapshot, int page) {
+        boolean notify = false;
+        int start = page * MessageStore.PAGE_SIZE;
+        int count = 0;
+        try {
+            MessageDisplay[] displays = new MessageDisplay[Math.min(MessageStore.PAGE_SIZE, snapshot.size() - start)];
+            synchronized (this) {
+                int slot = slotOf(page);
+                if (slot >= 0) {
+                    System.arraycopy(pages[slot], 0, displays, 0, displays.length);
+                }
+            }
+            // Only the models still missing, e.g. those of the messages added since the page was computed
+            for (int i = 0; i < displays.length; i++) {
+                if (displays[i] == null) {
+                    displays[i] = create(snapshot.get(start + i), true);
+                }
+            }
+            synchronized (this) {
+                int slot = slotOf(page);
+                if (slot < 0) {
+                    slot = claim(page);
+                    // As recent as the page last shown, which it is next to
+                    lastUsed[slot] = uses;
+                }
+                for (int i = 0; i < displays.length; i++) {
+                    // A model computed meanwhile for a row being bound is kept
+                    if (pages[slot][i] == null) {
+                        pages[slot][i] = displays[i];
+                        computed[slot]++;
+                    }
+                }
+                notify = placeholders[slot];
+                placeholders[slot] = false;
+                count = displays.length;
+            }
+        } catch (RuntimeException e) {
+            // A page that cannot be read keeps its placeholders, it is read again when it is shown again
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                prefetching = -1;
+                if (wanted == page) {
+                    wanted = -1;
+                    wantedSnapshot = null;
+                } else if (wanted >= 0) {
+                    // Shown with placeholders while another page was being computed
+                    MessageStore.Snapshot wantedFrom = wantedSnapshot;
+                    int wantedPage = wanted;
+                    wanted = -1;
+                    wantedSnapshot = null;
+                    prefetch(wantedFrom, wantedPage);
+                }
+            }
+        }
+        if (notify) {
+            listener.onPageComputed(start, count);
+        }
+    }
+
+    /**
+     * Computes the model of a message.
+     *
+     * @param message - the message.
+     * @param precompute - whether to lay out a long text ahead, only worth it off the main thread.
+     * @return - the model.
+     */
+    MessageDisplay create(Message message, boolean precompute) {
+        MessageType messageType = message.getMessageType();
+        if (messageType == MessageType.FILE_SENT || messageType == MessageType.FILE_RECEIVED) {
+            String extension = MessageAdapter.FileViewHolder.getExtensionFromPath(message.getFilePath());
+            return new MessageDisplay(messageType.ordinal(), null, message.getUsername(), null,
+                    message.getFileName(), message.getFilePath(),
+                    Formatter.formatShortFileSize(context, message.getFileSize()),
+                    MessageAdapter.FileViewHolder.getFileIconResId(extension));
+        }
+
+        CharSequence content = message.getContent();
+        if (precompute && content != null && content.length() >= LONG_BODY_CHARS) {
+            PrecomputedTextCompat.Params params;
+            synchronized (this) {
+                params = textParams[messageType.ordinal()];
+            }
+            if (params != null) {
+                content = PrecomputedTextCompat.create(content, params);
+            }
+        }
+        return new MessageDisplay(messageType.ordinal(), content, message.getUsername(),
+                formatTime(message.getTimestamp()), null, null, null, 0);
+    }
+
+    /**
+     * Formats the time of a message, once per minute.
+     *
+     * @param timestamp - the timestamp in milliseconds.
+     * @return - the time as "HH:mm".
+     */
+    String formatTime(long timestamp) {
+        long minute = Math.floorDiv(timestamp, MINUTE_MILLIS);
+        int slot = (int) Math.floorMod(minute, (long) CACHED_MINUTES);
+        synchronized (timeFormat) {
+            if (minuteTexts[slot] == null || minutes[slot] != minute) {
+                minuteTexts[slot] = timeFormat.format(new Date(timestamp));
+                minutes[slot] = minute;
+            }
+            return minuteTexts[slot];
+        }
+    }
+}
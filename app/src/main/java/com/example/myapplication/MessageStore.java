@@ -0,0 +1,283 @@
+package com.example.myapplication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The chat history, kept in a {@link SegmentedLog} so it survives the process and a chat of any length
+ * opens at once. The list is what the {@link MessageAdapter} shows: it reads the messages from the log
+ * in pages of {@link #PAGE_SIZE} as the user scrolls to them and keeps the last {@link #CACHED_PAGES} pages
+ * it read, so the memory used does not depend on the length of the history.
+ * Adding a message appends it to the log, a sequential write, and to its page if that page is in memory.
+ * Messages are added from any thread with {@link #append}, which writes them on the single writer thread of the
+ * store; the UI only reads immutable {@link Snapshot}s of the store. Neither {@link #size()} nor {@link #snapshot()}
+ * waits for the disk: the size is published once a message is written.
+ */
+public class MessageStore extends AbstractList<Message> implements Closeable {
+    static final int PAGE_SIZE = 100;
+    static final int CACHED_PAGES = 8;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final SegmentedLog log;
+    /** Writes the messages added with {@link #append}, in order. */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    /** Held while a message is written, so the sizes are published in the order of the log. */
+    private final Object appendLock = new Object();
+    /** The number of messages written, published after each write. */
+    private volatile int size;
+    /** The pages in memory, guarded by itself and never held during a read from the disk. */
+    private final Map<Long, List<Message>> pages = new LinkedHashMap<Long, List<Message>>(CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<Message>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    /**
+     * Opens the history kept in a directory.
+     *
+     * @param directory - the directory of the log, created if missing.
+     * @throws IOException - if the log cannot be opened.
+     */
+    public MessageStore(File directory) throws IOException {
+        this.log = new SegmentedLog(directory);
+        this.size = (int) log.size();
+    }
+
+    /**
+     * The history up to one message. Messages are only ever appended, so the prefix of the store never changes
+     * and the snapshot can be read from any thread while the store grows. The position of a message in the
+     * snapshot is its number in the log, the same in every later snapshot.
+     */
+    public static final class Snapshot extends AbstractList<Message> {
+        private final MessageStore store;
+        private final int size;
+
+        private Snapshot(MessageStore store, int size) {
+            this.store = store;
+            this.size = size;
+        }
+
+        @Override
+        public Message get(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Message " + position + " of " + size);
+            }
+            return store.get(position);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param position - the position of the message.
+         * @return - the message if its page is in memory, otherwise null, see {@link MessageStore#peek}.
+         */
+        public Message peek(int position) {
+            return position >= 0 && position < size ? store.peek(position) : null;
+        }
+
+        /**
+         * @param previous - an older snapshot.
+         * @return - true if this snapshot only adds messages after those of the older one.
+         */
+        public boolean continues(Snapshot previous) {
+            return store == previous.store && size >= previous.size;
+        }
+    }
+
+    /**
+     * @return - the history as it is now, which does not change when messages are added afterwards.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a message, reading its page from the log if it is not in memory, so not on the main thread.
+     *
+     * @param position - the position of the message, 0 is the oldest.
+     * @return - the message.
+     */
+    @Override
+    public Message get(int position) {
+        int count = size;
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Message " + position + " of " + count);
+        }
+        long page = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+        synchronized (pages) {
+            List<Message> messages = pages.get(page);
+            // A page read while the message was being written may end before it
+            if (messages != null && messages.size() > offset) {
+                return messages.get(offset);
+            }
+        }
+        List<Message> messages = readPage(page);
+        synchronized (pages) {
+            pages.put(page, messages);
+        }
+        return messages.get(offset);
+    }
+
+    /**
+     * Returns a message if its page is in memory, without reading the disk, e.g. on the main thread.
+     *
+     * @param position - the position of the message, 0 is the oldest.
+     * @return - the message, or null if its page would have to be read.
+     */
+    public Message peek(int position) {
+        synchronized (pages) {
+            List<Message> messages = pages.get((long) (position / PAGE_SIZE));
+            return messages != null && messages.size() > position % PAGE_SIZE ? messages.get(position % PAGE_SIZE) : null;
+        }
+    }
+
+    /**
+     * Adds a message to the history on the writer thread of the store, so the calling thread never waits for the disk.
+     *
+     * @param message - the message.
+     * @param onWritten - run on the writer thread once the message is in the store, e.g. to show a new snapshot.
+     */
+    public void append(Message message, Runnable onWritten) {
+        writer.execute(() -> {
+            if (add(message)) {
+                onWritten.run();
+            }
+        });
+    }
+
+    /**
+     * Writes a message to the history on the calling thread, see {@link #append} for the main thread.
+     *
+     * @param message - the message.
+     * @return - true if the message was written.
+     */
+    @Override
+    public boolean add(Message message) {
+        synchronized (appendLock) {
+            long position;
+            try {
+                position = log.append(encode(message));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            synchronized (pages) {
+                // A page not in memory reads the message back when it is shown
+                List<Message> page = pages.get(position / PAGE_SIZE);
+                if (page != null && page.size() == position % PAGE_SIZE) {
+                    page.add(message);
+                }
+            }
+            size = (int) position + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the messages still being added, then closes the log.
+     *
+     * @throws IOException - if the log cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (pages) {
+            pages.clear();
+        }
+        log.close();
+    }
+
+    private List<Message> readPage(long page) {
+        try {
+            List<byte[]> records = log.read(page * PAGE_SIZE, PAGE_SIZE);
+            List<Message> messages = new ArrayList<>(PAGE_SIZE);
+            for (byte[] record : records) {
+                messages.add(decode(record));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read messages of page " + page, e);
+        }
+    }
+
+    /**
+     * Writes a message as its type, timestamp, file size, and its text fields, each of which may be null.
+     *
+     * @param message - the message.
+     * @return - the record of the message.
+     * @throws IOException - never, the record is written to memory.
+     */
+    static byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(message.getMessageType().ordinal());
+        out.writeLong(message.getTimestamp());
+        out.writeLong(message.getFileSize());
+        writeString(out, message.getUsername());
+        writeString(out, message.getContent());
+        writeString(out, message.getFilePath());
+        writeString(out, message.getFileName());
+        return bytes.toByteArray();
+    }
+
+    static Message decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        MessageType messageType = MessageType.values()[in.readUnsignedByte()];
+        long timestamp = in.readLong();
+        long fileSize = in.readLong();
+        String username = readString(in);
+        String content = readString(in);
+        String filePath = readString(in);
+        String fileName = readString(in);
+        return new Message(messageType, username, content, timestamp, filePath, fileName, fileSize);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
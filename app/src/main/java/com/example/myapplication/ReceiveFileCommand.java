@@ -1,21 +1,18 @@
 package com.example.myapplication;
 
-import static com.example.myapplication.ChatActivity.handler;
-import static com.example.myapplication.ChatActivity.messageAdapter;
-import static com.example.myapplication.ChatActivity.messages;
-import static com.example.myapplication.ChatActivity.readAndDeserializeNextElementSize;
+import static com.example.myapplication.ChatActivity.displayMessage;
 import static com.example.myapplication.ChatActivity.showCustomProgressDialog;
-import static com.example.myapplication.CustomData.readAndConvertBytesToString;
-import static com.example.myapplication.FileService.input;
 
 import android.annotation.SuppressLint;
 import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 /**
  * The ReceiveFileCommand class is responsible for receiving and processing files sent over a network connection.
@@ -24,16 +21,23 @@ import java.io.IOException;
  * preparing the file for writing, writing the file content, updating the UI with the
  * received file, and reading and deserializing the next element's long size from the
  * input stream.
+ * The destination file is preallocated to the announced length and the file body is moved
+ * straight from the socket channel into the file channel.
  */
 public class ReceiveFileCommand implements Command {
-    private static final int CHUNK_SIZE = 16 * 1024 * 1024; // 16 MB
+    private final Session session;
+
+    public ReceiveFileCommand(Session session) {
+        this.session = session;
+    }
+
     @SuppressLint("NotifyDataSetChanged")
     @Override
     public void execute() throws IOException {
         String fileName = receiveFileName();
         long fileBytesLength = readAndDeserializeNextElementLongSize();
 
-        File file = prepareFileForWriting(fileName);
+        File file = prepareFileForWriting(fileName, fileBytesLength, null);
         if (file != null) {
             writeFileContent(file, fileBytesLength);
             updateUIWithReceivedFile(file);
@@ -47,28 +51,26 @@ public class ReceiveFileCommand implements Command {
      * @throws IOException - if an error occurs while reading the input stream
      */
     private String receiveFileName() throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        int fileNameSize = readAndDeserializeNextElementSize(byteArrayOutputStream);
-        byte[] fileNameBytes = new byte[fileNameSize];
-        int line = input.read(fileNameBytes, 0, fileNameSize);
-        return readAndConvertBytesToString(byteArrayOutputStream, line, fileNameBytes);
+        return session.decoder.readString();
     }
 
     /**
      * Prepares the file for writing by checking available space and creating a new file
      *
      * @param fileName - name of the file to be written
+     * @param fileBytesLength - announced length of the file content in bytes
+     * @param transferId - id of the resumable transfer writing the file, or null
      * @return - File object ready for writing, or null if there's not enough space
      */
-    private File prepareFileForWriting(String fileName) {
+    static File prepareFileForWriting(String fileName, long fileBytesLength, String transferId) {
         String externalStoragePath = Environment.getExternalStorageDirectory() + "/" + Environment.DIRECTORY_DOWNLOADS + "/" + fileName;
         File file = new File(externalStoragePath);
 
         @SuppressLint("UsableSpace")
         long availableSpace = Environment.getExternalStorageDirectory().getUsableSpace();
-        if (availableSpace < file.length()) {
+        if (availableSpace < fileBytesLength) {
             System.out.println("Not enough space");
-            showCustomProgressDialog(ChatActivity.instance,file);
+            showCustomProgressDialog(ChatActivity.instance,file,transferId);
             //return null;
         }
         return file;
@@ -82,18 +84,32 @@ public class ReceiveFileCommand implements Command {
      * @throws IOException - if an error occurs while writing the file
      */
     private void writeFileContent(File file, long fileBytesLength) throws IOException {
-        byte[] buffer = new byte[CHUNK_SIZE];
-        try (FileOutputStream fileOutputStream = new FileOutputStream(file);
-             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream)) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel fileChannel = randomAccessFile.getChannel()) {
+            preallocate(randomAccessFile, fileBytesLength);
+            FileChannelTransfer.receive(session.decoder, fileChannel, 0, fileBytesLength, null);
+        }
+    }
 
-            long bytesRead;
-            while (fileBytesLength > 0) {
-                bytesRead = input.read(buffer, 0, (int) Math.min(buffer.length, fileBytesLength));
-                bufferedOutputStream.write(buffer, 0, (int) bytesRead);
-                bufferedOutputStream.flush();
-                fileBytesLength -= bytesRead;
+    /**
+     * Reserves the blocks of the whole file up front, so that large files are not fragmented
+     * and a full disk is detected before any data is received.
+     *
+     * @param file - the destination file
+     * @param length - the final length of the file in bytes
+     * @throws IOException - if the length cannot be set
+     */
+    static void preallocate(RandomAccessFile file, long length) throws IOException {
+        try {
+            Os.posix_fallocate(file.getFD(), 0, length);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new IOException("Not enough space for " + length + " bytes", e);
             }
+            // Filesystems without fallocate support (e.g. FAT on SD cards) only get their length set
         }
+        // Also truncates what is left of an older, longer file with the same name
+        file.setLength(length);
     }
 
     /**
@@ -101,13 +117,9 @@ public class ReceiveFileCommand implements Command {
      *
      * @param file - received File object
      */
-    @SuppressLint("NotifyDataSetChanged")
-    private void updateUIWithReceivedFile(File file) {
-        handler.post(() -> {
-            Message message = new Message(MessageType.FILE_RECEIVED, file.getAbsolutePath(), file.getName(), file.length());
-            messages.add(message);
-            messageAdapter.notifyDataSetChanged();
-        });
+    static void updateUIWithReceivedFile(File file) {
+        Message message = new Message(MessageType.FILE_RECEIVED, file.getAbsolutePath(), file.getName(), file.length());
+        displayMessage(message);
     }
 
     /**
@@ -117,9 +129,7 @@ public class ReceiveFileCommand implements Command {
      * @throws IOException - if an error occurs while reading the input stream
      */
     private long readAndDeserializeNextElementLongSize() throws IOException {
-        byte[] elementSizeBytes = new byte[8];
-        input.read(elementSizeBytes);
-        return CustomData.deserializeLong(elementSizeBytes);
+        return session.decoder.readFileLength();
     }
 }
 
@@ -5,191 +5,233 @@ import android.content.ContentResolver;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
 import android.provider.OpenableColumns;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * A class implementing the Command interface for sending files over a network.
- * It is responsible for constructing and sending the header information and the file data in chunks.
- * The class also calculates the transfer speed and updates the progress of the file transfer.
+ * It is responsible for finding the name, size and content of the picked document, the transfer itself
+ * is run by a {@link FileSender}, see there for how files are resumed, verified, repaired and sent as a delta.
+ * When the file can be opened as a regular file descriptor, every chunk is copied with {@link FileChannel#transferTo}
+ * and large files can be sent as ranges over several parallel connections, see {@link FileService#parallelStreams};
+ * otherwise it is copied through a pooled buffer on one stream.
+ * With {@link FileService#compressTransfers} the chunks are compressed in parallel instead, unless the file
+ * is in a compressed format already.
+ * The offer carries the content hash of the file, cached in the {@link ContentIndex}, so a receiver that
+ * already has the file answers that nothing is missing and the body is not sent at all.
+ * The commands sending one picked file to several peers share a {@link SharedContentHash}, so the file
+ * is hashed at most once however many peers it goes to.
  */
-public class SendFileCommand implements Command {
+public class SendFileCommand implements CancellableCommand {
     private final Intent data;
-    private final String FILE_COMMAND;
     private final ContentResolver contentResolver;
-    private final OutputStream outputstream;
-    private final ProgressListener progressListener;
-    private static final int CHUNK_SIZE = 16 * 1024 * 1024; //16MB
+    private final Session session;
+    private final FileSender sender;
+    private final SharedContentHash contentHash;
 
-    public SendFileCommand(String fileCommand,ContentResolver contentResolver,OutputStream outputStream,Intent data,ProgressListener progressListener) {
-        this.FILE_COMMAND = fileCommand;
+    /**
+     * The content hash of one picked file, computed by the first of the commands sending it to the peers,
+     * which the others then wait for and reuse.
+     */
+    static final class SharedContentHash {
+        private boolean computed;
+        private byte[] hash;
+
+        synchronized byte[] get(Supplier<byte[]> computation) {
+            if (!computed) {
+                hash = computation.get();
+                computed = true;
+            }
+            return hash;
+        }
+    }
+
+    public SendFileCommand(ContentResolver contentResolver,Session session,Intent data,ProgressListener progressListener) {
+        this(contentResolver, session, data, progressListener, new SharedContentHash());
+    }
+
+    /**
+     * @param contentHash - the hash shared by the commands sending the same picked file to other peers.
+     */
+    public SendFileCommand(ContentResolver contentResolver, Session session, Intent data, ProgressListener progressListener,
+                           SharedContentHash contentHash) {
         this.contentResolver = contentResolver;
-        this.outputstream = outputStream;
+        this.session = session;
+        this.sender = new FileSender(session, progressListener);
         this.data = data;
-        this.progressListener = progressListener;
+        this.contentHash = contentHash;
     }
 
     @SuppressLint("NotifyDataSetChanged")
     @Override
-    public void execute() {
+    public void execute() throws IOException {
         sendFile(data);
     }
 
+    /**
+     * Cancels the transfer. A file sent on the chat connection stops before its next chunk; ranges already
+     * being sent over parallel connections are finished. The receiver keeps the bytes it committed.
+     */
+    @Override
+    public void cancel() {
+        sender.cancel();
+    }
+
     /**
      * Sends the file in chunks after constructing and sending the header information.
      *
      * @param data Intent containing the file URI to be sent.
+     * @throws IOException - if the file cannot be read or the connection fails
      */
     @SuppressLint("SuspiciousIndentation")
-    private void sendFile(@Nullable Intent data) {
+    private void sendFile(@Nullable Intent data) throws IOException {
         assert data != null;
         Uri file = data.getData();
         String fileName = getFileName(file);
         System.out.println("File name: " + fileName);
-        long fileSize = getFileSize(file); // use long for large file sizes
+        long fileSize = getFileSize(contentResolver, file); // use long for large file sizes
 
-        byte[] headerBytes = constructHeader(file, fileName, fileSize);
+        String transferId = getTransferId(file, fileSize);
+        byte[] contentHash = this.contentHash.get(() -> getContentHash(file, fileSize));
+        sender.checkCancelled();
+        boolean compress = FileService.compressTransfers && !BlockCompression.isCompressedFormat(fileName);
 
-        try {
+        ParcelFileDescriptor descriptor = openRegularFileDescriptor(file);
+        if (descriptor != null) {
+            try (FileInputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(descriptor)) {
+                sender.sendFile(inputStream.getChannel(), transferId, fileName, fileSize, contentHash, FileService.parallelStreams, compress);
+            }
+            return;
+        }
+
+        long offset = sender.negotiateOffset(transferId, fileName, fileSize, 1, contentHash).committedOffset;
+        BlockSignatures signatures = session.deltaSignatures.remove(transferId);
+        sender.checkCancelled();
+
+        FileSender.RangeOpener rangeOpener = (rangeOffset, rangeLength) -> {
             @SuppressLint("Recycle")
-            InputStream inputStream = contentResolver.openInputStream(file);
-            sendFileData(inputStream, fileSize, headerBytes);
-        } catch (IOException e) {
-            e.printStackTrace();
+            InputStream rangeStream = contentResolver.openInputStream(file);
+            skipFully(rangeStream, rangeOffset);
+            return ChunkSource.ofStream(rangeStream, rangeLength);
+        };
+        if (signatures != null && offset == 0) {
+            try (InputStream inputStream = contentResolver.openInputStream(file)) {
+                sender.sendDelta(signatures, inputStream, transferId, fileSize, rangeOpener);
+            }
+            return;
         }
+        @SuppressLint("Recycle")
+        InputStream inputStream = contentResolver.openInputStream(file);
+        skipFully(inputStream, offset);
+        ChunkSource source = compress ? ChunkSource.compressed(inputStream, fileSize - offset) : ChunkSource.ofStream(inputStream, fileSize - offset);
+        sender.sendVerifiedStream(source, transferId, offset, fileSize, rangeOpener);
     }
 
     /**
-     * Calculates the size header, which includes the lengths and content of the command, file name and file size.
+     * Derives the transfer id from the URI and size of the file, so that offering the same file again
+     * after a dropped connection resumes the earlier transfer.
      *
-     * @param fileName - the name of the file to be sent.
+     * @param file - the URI of the file to be sent.
+     * @param fileSize - the size of the file to be sent in bytes.
      *
-     * @return - the total size of the header in bytes.
+     * @return - the transfer id.
      */
-    private int calculateHeaderSize(String fileName) {
-        int resultLen = 0;
-        resultLen += CustomData.serialize(FILE_COMMAND.length()).length;
-        resultLen += FILE_COMMAND.getBytes().length;
-        resultLen += CustomData.serialize(fileName.length()).length;
-        resultLen += fileName.getBytes().length;
-        return resultLen;
+    static String getTransferId(Uri file, long fileSize) {
+        return UUID.nameUUIDFromBytes((file + "\n" + fileSize).getBytes(StandardCharsets.UTF_8)).toString();
     }
 
     /**
-     * Constructs the header byte array with the command, file name and file size information.
+     * Computes the content hash offered with the file, or takes it from the index if the file did not change.
+     * Without a known modification time the file is hashed again for every pick, once for all of its peers.
      *
-     * @param file - the URI of the file to be sent
-     * @param fileName - the name of the file to be sent.
+     * @param file - the URI of the file to be sent.
      * @param fileSize - the size of the file to be sent in bytes.
      *
-     * @return - The constructed header byte array.
+     * @return - the SHA-256 of the file, or null if it cannot be computed.
      */
-    private byte[] constructHeader(Uri file, String fileName, long fileSize) {
-        byte[] fileCommandLen = CustomData.serialize(FILE_COMMAND.length());
-        byte[] cmdBytes = FILE_COMMAND.getBytes();
-        byte[] fileNameLenBytes = CustomData.serialize(fileName.length());
-        byte[] fileNameBytes = fileName.getBytes();
-        byte[] fileSizeBytes = CustomData.serializeLong(fileSize);
-
-        int headerSize = calculateHeaderSize(fileName) + fileSizeBytes.length;
-
-        return constructFile(headerSize, fileCommandLen, cmdBytes, fileNameLenBytes,
-                fileNameBytes, fileSizeBytes, null);
+    private byte[] getContentHash(Uri file, long fileSize) {
+        ContentIndex contentIndex = FileService.contentIndex;
+        if (contentIndex == null || fileSize <= 0) {
+            return null;
+        }
+        try {
+            return contentIndex.hash(file.toString(), fileSize, getLastModified(file), () -> contentResolver.openInputStream(file));
+        } catch (IOException e) {
+            // The file is sent without deduplication, reading it again will report the error
+            e.printStackTrace();
+            return null;
+        }
     }
 
     /**
-     * Sends the file data in chunks while updating the progress and calculating the transfer speed.
+     * Skips the part of the file the receiver already has.
      *
      * @param inputStream - the Input stream of the file to be sent.
-     * @param fileSize - the size of the file to be sent in bytes.
-     * @param headerBytes - the header byte array containing the file information.
+     * @param count - the number of bytes to skip.
      *
-     * @throws IOException - if there is an issue while reading from the input stream or writing to the output stream
+     * @throws IOException - if the file is shorter than count bytes
      */
-    private void sendFileData(InputStream inputStream, long fileSize, byte[] headerBytes) throws IOException {
-        byte[] buffer = new byte[CHUNK_SIZE];
-        int bytesRead;
-        long remainingFileSize = fileSize;
-
-        outputstream.write(headerBytes);
-        outputstream.flush();
-
-        long bytesTransferred = 0;
-        long startTime = System.currentTimeMillis();
-
-        while (remainingFileSize > 0) {
-            bytesRead = inputStream.read(buffer, 0, (int) Math.min(CHUNK_SIZE, remainingFileSize));
-            byte[] chunk = Arrays.copyOf(buffer, bytesRead);
-            remainingFileSize -= bytesRead;
-
-            outputstream.write(buffer, 0, bytesRead);
-            outputstream.flush();
-
-            bytesTransferred += bytesRead;
-            long elapsedTime = System.currentTimeMillis() - startTime;
-            double speed = bytesTransferred / (elapsedTime / 1000.0) / (1024.0 * 1024.0); // Calculate speed in MB/s
-            progressListener.onProgressUpdate(bytesTransferred, fileSize, speed);
+    private static void skipFully(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                if (inputStream.read() == -1) {
+                    throw new EOFException("File ended " + count + " bytes before the resume offset");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
         }
-        inputStream.close();
     }
 
-
     /**
-     * Constructs a byte array containing the header information and file data concatenating the given byte arrays.
+     * Opens the file as a file descriptor, if the provider backs it with a regular file.
+     * Pipes and sockets handed out by some providers report no size and cannot be used with transferTo.
      *
-     * @param resultLen - the total length of the resulting byte array.
-     * @param cmdLen - the byte array representing the length of the command.
-     * @param cmdBytes - the byte array representing the command.
-     * @param fileNameLen - the byte array representing the length of the file name.
-     * @param fileNameBytes - the byte array representing the file name.
-     * @param fileLen - the byte array representing the length of the file.
-     * @param fileBytes - the byte array representing the file data (optional, can be null)
+     * @param file - the URI of the file to be sent.
      *
-     * @return - The constructed byte array containing the header information and file data.
+     * @return - the opened descriptor, or null if the stream path has to be used instead.
      */
-    @NonNull
-    private byte[] constructFile(int resultLen, byte[] cmdLen, byte[] cmdBytes, byte[] fileNameLen, byte[] fileNameBytes, byte[] fileLen, byte[] fileBytes) {
-        byte[] result = new byte[resultLen];
-        int index = 0;
-
-        //copy all pieces in the result byte[]
-        System.arraycopy(cmdLen, 0, result, index, cmdLen.length);
-        index += cmdLen.length;
-
-        System.arraycopy(cmdBytes, 0, result, index, cmdBytes.length);
-        index += cmdBytes.length;
-
-        System.arraycopy(fileNameLen, 0, result, index, fileNameLen.length);
-        index += fileNameLen.length;
-
-        System.arraycopy(fileNameBytes, 0, result, index, fileNameBytes.length);
-        index += fileNameBytes.length;
-
-        System.arraycopy(fileLen, 0, result, index, fileLen.length);
-        index += fileLen.length;
-
-        if (fileBytes != null) {
-            System.arraycopy(fileBytes, 0, result, index, fileBytes.length);
+    private ParcelFileDescriptor openRegularFileDescriptor(Uri file) {
+        ParcelFileDescriptor descriptor;
+        try {
+            descriptor = contentResolver.openFileDescriptor(file, "r");
+        } catch (Exception e) {
+            return null;
         }
-        return result;
+        if (descriptor != null && descriptor.getStatSize() < 0) {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+        return descriptor;
     }
 
     /**
      * Retrieves the size of a large file using its URI.
      *
+     * @param contentResolver - resolves the URI.
      * @param uri - the URI of the file whose size is to be retrieved.
      *
      * @return - The size of the file in bytes, or -1 if the file size could not be determined.
      */
     @SuppressLint("Range")
-    private long getFileSize(Uri uri) {
+    static long getFileSize(ContentResolver contentResolver, Uri uri) {
         try (Cursor cursor = contentResolver.query(uri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
             if (cursor != null && cursor.moveToFirst()) {
                 return cursor.getLong(cursor.getColumnIndex(OpenableColumns.SIZE));
@@ -200,6 +242,25 @@ public class SendFileCommand implements Command {
         return -1;
     }
 
+    /**
+     * Retrieves the modification time of a file using its URI.
+     *
+     * @param uri - the URI of the file.
+     *
+     * @return - the modification time in milliseconds, or 0 if the provider does not report it.
+     */
+    @SuppressLint("Range")
+    private long getLastModified(Uri uri) {
+        try (Cursor cursor = contentResolver.query(uri, new String[]{DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED));
+            }
+        } catch (Exception e) {
+            // Not a document provider
+        }
+        return 0;
+    }
+
     /**
      * Retrieves the file name using its URI.
      *
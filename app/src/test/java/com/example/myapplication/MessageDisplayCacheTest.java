@@ -0,0 +1,83 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageDisplayCacheTest {
+    private File directory;
+    private MessageStore store;
+    private final List<Runnable> background = new ArrayList<>();
+    private final List<int[]> computedPages = new ArrayList<>();
+    private final MessageDisplayCache cache = new MessageDisplayCache(null, background::add,
+            (start, count) -> computedPages.add(new int[]{start, count}));
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("messages").toFile();
+        store = new MessageStore(directory);
+        for (int i = 0; i < MessageStore.PAGE_SIZE * 3; i++) {
+            store.add(new Message("alice", "hello " + i, 60_000L * i, MessageType.MESSAGE_RECEIVED));
+        }
+        store.close();
+        // Reopened, so no page is in memory
+        store = new MessageStore(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void page_isComputedInTheBackgroundThenServedFromTheCache() {
+        MessageStore.Snapshot snapshot = store.snapshot();
+        int position = MessageStore.PAGE_SIZE + MessageStore.PAGE_SIZE / 2 + 1;
+
+        // The page is not read on the binding thread
+        assertSame(MessageDisplayCache.PLACEHOLDER, cache.get(snapshot, position));
+        assertEquals(1, background.size());
+        background.remove(0).run();
+        assertEquals(1, computedPages.size());
+        assertEquals(MessageStore.PAGE_SIZE, computedPages.get(0)[0]);
+        assertEquals(MessageStore.PAGE_SIZE, computedPages.get(0)[1]);
+
+        MessageDisplay bound = cache.get(snapshot, position);
+        assertEquals("hello " + position, bound.content);
+        assertEquals(MessageType.MESSAGE_RECEIVED.ordinal(), bound.viewType);
+
+        MessageDisplay next = cache.get(snapshot, position + 1);
+        assertEquals("hello " + (position + 1), next.content);
+        // Then the page the user scrolls towards
+        assertEquals(1, background.size());
+        background.remove(0).run();
+        assertSame(cache.get(snapshot, 2 * MessageStore.PAGE_SIZE), cache.get(snapshot, 2 * MessageStore.PAGE_SIZE));
+        assertEquals(0, background.size());
+        // Computed ahead, nothing was shown with placeholders
+        assertEquals(1, computedPages.size());
+    }
+
+    @Test
+    public void time_isFormattedOncePerMinute() {
+        String first = cache.formatTime(120_000);
+        assertSame(first, cache.formatTime(179_999));
+        assertNotSame(first, cache.formatTime(180_000));
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MessageStoreTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("messages").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void history_isPagedBackAfterReopening() throws IOException {
+        int count = MessageStore.PAGE_SIZE * (MessageStore.CACHED_PAGES + 3) + 7;
+        try (MessageStore store = new MessageStore(directory)) {
+            for (int i = 0; i < count; i++) {
+                store.add(new Message("alice", "hello " + i, 1000 + i, MessageType.MESSAGE_RECEIVED));
+            }
+            // Scrolls through every page, then back to the first, which was evicted meanwhile
+            for (int i = 0; i < count; i++) {
+                assertEquals("hello " + i, store.get(i).getContent());
+            }
+            assertEquals("hello 0", store.get(0).getContent());
+            store.add(new Message(MessageType.FILE_SENT, "/sdcard/Download/a.pdf", "a.pdf", 4096));
+        }
+
+        try (MessageStore store = new MessageStore(directory)) {
+            assertEquals(count + 1, store.size());
+            Message received = store.get(count - 1);
+            assertEquals("alice", received.getUsername());
+            assertEquals(1000 + count - 1, received.getTimestamp());
+            assertEquals(MessageType.MESSAGE_RECEIVED, received.getMessageType());
+
+            Message file = store.get(count);
+            assertEquals(MessageType.FILE_SENT, file.getMessageType());
+            assertEquals("a.pdf", file.getFileName());
+            assertEquals(4096, file.getFileSize());
+            assertNull(file.getContent());
+        }
+    }
+
+    @Test
+    public void snapshot_doesNotChangeWhenMessagesAreAdded() throws IOException {
+        try (MessageStore store = new MessageStore(directory)) {
+            store.add(new Message("alice", "first", 1, MessageType.MESSAGE_RECEIVED));
+            MessageStore.Snapshot shown = store.snapshot();
+            store.add(new Message("bob", "second", 2, MessageType.MESSAGE_RECEIVED));
+            MessageStore.Snapshot latest = store.snapshot();
+
+            assertEquals(1, shown.size());
+            assertEquals(2, latest.size());
+            assertEquals("second", latest.get(1).getContent());
+            assertTrue(latest.continues(shown));
+            assertFalse(shown.continues(latest));
+        }
+    }
+
+    @Test
+    public void append_writesOnTheWriterThreadThenNotifies() throws Exception {
+        try (MessageStore store = new MessageStore(directory)) {
+            CountDownLatch written = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                store.append(new Message("alice", "hello " + i, i, MessageType.MESSAGE_RECEIVED), written::countDown);
+            }
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+
+            MessageStore.Snapshot snapshot = store.snapshot();
+            assertEquals(3, snapshot.size());
+            assertEquals("hello 2", snapshot.get(2).getContent());
+        }
+    }
+}
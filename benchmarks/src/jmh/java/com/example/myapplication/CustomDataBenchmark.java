@@ -0,0 +1,51 @@
+package com.example.myapplication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The big-endian ints and longs of the v1 wire format, which still frame every v1 command name and length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CustomDataBenchmark {
+    // Not final, so the JIT cannot fold the results into constants
+    private int intValue = 123_456_789;
+    private long longValue = 6L * 1024 * 1024 * 1024 + 7;
+    private byte[] intBytes;
+    private byte[] longBytes;
+
+    @Setup
+    public void setUp() {
+        intBytes = CustomData.serialize(intValue);
+        longBytes = CustomData.serializeLong(longValue);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return CustomData.serialize(intValue);
+    }
+
+    @Benchmark
+    public int deserialize() {
+        return CustomData.deserialize(intBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeLong() {
+        return CustomData.serializeLong(longValue);
+    }
+
+    @Benchmark
+    public long deserializeLong() {
+        return CustomData.deserializeLong(longBytes);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.myapplication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding chat messages, for texts from a few characters to more than the decoder's read buffer,
+ * in scripts taking one to four UTF-8 bytes per character.
+ * {@link #encode} is what {@link SendMessageCommand} does for every message, the decoders what the reader
+ * thread does for every MESSAGE frame, of the v2 format and of a v1 peer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageCodecBenchmark {
+    /** The length of the text in characters; 65536 CJK characters do not fit the read buffer. */
+    @Param({"16", "256", "4096", "65536"})
+    public int length;
+
+    @Param({"ascii", "latin", "cjk", "emoji"})
+    public String charset;
+
+    private String text;
+    private FrameDecoder decoder;
+    private FrameDecoder legacyDecoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        text = text(charset, length);
+        decoder = new FrameDecoder(new RepeatingChannel(FrameEncoder.encodeMessage(text)));
+        legacyDecoder = new FrameDecoder(new RepeatingChannel(encodeLegacyMessage(text)));
+    }
+
+    /**
+     * Builds a text of the given number of characters, surrogate pairs counting as one.
+     */
+    static String text(String charset, int length) {
+        String alphabet;
+        switch (charset) {
+            case "ascii":
+                alphabet = "The quick brown fox jumps over the lazy dog. ";
+                break;
+            case "latin":
+                alphabet = "Gr\u00f6\u00dfe, Stra\u00dfe, d\u00e9j\u00e0 vu, se\u00f1or, \u00c6\u00d8\u00c5. ";
+                break;
+            case "cjk":
+                alphabet = "\u4f60\u597d\u4e16\u754c\u3053\u3093\u306b\u3061\u306f\uc548\ub155\ud558\uc138\uc694";
+                break;
+            case "emoji":
+                alphabet = "\ud83d\ude00\ud83c\udf89\ud83d\udc4d\ud83d\ude80\ud83d\udd25";
+                break;
+            default:
+                throw new IllegalArgumentException(charset);
+        }
+        int[] codePoints = alphabet.codePoints().toArray();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.appendCodePoint(codePoints[i % codePoints.length]);
+        }
+        return text.toString();
+    }
+
+    private static byte[] encodeLegacyMessage(String text) throws IOException {
+        byte[] name = "Message".getBytes(StandardCharsets.US_ASCII);
+        byte[] message = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(CustomData.serialize(name.length));
+        out.write(name);
+        out.write(CustomData.serialize(message.length));
+        out.write(message);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return FrameEncoder.encodeMessage(text);
+    }
+
+    @Benchmark
+    public String decode() throws IOException {
+        decoder.readFrameType();
+        return decoder.readString();
+    }
+
+    @Benchmark
+    public String decodeLegacy() throws IOException {
+        legacyDecoder.readFrameType();
+        return legacyDecoder.readString();
+    }
+}
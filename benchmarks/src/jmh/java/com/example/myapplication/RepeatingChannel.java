@@ -0,0 +1,40 @@
+package com.example.myapplication;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A channel reading the same frames over and over, so a decoder benchmark never runs out of input
+ * and never allocates a new decoder.
+ */
+final class RepeatingChannel implements ReadableByteChannel {
+    private final byte[] bytes;
+    private int position;
+
+    /**
+     * @param bytes - whole frames, so every round starts at a frame boundary.
+     */
+    RepeatingChannel(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int read(ByteBuffer target) {
+        int count = Math.min(target.remaining(), bytes.length - position);
+        target.put(bytes, position, count);
+        position += count;
+        if (position == bytes.length) {
+            position = 0;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
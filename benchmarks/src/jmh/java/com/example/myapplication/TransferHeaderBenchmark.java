@@ -0,0 +1,83 @@
+package com.example.myapplication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The headers of a file transfer: the offer sent once per file, and the header of every 64 KiB chunk,
+ * which is written into the writer's reused buffer and read back by the receiver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransferHeaderBenchmark {
+    @Param({"ascii", "cjk"})
+    public String charset;
+
+    private String transferId;
+    private String fileName;
+    private long fileSize = 6L * 1024 * 1024 * 1024;
+    private byte[] contentHash = new byte[ChunkChecksums.DIGEST_LENGTH];
+    private int streamId = 3;
+    private int checksum = 0x1234_5678;
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(FrameEncoder.MAX_STREAM_CHUNK_HEADER_SIZE);
+    private final byte[] hash = new byte[ChunkChecksums.DIGEST_LENGTH];
+    private FrameDecoder offerDecoder;
+    private FrameDecoder chunkHeaderDecoder;
+
+    @Setup
+    public void setUp() {
+        transferId = UUID.nameUUIDFromBytes(new byte[]{1, 2, 3}).toString();
+        fileName = MessageCodecBenchmark.text(charset, 24) + ".mp4";
+        offerDecoder = new FrameDecoder(new RepeatingChannel(encodeOffer()));
+        ByteBuffer header = ByteBuffer.allocate(FrameEncoder.MAX_STREAM_CHUNK_HEADER_SIZE);
+        FrameEncoder.putStreamChunkHeader(streamId, FrameWriter.CHUNK_SIZE, checksum, header);
+        header.flip();
+        byte[] headerBytes = new byte[header.remaining()];
+        header.get(headerBytes);
+        chunkHeaderDecoder = new FrameDecoder(new RepeatingChannel(headerBytes));
+    }
+
+    @Benchmark
+    public byte[] encodeOffer() {
+        return FrameEncoder.encodeFileOffer(transferId, fileName, fileSize, 1, contentHash);
+    }
+
+    @Benchmark
+    public long decodeOffer() throws IOException {
+        offerDecoder.readFrameType();
+        String id = offerDecoder.readString();
+        String name = offerDecoder.readString();
+        long size = offerDecoder.readFileLength();
+        long streams = offerDecoder.readVarint();
+        int hashLength = offerDecoder.readLength();
+        offerDecoder.readFully(hash, 0, hashLength);
+        return id.length() + name.length() + size + streams;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeChunkHeader() {
+        chunkHeader.clear();
+        FrameEncoder.putStreamChunkHeader(streamId, FrameWriter.CHUNK_SIZE, checksum, chunkHeader);
+        return chunkHeader;
+    }
+
+    @Benchmark
+    public long decodeChunkHeader() throws IOException {
+        chunkHeaderDecoder.readFrameType();
+        long id = chunkHeaderDecoder.readVarint();
+        long chunkLength = chunkHeaderDecoder.readVarint();
+        return id + chunkLength + chunkHeaderDecoder.readInt();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.myapplication;
+
+import java.util.Random;
+
+/**
+ * The sizes of the messages or files a simulated peer sends, parsed from a command line value:
+ * "256" always sends 256 bytes, "16-4096" picks uniformly in the range, "exp:1024" picks from an exponential
+ * distribution with a mean of 1024, which has many small and a few large values like real chats.
+ */
+public abstract class Distribution {
+    /**
+     * @param random - the generator of the peer, so a run with the same seed sends the same sizes.
+     * @return - the next value, at least 0.
+     */
+    public abstract long next(Random random);
+
+    /**
+     * @param value - the value of the option, see {@link Distribution}.
+     * @return - the distribution.
+     * @throws IllegalArgumentException - if the value is malformed
+     */
+    public static Distribution parse(String value) {
+        try {
+            if (value.startsWith("exp:")) {
+                double mean = Double.parseDouble(value.substring(4));
+                check(mean >= 0, value);
+                return new Distribution() {
+                    @Override
+                    public long next(Random random) {
+                        return Math.round(-mean * Math.log(1 - random.nextDouble()));
+                    }
+                };
+            }
+            int dash = value.indexOf('-');
+            if (dash > 0) {
+                long min = Long.parseLong(value.substring(0, dash));
+                long max = Long.parseLong(value.substring(dash + 1));
+                check(min >= 0 && max >= min, value);
+                return new Distribution() {
+                    @Override
+                    public long next(Random random) {
+                        return min + (long) (random.nextDouble() * (max - min + 1));
+                    }
+                };
+            }
+            long fixed = Long.parseLong(value);
+            check(fixed >= 0, value);
+            return new Distribution() {
+                @Override
+                public long next(Random random) {
+                    return fixed;
+                }
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid distribution " + value, e);
+        }
+    }
+
+    private static void check(boolean valid, String value) {
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid distribution " + value);
+        }
+    }
+}
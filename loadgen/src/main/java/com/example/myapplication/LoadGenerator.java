@@ -0,0 +1,275 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates many chatty apps on one machine to see how a relay or a device copes before a roll-out.
+ * Every simulated peer connects over loopback and speaks the same protocol as the app, see {@link SimulatedPeer}.
+ * Without a port, the generator starts a {@link RelayServer} in the same JVM and loads it; with a port, it loads
+ * whatever listens there on localhost, e.g. a relay, or a phone through {@code adb forward tcp:7777 tcp:7777}.
+ * A relay forwards every message and file to all other peers, which measure the delivery latency; an app does not
+ * forward, so only what was sent and the errors are reported.
+ * Every second a line with the progress is printed, and a report at the end.
+ */
+public class LoadGenerator {
+    /** The largest message sent, larger sizes of the distribution are cut. */
+    static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    /** How long the generator waits after the run for the deliveries still on their way. */
+    private static final long DRAIN_MILLIS = 5000;
+    private static final String USAGE = "Usage: loadgen [--peers 10] [--duration 30] [--message-rate 1] [--message-size exp:200]"
+            + " [--file-rate 0] [--file-size exp:1048576] [--port 0] [--seed 1]\n"
+            + "  rates are per peer and per second, sizes are in bytes: 256, 16-4096 or exp:<mean>,\n"
+            + "  port 0 starts a relay in this process, any other port is connected to on localhost";
+
+    /**
+     * The shape of a run, parsed from the command line.
+     */
+    public static class Options {
+        int peers = 10;
+        int durationSeconds = 30;
+        /** Messages per peer and second. */
+        double messageRate = 1;
+        Distribution messageSize = Distribution.parse("exp:200");
+        /** Files per peer and second. */
+        double fileRate = 0;
+        Distribution fileSize = Distribution.parse("exp:1048576");
+        /** The port of the relay or the app on localhost, 0 to start a relay in this process. */
+        int port = 0;
+        long seed = 1;
+
+        /**
+         * @param args - options as pairs of a name and a value, e.g. "--peers", "50".
+         * @return - the options, with defaults for those not given.
+         * @throws IllegalArgumentException - if an option is unknown or its value is invalid
+         */
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + args[i]);
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--peers":
+                        options.peers = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--message-rate":
+                        options.messageRate = Double.parseDouble(value);
+                        break;
+                    case "--message-size":
+                        options.messageSize = Distribution.parse(value);
+                        break;
+                    case "--file-rate":
+                        options.fileRate = Double.parseDouble(value);
+                        break;
+                    case "--file-size":
+                        options.fileSize = Distribution.parse(value);
+                        break;
+                    case "--port":
+                        options.port = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (options.peers < 1 || options.durationSeconds < 1 || options.messageRate < 0 || options.fileRate < 0) {
+                throw new IllegalArgumentException("Peers and duration must be positive, rates not negative");
+            }
+            return options;
+        }
+    }
+
+    private final Options options;
+    private final File directory;
+    private final PrintStream out;
+    private final LoadStats stats = new LoadStats();
+
+    /**
+     * @param options - the shape of the run.
+     * @param directory - where the peers and the relay keep their files, emptied at the end.
+     * @param out - receives the progress and the report.
+     */
+    public LoadGenerator(Options options, File directory, PrintStream out) {
+        this.options = options;
+        this.directory = directory;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        File directory = Files.createTempDirectory("loadgen").toFile();
+        LoadStats stats = new LoadGenerator(options, directory, System.out).run();
+        System.exit(stats.getErrors() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Connects the peers, lets them send for the duration of the run, waits for the last deliveries and reports.
+     *
+     * @return - what was sent, delivered and failed.
+     * @throws IOException - if the relay cannot be started
+     * @throws InterruptedException - if the run is interrupted
+     */
+    public LoadStats run() throws IOException, InterruptedException {
+        RelayServer relay = null;
+        int port = options.port;
+        if (port == 0) {
+            relay = new RelayServer(new File(directory, "relay"), options.peers);
+            port = relay.start(0);
+        }
+        ThreadFactory threadFactory = RelayServer.sessionThreadFactory();
+        ScheduledExecutorService pacer = Executors.newSingleThreadScheduledExecutor(Threads.DAEMON);
+        ExecutorService fileSenders = Executors.newCachedThreadPool(threadFactory);
+        List<SimulatedPeer> peers = new ArrayList<>();
+        try {
+            for (int i = 0; i < options.peers; i++) {
+                try {
+                    peers.add(new SimulatedPeer(i, port, new File(directory, "peer-" + i), options, stats, threadFactory));
+                } catch (IOException e) {
+                    stats.connectErrors.incrementAndGet();
+                    out.println("Peer " + i + " cannot connect: " + e);
+                }
+            }
+            if (relay != null) {
+                awaitSessions(relay, peers.size());
+            }
+            out.println(peers.size() + " peers connected to localhost:" + port + (relay != null ? " (relay in this process)" : ""));
+
+            long start = SimulatedPeer.clock();
+            long deadline = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            for (SimulatedPeer peer : peers) {
+                peer.start(pacer, fileSenders, deadline);
+            }
+            Progress progress = new Progress(start);
+            while (SimulatedPeer.clock() < deadline) {
+                Thread.sleep(Math.min(1000, TimeUnit.NANOSECONDS.toMillis(deadline - SimulatedPeer.clock()) + 1));
+                progress.print();
+            }
+            // Let the transfers still running finish, then wait for the deliveries on their way
+            pacer.shutdown();
+            fileSenders.shutdown();
+            fileSenders.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+            awaitDeliveries(relay != null ? peers.size() - 1 : 0);
+            report(SimulatedPeer.clock() - start, relay != null ? peers.size() - 1 : 0);
+        } finally {
+            pacer.shutdownNow();
+            fileSenders.shutdownNow();
+            for (SimulatedPeer peer : peers) {
+                try {
+                    peer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (relay != null) {
+                relay.close();
+            }
+            deleteRecursively(directory);
+        }
+        return stats;
+    }
+
+    private static void awaitSessions(RelayServer relay, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (relay.getSessions().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Waits until every message and file sent reached the other peers, or for at most {@link #DRAIN_MILLIS}.
+     *
+     * @param fanOut - the peers receiving what one peer sends, 0 if nothing is forwarded.
+     */
+    private void awaitDeliveries(int fanOut) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (System.currentTimeMillis() < deadline
+                && (stats.getMessagesDelivered() < stats.getMessagesSent() * fanOut
+                || stats.getFilesDelivered() < stats.getFilesSent() * fanOut)) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Prints the throughput since the previous line and the latencies so far.
+     */
+    private class Progress {
+        private long last;
+        private long lastSent;
+        private long lastDelivered;
+
+        Progress(long start) {
+            this.last = start;
+        }
+
+        void print() {
+            long now = SimulatedPeer.clock();
+            long sent = stats.getMessagesSent();
+            long delivered = stats.getMessagesDelivered();
+            double seconds = Math.max(now - last, 1) / 1e9;
+            out.println(String.format(Locale.ROOT, "%5.1fs  sent %.0f msg/s  delivered %.0f msg/s  %s  files %d/%d  errors %d",
+                    now / 1e9, (sent - lastSent) / seconds, (delivered - lastDelivered) / seconds,
+                    stats.getMessageLatency(), stats.getFilesSent(), stats.getFilesDelivered(), stats.getErrors()));
+            last = now;
+            lastSent = sent;
+            lastDelivered = delivered;
+        }
+    }
+
+    private void report(long elapsedNanos, int fanOut) {
+        double seconds = elapsedNanos / 1e9;
+        out.println(String.format(Locale.ROOT, "Messages: %d sent (%.1f/s, %.1f KiB/s), %d delivered (%.1f/s, %.1f KiB/s)",
+                stats.getMessagesSent(), stats.getMessagesSent() / seconds, stats.messageBytesSent.get() / 1024.0 / seconds,
+                stats.getMessagesDelivered(), stats.getMessagesDelivered() / seconds, stats.messageBytesDelivered.get() / 1024.0 / seconds));
+        if (fanOut > 0) {
+            out.println("  undelivered " + Math.max(0, stats.getMessagesSent() * fanOut - stats.getMessagesDelivered())
+                    + " of " + stats.getMessagesSent() * fanOut);
+        }
+        out.println("  latency " + stats.getMessageLatency());
+        if (options.fileRate > 0) {
+            out.println(String.format(Locale.ROOT, "Files: %d sent (%.1f MiB/s), %d delivered (%.1f MiB/s)",
+                    stats.getFilesSent(), stats.fileBytesSent.get() / 1048576.0 / seconds,
+                    stats.getFilesDelivered(), stats.fileBytesDelivered.get() / 1048576.0 / seconds));
+            if (fanOut > 0) {
+                out.println("  undelivered " + Math.max(0, stats.getFilesSent() * fanOut - stats.getFilesDelivered())
+                        + " of " + stats.getFilesSent() * fanOut);
+            }
+            out.println("  latency " + stats.getFileLatency());
+        }
+        out.println("Errors: " + stats.describeErrors());
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.myapplication;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the simulated peers of a load run sent, received and failed, updated by all of their threads.
+ */
+public class LoadStats {
+    final LatencyHistogram messageLatency = new LatencyHistogram();
+    final LatencyHistogram fileLatency = new LatencyHistogram();
+    final AtomicLong messagesSent = new AtomicLong();
+    final AtomicLong messageBytesSent = new AtomicLong();
+    final AtomicLong messagesDelivered = new AtomicLong();
+    final AtomicLong messageBytesDelivered = new AtomicLong();
+    final AtomicLong filesSent = new AtomicLong();
+    final AtomicLong fileBytesSent = new AtomicLong();
+    final AtomicLong filesDelivered = new AtomicLong();
+    final AtomicLong fileBytesDelivered = new AtomicLong();
+
+    /** Peers which could not connect. */
+    final AtomicLong connectErrors = new AtomicLong();
+    /** Connections which ended with an error before the run was over, e.g. closed by a relay as too slow. */
+    final AtomicLong disconnects = new AtomicLong();
+    /** Messages which could not be queued because the connection failed. */
+    final AtomicLong sendErrors = new AtomicLong();
+    /** Messages not sent because the connection was already too far behind, see {@link FrameWriter#offer}. */
+    final AtomicLong backlogDrops = new AtomicLong();
+    /** File transfers which failed. */
+    final AtomicLong fileErrors = new AtomicLong();
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getMessagesDelivered() {
+        return messagesDelivered.get();
+    }
+
+    public long getFilesSent() {
+        return filesSent.get();
+    }
+
+    public long getFilesDelivered() {
+        return filesDelivered.get();
+    }
+
+    public LatencyHistogram getMessageLatency() {
+        return messageLatency;
+    }
+
+    public LatencyHistogram getFileLatency() {
+        return fileLatency;
+    }
+
+    public long getErrors() {
+        return connectErrors.get() + disconnects.get() + sendErrors.get() + backlogDrops.get() + fileErrors.get();
+    }
+
+    /**
+     * @return - the errors by kind, for the report.
+     */
+    public String describeErrors() {
+        return getErrors() + " (connect " + connectErrors + ", disconnect " + disconnects + ", send " + sendErrors
+                + ", backlog " + backlogDrops + ", file " + fileErrors + ")";
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One app of a load run, connected over loopback with a {@link Session} like a real peer.
+ * It sends chat messages as a Poisson process at the configured rate, so bursts happen like with real users,
+ * and sends files one after the other with random pauses. The messages and the transfer ids carry the time they
+ * were sent, so every peer receiving them records the delivery latency; all peers run in the same JVM and share
+ * the same {@link #clock}.
+ */
+class SimulatedPeer implements Closeable {
+    /** Starts what a simulated peer sends, followed by the time it was sent and the separator. */
+    private static final char MESSAGE_MARK = 'L';
+    private static final char SEPARATOR = '_';
+    /** The start of the clock the peers put in what they send, so its values are never negative. */
+    private static final long ORIGIN = System.nanoTime();
+    private static final ProgressListener NO_PROGRESS = (bytesTransferred, totalBytes, speed) -> {
+    };
+
+    final Session session;
+    private final int index;
+    private final LoadGenerator.Options options;
+    private final LoadStats stats;
+    private final File outbox;
+    // The pacer and the file thread each have their own, Random is not meant to be shared
+    private final Random messageRandom;
+    private final Random fileRandom;
+    private volatile boolean stopping;
+
+    /**
+     * Connects the peer, without sending anything yet.
+     *
+     * @param index - the number of the peer in the run.
+     * @param port - the loopback port of the relay or the app under load.
+     * @param directory - where the peer keeps the files it sends and receives.
+     * @param options - the rates and sizes of the run.
+     * @param stats - counts what the peer sends, receives and fails.
+     * @param threadFactory - creates the reader and writer thread of the session.
+     * @throws IOException - if the peer cannot connect
+     */
+    SimulatedPeer(int index, int port, File directory, LoadGenerator.Options options, LoadStats stats,
+                  ThreadFactory threadFactory) throws IOException {
+        this.index = index;
+        this.options = options;
+        this.stats = stats;
+        this.outbox = new File(directory, "outbox");
+        if (!outbox.isDirectory() && !outbox.mkdirs()) {
+            throw new IOException("Cannot create " + outbox);
+        }
+        this.messageRandom = new Random(options.seed * 31 + index);
+        this.fileRandom = new Random(options.seed * 31 + index + 0x5DEECE66DL);
+
+        TransferStore store = new DirectoryTransferStore(new File(directory, "inbox")) {
+            @Override
+            public void onFileReceived(Session session, String transferId, File file) {
+                fileReceived(transferId, file);
+            }
+        };
+        SocketChannel socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        socket.socket().setTcpNoDelay(true);
+        session = new Session("load-peer-" + index, socket, FlushPolicy.IMMEDIATE, store, threadFactory);
+        session.start(new Session.Listener() {
+            @Override
+            public void onFrame(Session session, FrameType frameType) throws IOException {
+                if (frameType == FrameType.MESSAGE) {
+                    messageReceived(session.decoder.readString());
+                    return;
+                }
+                Command command = TransferCommands.create(frameType, session);
+                if (command == null) {
+                    throw new ProtocolException("Frame " + frameType + " is not expected by a simulated peer");
+                }
+                command.execute();
+            }
+
+            @Override
+            public void onDisconnected(Session session, IOException cause) {
+                if (cause != null && !stopping) {
+                    stats.disconnects.incrementAndGet();
+                    System.out.println(session + " disconnected: " + cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts sending until the deadline.
+     *
+     * @param pacer - sends the messages of all peers at their times.
+     * @param fileSenders - runs the loop sending the files of the peer, which blocks during transfers.
+     * @param deadline - the {@link #clock} after which nothing new is sent.
+     */
+    void start(ScheduledExecutorService pacer, ExecutorService fileSenders, long deadline) {
+        if (options.messageRate > 0) {
+            scheduleNextMessage(pacer, deadline);
+        }
+        if (options.fileRate > 0) {
+            fileSenders.execute(() -> sendFiles(deadline));
+        }
+    }
+
+    private void scheduleNextMessage(ScheduledExecutorService pacer, long deadline) {
+        long delay = nextInterval(messageRandom, options.messageRate);
+        if (clock() + delay >= deadline || stopping) {
+            return;
+        }
+        pacer.schedule(() -> {
+            sendMessage();
+            scheduleNextMessage(pacer, deadline);
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return - the nanoseconds since the first peer was created.
+     */
+    static long clock() {
+        return System.nanoTime() - ORIGIN;
+    }
+
+    /**
+     * Returns the time to the next event of a Poisson process, so the events average the rate.
+     */
+    static long nextInterval(Random random, double ratePerSecond) {
+        return (long) (-Math.log(1 - random.nextDouble()) / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private void sendMessage() {
+        int size = (int) Math.min(options.messageSize.next(messageRandom), LoadGenerator.MAX_MESSAGE_SIZE);
+        byte[] frame = FrameEncoder.encodeMessage(encodeText(clock(), size));
+        try {
+            if (session.frameWriter.offer(ByteBuffer.wrap(frame), RelayServer.MAX_QUEUED_BYTES)) {
+                stats.messagesSent.incrementAndGet();
+                stats.messageBytesSent.addAndGet(size);
+            } else {
+                stats.backlogDrops.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (!stopping) {
+                stats.sendErrors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Builds a message of about the given number of ASCII bytes, starting with the time it was sent.
+     */
+    static String encodeText(long sentNanos, int size) {
+        StringBuilder text = new StringBuilder(Math.max(size, 24));
+        text.append(MESSAGE_MARK).append(sentNanos).append(SEPARATOR);
+        while (text.length() < size) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return - the time the message or the transfer id was created at, or -1 if it is not from a simulated peer.
+     */
+    static long sentNanosOf(String text) {
+        int end = text.indexOf(SEPARATOR);
+        if (text.isEmpty() || text.charAt(0) != MESSAGE_MARK || end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(text.substring(1, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void messageReceived(String text) {
+        long sentNanos = sentNanosOf(text);
+        if (sentNanos < 0) {
+            return;
+        }
+        stats.messageLatency.record(clock() - sentNanos);
+        stats.messagesDelivered.incrementAndGet();
+        stats.messageBytesDelivered.addAndGet(text.length());
+    }
+
+    /**
+     * Sends files one at a time, with pauses of the configured rate between the starts, until the deadline.
+     * A transfer longer than the pause delays the next one, like a real user waiting for the upload.
+     */
+    private void sendFiles(long deadline) {
+        byte[] buffer = new byte[64 * 1024];
+        for (int sequence = 0; ; sequence++) {
+            long delay = nextInterval(fileRandom, options.fileRate);
+            if (clock() + delay >= deadline || stopping) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long size = options.fileSize.next(fileRandom);
+            File file = new File(outbox, "file-" + sequence + ".bin");
+            try {
+                // Random content, so no receiver skips the file as one it already has
+                writeRandomFile(file, size, buffer);
+                String transferId = MESSAGE_MARK + Long.toString(clock()) + SEPARATOR + index + "-" + sequence;
+                try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
+                    new FileSender(session, NO_PROGRESS).sendFile(fileChannel, transferId, file.getName(), size, null, 1, false);
+                }
+                stats.filesSent.incrementAndGet();
+                stats.fileBytesSent.addAndGet(size);
+            } catch (IOException | RuntimeException e) {
+                if (!stopping) {
+                    stats.fileErrors.incrementAndGet();
+                    System.out.println(session + " cannot send " + file.getName() + ": " + e);
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private void writeRandomFile(File file, long size, byte[] buffer) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; ) {
+                int count = (int) Math.min(buffer.length, size - written);
+                fileRandom.nextBytes(buffer);
+                out.write(buffer, 0, count);
+                written += count;
+            }
+        }
+    }
+
+    private void fileReceived(String transferId, File file) {
+        long sentNanos = sentNanosOf(transferId);
+        if (sentNanos >= 0) {
+            stats.fileLatency.record(clock() - sentNanos);
+            stats.filesDelivered.incrementAndGet();
+            stats.fileBytesDelivered.addAndGet(file.length());
+        }
+        file.delete();
+        file.getParentFile().delete();
+    }
+
+    /**
+     * Stops sending and closes the connection. Errors from now on are part of the shutdown and not counted.
+     */
+    @Override
+    public void close() throws IOException {
+        stopping = true;
+        session.close();
+    }
+}
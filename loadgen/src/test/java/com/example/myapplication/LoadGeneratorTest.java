@@ -0,0 +1,63 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class LoadGeneratorTest {
+    @Test
+    public void run_deliversEverythingThroughTheRelay() throws Exception {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[]{
+                "--peers", "4", "--duration", "2", "--message-rate", "20", "--message-size", "16-2048",
+                "--file-rate", "1", "--file-size", "10000-200000"});
+        File directory = Files.createTempDirectory("loadgen").toFile();
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+
+        LoadStats stats = new LoadGenerator(options, directory, new PrintStream(report, true)).run();
+
+        assertTrue(report.toString(), stats.getMessagesSent() > 0);
+        assertEquals(report.toString(), 0, stats.getErrors());
+        assertEquals(report.toString(), stats.getMessagesSent() * 3, stats.getMessagesDelivered());
+        assertEquals(report.toString(), stats.getFilesSent() * 3, stats.getFilesDelivered());
+        assertEquals(stats.getMessagesDelivered(), stats.getMessageLatency().getCount());
+        assertTrue(report.toString().contains("p999"));
+        // The peers and the relay clean up after themselves
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void text_carriesTheTimeItWasSent() {
+        String text = SimulatedPeer.encodeText(123456789L, 100);
+        assertEquals(100, text.length());
+        assertEquals(123456789L, SimulatedPeer.sentNanosOf(text));
+        assertEquals(-1, SimulatedPeer.sentNanosOf("hello there"));
+    }
+
+    @Test
+    public void distributions_stayInTheirRange() {
+        Random random = new Random(1);
+        Distribution uniform = Distribution.parse("16-64");
+        Distribution exponential = Distribution.parse("exp:1000");
+        long sum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long value = uniform.next(random);
+            assertTrue(value >= 16 && value <= 64);
+            sum += exponential.next(random);
+        }
+        assertEquals(1000, sum / 10_000.0, 50);
+        assertEquals(256, Distribution.parse("256").next(random));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOption_isRejected() {
+        LoadGenerator.Options.parse(new String[]{"--speed", "11"});
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.myapplication;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The signatures of the blocks of a file the receiver already has, like rsync's: a rolling weak checksum,
+ * which the sender can slide over its file byte by byte, and a strong MD5 hash confirming a match.
+ * Only whole blocks are signed; the tail of the file shorter than a block is always sent.
+ */
+public final class BlockSignatures {
+    public static final int STRONG_LENGTH = 16;
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+    /** The most blocks a file is split into, which bounds the FILE_SIGNATURES frame to about 20 MB. */
+    public static final int MAX_BLOCKS = 1024 * 1024;
+
+    final int blockSize;
+    final int count;
+    final int[] weak;
+    final byte[] strong;
+    // Chained hash table of the weak checksums, so a rolling position is looked up with one array read
+    private final int[] buckets;
+    private final int[] next;
+    private final int bucketShift;
+
+    BlockSignatures(int blockSize, int count, int[] weak, byte[] strong) {
+        this.blockSize = blockSize;
+        this.count = count;
+        this.weak = weak;
+        this.strong = strong;
+        int tableSize = Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+        buckets = new int[tableSize];
+        bucketShift = 32 - Integer.numberOfTrailingZeros(tableSize);
+        next = new int[count];
+        // Inserted backwards, so the chains list equal blocks in file order
+        for (int block = count - 1; block >= 0; block--) {
+            int bucket = bucket(weak[block]);
+            next[block] = buckets[bucket];
+            buckets[bucket] = block + 1;
+        }
+    }
+
+    /**
+     * Picks the block size for a file: about the square root of its size, so the signatures and the
+     * unmatched bytes around each change stay small together, as rsync does.
+     *
+     * @param size - the size of the file in bytes.
+     * @return - the block size in bytes.
+     */
+    public static int chooseBlockSize(long size) {
+        long blockSize = ((long) Math.sqrt(size) + 1023) / 1024 * 1024;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    /**
+     * Signs the whole blocks of a file.
+     *
+     * @param file - the file.
+     * @param blockSize - the block size in bytes.
+     * @return - the signatures.
+     * @throws IOException - if the file cannot be read or has too many blocks
+     */
+    public static BlockSignatures compute(File file, int blockSize) throws IOException {
+        long blocks = file.length() / blockSize;
+        if (blocks > MAX_BLOCKS) {
+            throw new IOException(file + " has more than " + MAX_BLOCKS + " blocks of " + blockSize + " bytes");
+        }
+        int count = (int) blocks;
+        int[] weak = new int[count];
+        byte[] strong = new byte[count * STRONG_LENGTH];
+        MessageDigest md5 = newStrongDigest();
+        byte[] block = new byte[blockSize];
+        try (InputStream in = new FileInputStream(file)) {
+            for (int i = 0; i < count; i++) {
+                readFully(in, block);
+                weak[i] = weakChecksum(block, 0, blockSize);
+                md5.update(block, 0, blockSize);
+                System.arraycopy(md5.digest(), 0, strong, i * STRONG_LENGTH, STRONG_LENGTH);
+            }
+        }
+        return new BlockSignatures(blockSize, count, weak, strong);
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int length = 0;
+        while (length < bytes.length) {
+            int read = in.read(bytes, length, bytes.length - length);
+            if (read == -1) {
+                throw new EOFException("File shrank while it was signed");
+            }
+            length += read;
+        }
+    }
+
+    static MessageDigest newStrongDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes rsync's weak checksum: the sum of the bytes in the low half and the sum of the running
+     * sums in the high half, both modulo 2^16.
+     *
+     * @param bytes - the bytes.
+     * @param offset - the first byte of the block.
+     * @param length - the length of the block.
+     * @return - the weak checksum.
+     */
+    static int weakChecksum(byte[] bytes, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = bytes[offset + i] & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+        return (a & 0xFFFF) | (b & 0xFFFF) << 16;
+    }
+
+    /**
+     * Slides the weak checksum of a block one byte forward.
+     *
+     * @param checksum - the checksum of the block.
+     * @param out - the first byte of the block, which leaves it.
+     * @param in - the byte after the block, which enters it.
+     * @param length - the length of the block.
+     * @return - the checksum of the block starting one byte later.
+     */
+    static int roll(int checksum, byte out, byte in, int length) {
+        int outValue = out & 0xFF;
+        int a = (checksum - outValue + (in & 0xFF)) & 0xFFFF;
+        int b = ((checksum >>> 16) - length * outValue + a) & 0xFFFF;
+        return a | b << 16;
+    }
+
+    /**
+     * Looks for a block with the given content.
+     *
+     * @param weakChecksum - the weak checksum of the content.
+     * @param bytes - the bytes holding the content.
+     * @param offset - the first byte of the content, which is blockSize long.
+     * @param md5 - the digest used to confirm a match.
+     * @return - the index of a matching block, or -1.
+     */
+    int find(int weakChecksum, byte[] bytes, int offset, MessageDigest md5) {
+        int block = buckets[bucket(weakChecksum)] - 1;
+        byte[] digest = null;
+        for (; block >= 0; block = next[block] - 1) {
+            if (weak[block] != weakChecksum) {
+                continue;
+            }
+            if (digest == null) {
+                md5.update(bytes, offset, blockSize);
+                digest = md5.digest();
+            }
+            if (strongEquals(block, digest)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private boolean strongEquals(int block, byte[] digest) {
+        int base = block * STRONG_LENGTH;
+        for (int i = 0; i < STRONG_LENGTH; i++) {
+            if (strong[base + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bucket(int weakChecksum) {
+        // The halves are 16-bit sums, mixing spreads them over the whole table
+        return (weakChecksum * 0x9E3779B1) >>> bucketShift;
+    }
+}
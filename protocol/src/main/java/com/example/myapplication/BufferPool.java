@@ -0,0 +1,63 @@
+package com.example.myapplication;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of equally sized direct buffers, used for the chunks of file transfers.
+ * Buffers are reused across transfers, so repeated transfers do not allocate new memory.
+ * When the pool is empty a new buffer is allocated, and released buffers beyond the bound are dropped,
+ * so the memory retained by the pool never exceeds bufferSize * maxPooled.
+ */
+public final class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024; // 256KB
+    public static final BufferPool DEFAULT = new BufferPool(DEFAULT_BUFFER_SIZE, 8);
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+
+    /**
+     * @param bufferSize - the capacity of every buffer in bytes.
+     * @param maxPooled - the maximum number of idle buffers kept by the pool.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.freeBuffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return - a direct buffer with a capacity of bufferSize bytes.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use the buffer afterwards.
+     *
+     * @param buffer - a buffer obtained from {@link #acquire()}.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            freeBuffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the number of idle buffers currently held by the pool.
+     */
+    public int available() {
+        return freeBuffers.size();
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.myapplication;
+
+/**
+ * A command that can be stopped while it executes on another thread, e.g. a file transfer run by the
+ * {@link TransferManager}. A cancelled command ends its execute method with a
+ * {@link java.util.concurrent.CancellationException}.
+ */
+public interface CancellableCommand extends Command {
+    void cancel();
+}
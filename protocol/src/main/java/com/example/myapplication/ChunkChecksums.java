@@ -0,0 +1,51 @@
+package com.example.myapplication;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The checksums protecting a stream: a CRC-32C per chunk, carried in the chunk header, and a SHA-256 of the
+ * whole stream, sent in its STREAM_END frame. Both are computed on the {@link #PIPELINE} threads, next to the
+ * threads moving the bytes, so hashing overlaps the network I/O instead of adding to it.
+ */
+public final class ChunkChecksums {
+    public static final int DIGEST_LENGTH = 32;
+
+    /** The threads hashing the chunks of the streams, ahead of the sender and behind the receiver. */
+    static final ExecutorService PIPELINE = newPipeline();
+
+    private ChunkChecksums() {
+    }
+
+    private static ExecutorService newPipeline() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "checksum-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes - the bytes of a chunk.
+     * @param offset - the offset of the chunk in the array.
+     * @param length - the length of the chunk.
+     * @return - the CRC-32C of the chunk.
+     */
+    public static int crc32c(byte[] bytes, int offset, int length) {
+        Crc32c crc = new Crc32c();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
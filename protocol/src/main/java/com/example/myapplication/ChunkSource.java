@@ -0,0 +1,266 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The body of a logical stream, handed out chunk by chunk to the {@link FrameWriter}.
+ * The writer first asks for the length of the next chunk, writes the chunk header and then lets the source
+ * write exactly that many bytes, so chunk headers always match the bytes that follow.
+ * Every source checksums what it hands out, see {@link ChunkChecksums}: the CRC-32C of each chunk goes into
+ * its header, and the SHA-256 of all chunks into the STREAM_END frame.
+ */
+public interface ChunkSource extends Closeable {
+
+    /**
+     * @return - the number of bytes not yet handed out.
+     */
+    long remaining();
+
+    /**
+     * Prepares the next chunk.
+     *
+     * @param maxLength - the largest chunk the writer accepts.
+     * @return - the length of the chunk, between 1 and maxLength.
+     * @throws IOException - if the source cannot be read or ended early
+     */
+    int prepareChunk(int maxLength) throws IOException;
+
+    /**
+     * @return - the CRC-32C of the prepared chunk.
+     * @throws IOException - if the checksum could not be computed
+     */
+    int chunkChecksum() throws IOException;
+
+    /**
+     * Writes the frame header of the prepared chunk. Plain chunks are STREAM_CHUNK frames.
+     *
+     * @param streamId - the id of the stream.
+     * @param length - the length returned by {@link #prepareChunk}.
+     * @param header - the buffer receiving the header.
+     * @throws IOException - if the checksum of the chunk could not be computed
+     */
+    default void putChunkHeader(int streamId, int length, ByteBuffer header) throws IOException {
+        FrameEncoder.putStreamChunkHeader(streamId, length, chunkChecksum(), header);
+    }
+
+    /**
+     * Called after the last chunk was written.
+     *
+     * @return - the SHA-256 of all bytes handed out.
+     * @throws IOException - if the digest could not be computed
+     */
+    byte[] digest() throws IOException;
+
+    /**
+     * Writes the prepared chunk completely into the channel.
+     *
+     * @param channel - the channel of the connection.
+     * @throws IOException - if the source cannot be read or the channel cannot be written
+     */
+    void writeChunk(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Creates a source sending a range of a file with {@link FileChannel#transferTo}, chunk by chunk.
+     * The file channel is not closed by the source.
+     *
+     * @param fileChannel - the channel of the file.
+     * @param position - the position in the file of the first byte to send.
+     * @param count - the number of bytes to send.
+     * @return - the source.
+     */
+    static ChunkSource ofFileChannel(FileChannel fileChannel, long position, long count) {
+        return new FileChannelSource(fileChannel, position, count);
+    }
+
+    /**
+     * Creates a source copying bytes of a stream through a pooled buffer. The stream is closed with the source.
+     *
+     * @param inputStream - the stream, positioned at the first byte to send.
+     * @param count - the number of bytes to send.
+     * @return - the source.
+     */
+    static ChunkSource ofStream(InputStream inputStream, long count) {
+        return new StreamSource(inputStream, count);
+    }
+
+    /**
+     * Creates a source compressing a range of a file in parallel blocks, see {@link CompressingChunkSource}.
+     * The file channel is not closed by the source.
+     *
+     * @param fileChannel - the channel of the file.
+     * @param position - the position in the file of the first byte to send.
+     * @param count - the number of bytes to send.
+     * @return - the source.
+     * @throws IOException - if the file channel cannot be positioned
+     */
+    static ChunkSource compressed(FileChannel fileChannel, long position, long count) throws IOException {
+        fileChannel.position(position);
+        return new CompressingChunkSource(fileChannel, null, count, BlockCompression.POOL, 2 * BlockCompression.POOL.getParallelism());
+    }
+
+    /**
+     * Creates a source compressing the bytes of a stream in parallel blocks. The stream is closed with the source.
+     *
+     * @param inputStream - the stream, positioned at the first byte to send.
+     * @param count - the number of bytes to send.
+     * @return - the source.
+     */
+    static ChunkSource compressed(InputStream inputStream, long count) {
+        return new CompressingChunkSource(Channels.newChannel(inputStream), inputStream, count,
+                BlockCompression.POOL, 2 * BlockCompression.POOL.getParallelism());
+    }
+
+    final class FileChannelSource implements ChunkSource {
+        private final FileChannel fileChannel;
+        private final long end;
+        private long position;
+        private int chunkLength;
+        private FileChunkHasher hasher;
+
+        private FileChannelSource(FileChannel fileChannel, long position, long count) {
+            this.fileChannel = fileChannel;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        private FileChunkHasher hasher(int chunkSize) {
+            if (hasher == null) {
+                // The writer always asks for chunks of the same size, so the hasher's chunks match the sent ones
+                hasher = new FileChunkHasher(fileChannel, position, end - position, chunkSize);
+                hasher.start();
+            }
+            return hasher;
+        }
+
+        @Override
+        public long remaining() {
+            return end - position;
+        }
+
+        @Override
+        public int prepareChunk(int maxLength) throws IOException {
+            chunkLength = (int) Math.min(maxLength, end - position);
+            // Fail before the chunk header is written, a truncated chunk would corrupt the connection
+            if (fileChannel.size() < position + chunkLength) {
+                throw new EOFException("File ended " + (end - fileChannel.size()) + " bytes early");
+            }
+            hasher(maxLength);
+            return chunkLength;
+        }
+
+        @Override
+        public int chunkChecksum() throws IOException {
+            return hasher.nextChecksum();
+        }
+
+        @Override
+        public byte[] digest() throws IOException {
+            return hasher(FrameWriter.CHUNK_SIZE).digest();
+        }
+
+        @Override
+        public void writeChunk(WritableByteChannel channel) throws IOException {
+            long chunkEnd = position + chunkLength;
+            while (position < chunkEnd) {
+                long transferred = fileChannel.transferTo(position, chunkEnd - position, channel);
+                if (transferred <= 0 && position >= fileChannel.size()) {
+                    throw new EOFException("File ended " + (end - position) + " bytes early");
+                }
+                position += transferred;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (hasher != null) {
+                hasher.close();
+            }
+        }
+    }
+
+    final class StreamSource implements ChunkSource {
+        private final InputStream inputStream;
+        private final ReadableByteChannel inputChannel;
+        private final Crc32c crc = new Crc32c();
+        private final byte[] scratch = new byte[8192];
+        private final MessageDigest digest = ChunkChecksums.newDigest();
+        private CompletableFuture<Void> hashed = CompletableFuture.completedFuture(null);
+        private ByteBuffer buffer;
+        private int checksum;
+        private long remaining;
+
+        private StreamSource(InputStream inputStream, long count) {
+            this.inputStream = inputStream;
+            this.inputChannel = Channels.newChannel(inputStream);
+            this.remaining = count;
+        }
+
+        @Override
+        public long remaining() {
+            return remaining;
+        }
+
+        @Override
+        public int prepareChunk(int maxLength) throws IOException {
+            if (buffer == null) {
+                buffer = BufferPool.DEFAULT.acquire();
+            }
+            // The previous chunk is hashed while it is written, wait for it before reusing the buffer
+            hashed.join();
+            buffer.clear();
+            buffer.limit((int) Math.min(Math.min(maxLength, buffer.capacity()), remaining));
+            // A short read still makes a valid chunk, only the end of the stream is an error
+            int bytesRead = inputChannel.read(buffer);
+            if (bytesRead == -1) {
+                throw new EOFException("File ended " + remaining + " bytes early");
+            }
+            remaining -= bytesRead;
+            buffer.flip();
+
+            crc.reset();
+            crc.update(buffer, scratch);
+            checksum = (int) crc.getValue();
+            ByteBuffer chunk = buffer.duplicate();
+            hashed = CompletableFuture.runAsync(() -> digest.update(chunk), ChunkChecksums.PIPELINE);
+            return bytesRead;
+        }
+
+        @Override
+        public int chunkChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public byte[] digest() {
+            hashed.join();
+            return digest.digest();
+        }
+
+        @Override
+        public void writeChunk(WritableByteChannel channel) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                hashed.exceptionally(e -> null).join();
+                BufferPool.DEFAULT.release(buffer);
+                buffer = null;
+            }
+            inputStream.close();
+        }
+    }
+}
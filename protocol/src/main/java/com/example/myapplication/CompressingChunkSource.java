@@ -0,0 +1,181 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A chunk source compressing every chunk as an independent block on the {@link BlockCompression#POOL}.
+ * Blocks are read in order on the writer thread and compressed ahead of the writer, several at once, so
+ * compression runs on all cores while the writer sends the blocks in order. Blocks that do not shrink are
+ * sent as plain chunks, and after {@link #INCOMPRESSIBLE_LIMIT} such blocks in a row the rest of the file
+ * is sent without trying. The CRC-32C of every block is computed with its compression, and the SHA-256 of the
+ * stream on a {@link ChunkChecksums#PIPELINE} thread, block after block in order.
+ */
+final class CompressingChunkSource implements ChunkSource {
+    /** The number of incompressible blocks in a row after which compression is given up. */
+    static final int INCOMPRESSIBLE_LIMIT = 8;
+
+    /**
+     * A block with its buffers, reused for later blocks once it is written.
+     */
+    private static final class Block {
+        final byte[] raw;
+        final byte[] compressed;
+        int rawLength;
+        int compressedLength;
+        int checksum;
+        /** Completed when the block went into the digest, after which its buffers may be reused. */
+        CompletableFuture<Void> hashed = CompletableFuture.completedFuture(null);
+
+        Block(int blockSize) {
+            raw = new byte[blockSize];
+            compressed = new byte[blockSize];
+        }
+    }
+
+    private final ReadableByteChannel input;
+    private final Closeable resource;
+    private final ExecutorService pool;
+    private final int window;
+    private final ArrayDeque<CompletableFuture<Block>> blocks = new ArrayDeque<>();
+    private final ArrayDeque<Block> freeBlocks = new ArrayDeque<>();
+    private final MessageDigest digest = ChunkChecksums.newDigest();
+    private CompletableFuture<Void> digested = CompletableFuture.completedFuture(null);
+    private long unread;
+    private long remaining;
+    private boolean compressing = true;
+    private int incompressibleRun;
+    private Block current;
+
+    /**
+     * @param input - the channel the file is read from, positioned at the first byte to send.
+     * @param resource - closed with the source, or null.
+     * @param count - the number of bytes to send.
+     * @param pool - the pool compressing the blocks.
+     * @param window - the number of blocks read and compressed ahead of the writer.
+     */
+    CompressingChunkSource(ReadableByteChannel input, Closeable resource, long count, ExecutorService pool, int window) {
+        this.input = input;
+        this.resource = resource;
+        this.unread = count;
+        this.remaining = count;
+        this.pool = pool;
+        this.window = window;
+    }
+
+    @Override
+    public long remaining() {
+        return remaining;
+    }
+
+    @Override
+    public int prepareChunk(int maxLength) throws IOException {
+        if (current != null) {
+            freeBlocks.add(current);
+            current = null;
+        }
+        readAhead(maxLength);
+        current = blocks.poll().join();
+
+        if (current.compressedLength < 0) {
+            incompressibleRun++;
+            if (incompressibleRun >= INCOMPRESSIBLE_LIMIT) {
+                compressing = false;
+            }
+        } else {
+            incompressibleRun = 0;
+        }
+        remaining -= current.rawLength;
+        return current.compressedLength < 0 ? current.rawLength : current.compressedLength;
+    }
+
+    /**
+     * Reads blocks until the window is full and hands them to the pool.
+     *
+     * @param blockSize - the size of a block, the last one may be shorter.
+     * @throws IOException - if the file cannot be read or ends early
+     */
+    private void readAhead(int blockSize) throws IOException {
+        while (blocks.size() < window && unread > 0) {
+            Block block = freeBlocks.poll();
+            if (block == null || block.raw.length != blockSize) {
+                block = new Block(blockSize);
+            } else {
+                block.hashed.join();
+            }
+            block.rawLength = (int) Math.min(blockSize, unread);
+            readFully(block.raw, block.rawLength);
+            unread -= block.rawLength;
+
+            Block pending = block;
+            boolean compress = compressing;
+            CompletableFuture<Block> prepared = CompletableFuture.supplyAsync(() -> {
+                pending.checksum = ChunkChecksums.crc32c(pending.raw, 0, pending.rawLength);
+                pending.compressedLength = compress ? BlockCompression.compress(pending.raw, pending.rawLength, pending.compressed) : -1;
+                return pending;
+            }, pool);
+            digested = digested.thenCombineAsync(prepared, (ignored, ready) -> {
+                digest.update(ready.raw, 0, ready.rawLength);
+                return null;
+            }, ChunkChecksums.PIPELINE);
+            block.hashed = digested;
+            blocks.add(prepared);
+        }
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) == -1) {
+                throw new EOFException("File ended " + (unread - buffer.position()) + " bytes early");
+            }
+        }
+    }
+
+    @Override
+    public int chunkChecksum() {
+        return current.checksum;
+    }
+
+    @Override
+    public void putChunkHeader(int streamId, int length, ByteBuffer header) {
+        if (current.compressedLength < 0) {
+            FrameEncoder.putStreamChunkHeader(streamId, length, current.checksum, header);
+        } else {
+            FrameEncoder.putCompressedChunkHeader(streamId, current.rawLength, length, current.checksum, header);
+        }
+    }
+
+    @Override
+    public byte[] digest() {
+        digested.join();
+        return digest.digest();
+    }
+
+    @Override
+    public void writeChunk(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = current.compressedLength < 0
+                ? ByteBuffer.wrap(current.raw, 0, current.rawLength)
+                : ByteBuffer.wrap(current.compressed, 0, current.compressedLength);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Blocks still being compressed only hold heap buffers, they are left to finish on their own
+        blocks.clear();
+        if (resource != null) {
+            resource.close();
+        }
+    }
+}
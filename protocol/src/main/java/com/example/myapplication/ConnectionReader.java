@@ -0,0 +1,125 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Owns the single thread that reads inbound frames of a connection.
+ * The thread blocks inside the socket read while the connection is idle, so an idle chat uses no CPU.
+ * Every frame is handed to a {@link FrameHandler} on the reader thread, which must consume
+ * the fields of the frame before returning.
+ */
+public class ConnectionReader implements Runnable {
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    private final FrameDecoder decoder;
+    private final Closeable connection;
+    private final FrameHandler frameHandler;
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Handles frames read from a connection.
+     */
+    public interface FrameHandler {
+        /**
+         * Called on the reader thread for every frame.
+         *
+         * @param frameType - the type of the frame.
+         * @param decoder - the decoder positioned right after the opcode of the frame.
+         * @throws IOException - if the fields of the frame cannot be read.
+         */
+        void onFrame(FrameType frameType, FrameDecoder decoder) throws IOException;
+
+        /**
+         * Called once, on the reader thread, when the reader stops.
+         *
+         * @param cause - the error which ended the connection, or null if it was closed by the peer or by shutdown.
+         */
+        void onDisconnected(IOException cause);
+    }
+
+    /**
+     * @param name - the name of the reader thread.
+     * @param decoder - the decoder reading from the connection.
+     * @param connection - the connection, closed on shutdown to unblock the reader thread.
+     * @param frameHandler - the handler called for every frame.
+     */
+    public ConnectionReader(String name, FrameDecoder decoder, Closeable connection, FrameHandler frameHandler) {
+        this(name, decoder, connection, frameHandler, Threads.DAEMON);
+    }
+
+    /**
+     * @param name - the name of the reader thread.
+     * @param decoder - the decoder reading from the connection.
+     * @param connection - the connection, closed on shutdown to unblock the reader thread.
+     * @param frameHandler - the handler called for every frame.
+     * @param threadFactory - creates the reader thread.
+     */
+    public ConnectionReader(String name, FrameDecoder decoder, Closeable connection, FrameHandler frameHandler, ThreadFactory threadFactory) {
+        this.decoder = decoder;
+        this.connection = connection;
+        this.frameHandler = frameHandler;
+        this.thread = threadFactory.newThread(this);
+        this.thread.setName(name);
+    }
+
+    /**
+     * Starts the reader thread.
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the reader by closing the connection and waits for the reader thread to finish.
+     *
+     * @throws IOException - if an I/O error occurs when closing the connection.
+     */
+    public void shutdown() throws IOException {
+        running = false;
+        connection.close();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running && thread.isAlive();
+    }
+
+    /**
+     * Returns the id of the reader thread, e.g. for measuring its CPU time.
+     */
+    public long getThreadId() {
+        return thread.getId();
+    }
+
+    @Override
+    public void run() {
+        IOException cause = null;
+        try {
+            while (running) {
+                FrameType frameType = decoder.readFrameType();
+                frameHandler.onFrame(frameType, decoder);
+            }
+        } catch (EOFException | ClosedChannelException e) {
+            // Closed by the peer or by shutdown()
+        } catch (IOException e) {
+            if (running) {
+                cause = e;
+            }
+        } finally {
+            running = false;
+            frameHandler.onDisconnected(cause);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * A persistent index of the SHA-256 content hashes of files, so a file offered again by its hash can be found
+ * among the received files instead of being sent again. Hashes are cached by path, size and modification time
+ * and only computed again when one of them changes. The index is a properties file mapping every path
+ * (or content URI, on the sending side) to "size mtime hash", rewritten atomically after every change.
+ */
+public class ContentIndex {
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Opens the content of a file to be hashed.
+     */
+    public interface ContentOpener {
+        InputStream open() throws IOException;
+    }
+
+    private final File indexFile;
+    private final Properties properties = new Properties();
+
+    /**
+     * @param indexFile - the file holding the index, created on the first change.
+     */
+    public ContentIndex(File indexFile) {
+        this.indexFile = indexFile;
+        if (indexFile.exists()) {
+            try (InputStream in = new FileInputStream(indexFile)) {
+                properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                // A damaged index only costs hashing the files again
+                e.printStackTrace();
+                properties.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the content hash of a file, from the index if the file did not change since it was hashed.
+     *
+     * @param file - the file.
+     * @return - the SHA-256 of the file.
+     * @throws IOException - if the file cannot be read
+     */
+    public byte[] hash(File file) throws IOException {
+        return hash(file.getAbsolutePath(), file.length(), file.lastModified(), () -> new FileInputStream(file));
+    }
+
+    /**
+     * Returns the content hash of a file, from the index if its size and modification time did not change.
+     *
+     * @param key - the path or URI of the file.
+     * @param size - the size of the file in bytes.
+     * @param lastModified - the modification time of the file, 0 if it is unknown, which disables the cache.
+     * @param opener - opens the file if it has to be hashed.
+     * @return - the SHA-256 of the file.
+     * @throws IOException - if the file cannot be read
+     */
+    public byte[] hash(String key, long size, long lastModified, ContentOpener opener) throws IOException {
+        byte[] cached = lastModified > 0 ? lookup(key, size, lastModified) : null;
+        if (cached != null) {
+            return cached;
+        }
+        byte[] hash = computeHash(opener);
+        if (lastModified > 0) {
+            store(key, size, lastModified, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Looks for a file with the given content among the files of a directory.
+     * Only files of the right size are hashed, most of them come from the index.
+     *
+     * @param hash - the SHA-256 of the wanted content.
+     * @param size - the size of the wanted content in bytes.
+     * @param directory - the directory to look in, subdirectories are not searched.
+     * @return - a file with that content, or null.
+     */
+    public File find(byte[] hash, long size, File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            if (!file.isFile() || file.length() != size) {
+                continue;
+            }
+            try {
+                if (Arrays.equals(hash, hash(file))) {
+                    return file;
+                }
+            } catch (FileNotFoundException e) {
+                // Deleted or unreadable meanwhile
+                forget(file.getAbsolutePath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the hash of a file whose content is known without reading it, e.g. a copy of an indexed file.
+     *
+     * @param file - the file.
+     * @param hash - the SHA-256 of the file.
+     */
+    public void put(File file, byte[] hash) {
+        store(file.getAbsolutePath(), file.length(), file.lastModified(), hash);
+    }
+
+    private synchronized byte[] lookup(String key, long size, long lastModified) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(" ");
+        try {
+            if (fields.length == 3 && Long.parseLong(fields[0]) == size && Long.parseLong(fields[1]) == lastModified) {
+                return fromHex(fields[2]);
+            }
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private synchronized void store(String key, long size, long lastModified, byte[] hash) {
+        properties.setProperty(key, size + " " + lastModified + " " + toHex(hash));
+        save();
+    }
+
+    private synchronized void forget(String key) {
+        if (properties.remove(key) != null) {
+            save();
+        }
+    }
+
+    private void save() {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            System.out.println("Cannot write content index " + indexFile);
+        }
+    }
+
+    private static byte[] computeHash(ContentOpener opener) throws IOException {
+        MessageDigest digest = ChunkChecksums.newDigest();
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = opener.open()) {
+            if (in == null) {
+                throw new FileNotFoundException("Content cannot be opened");
+            }
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd hex length " + hex.length());
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+}
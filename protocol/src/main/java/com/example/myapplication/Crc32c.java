@@ -0,0 +1,86 @@
+package com.example.myapplication;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), the checksum of every stream chunk. java.util.zip.CRC32C is not available
+ * on the supported Android versions, so this is a table driven implementation processing 8 bytes per step.
+ */
+public final class Crc32c implements Checksum {
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int table = 1; table < 8; table++) {
+                int previous = TABLES[table - 1][i];
+                TABLES[table][i] = (previous >>> 8) ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int value = crc;
+        int end = offset + length;
+        while (end - offset >= 8) {
+            int low = value ^ ((bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+                    | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24);
+            int high = (bytes[offset + 4] & 0xFF) | (bytes[offset + 5] & 0xFF) << 8
+                    | (bytes[offset + 6] & 0xFF) << 16 | (bytes[offset + 7] & 0xFF) << 24;
+            value = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+                    ^ t3[high & 0xFF] ^ t2[(high >>> 8) & 0xFF] ^ t1[(high >>> 16) & 0xFF] ^ t0[high >>> 24];
+            offset += 8;
+        }
+        while (offset < end) {
+            value = (value >>> 8) ^ t0[(value ^ bytes[offset++]) & 0xFF];
+        }
+        crc = value;
+    }
+
+    /**
+     * Updates the checksum with the remaining bytes of a buffer, leaving its position unchanged.
+     *
+     * @param buffer - the bytes, heap or direct.
+     * @param scratch - a heap array the bytes of a direct buffer are copied through.
+     */
+    public void update(ByteBuffer buffer, byte[] scratch) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        ByteBuffer bytes = buffer.duplicate();
+        while (bytes.hasRemaining()) {
+            int length = Math.min(scratch.length, bytes.remaining());
+            bytes.get(scratch, 0, length);
+            update(scratch, 0, length);
+        }
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
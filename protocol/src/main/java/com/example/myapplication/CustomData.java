@@ -0,0 +1,56 @@
+package com.example.myapplication;
+
+/**
+ * A utility class for serializing and deserializing big-endian integer and long values, as used by the v1 wire format.
+ */
+public class CustomData {
+
+    /**
+     * Serializes an integer value into a byte array.
+     *
+     * @param num  - the integer value to be serialized.
+     * @return - A byte array containing the serialized integer value.
+     */
+    public static byte[] serialize(int num) {
+        return new byte[]{(byte) (num >>> 24), (byte) (num >>> 16), (byte) (num >>> 8), (byte) num};
+    }
+
+    /**
+     * Deserializes a byte array into an integer value.
+     *
+     * @param bytes - the byte array containing the serialized integer value.
+     * @return - The deserialized integer value.
+     */
+    public static int deserialize(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Serializes a long value into a byte array.
+     *
+     * @param value - the long value to be serialized.
+     * @return - A byte array containing the serialized long value.
+     */
+    public static byte[] serializeLong(long value) {
+        byte[] bytes = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Deserializes a byte array into a long value.
+     *
+     * @param bytes - the byte array containing the serialized long value.
+     * @return - The deserialized long value.
+     */
+    public static long deserializeLong(byte[] bytes) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
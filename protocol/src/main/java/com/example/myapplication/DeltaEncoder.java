@@ -0,0 +1,114 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the parts of a new version of a file that the receiver already has in its old version, like rsync's sender.
+ * The weak checksum of a block-sized window is rolled over the new file one byte at a time and looked up among the
+ * {@link BlockSignatures} of the old version; a hit confirmed by the strong hash becomes a copy of that block, and
+ * the window jumps past it. Everything between the copies is sent as literal bytes.
+ */
+public final class DeltaEncoder {
+
+    private DeltaEncoder() {
+    }
+
+    /**
+     * Computes the copies that rebuild as much of the new file as possible from the old one.
+     *
+     * @param signatures - the signatures of the receiver's old version.
+     * @param in - the new version, read to its end.
+     * @param size - the size of the new version in bytes.
+     * @return - the copies as {target offset, basis offset, length}, ordered by target offset, adjacent copies merged.
+     * @throws IOException - if the new version cannot be read
+     */
+    public static List<long[]> computeCopies(BlockSignatures signatures, InputStream in, long size) throws IOException {
+        int blockSize = signatures.blockSize;
+        List<long[]> copies = new ArrayList<>();
+        if (signatures.count == 0 || size < blockSize) {
+            return copies;
+        }
+        MessageDigest md5 = BlockSignatures.newStrongDigest();
+        byte[] buffer = new byte[Math.max(4 * blockSize, 1024 * 1024)];
+        long bufferOffset = 0;
+        long unread = size;
+        int start = 0;
+        int limit = 0;
+        boolean weakValid = false;
+        int weak = 0;
+
+        while (true) {
+            // Keep one byte after the window in the buffer, for the roll
+            if (limit - start <= blockSize && unread > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                bufferOffset += start;
+                limit -= start;
+                start = 0;
+                while (limit < buffer.length && unread > 0) {
+                    int read = in.read(buffer, limit, (int) Math.min(buffer.length - limit, unread));
+                    if (read == -1) {
+                        throw new IOException("File ended " + unread + " bytes early");
+                    }
+                    limit += read;
+                    unread -= read;
+                }
+            }
+            if (limit - start < blockSize) {
+                break;
+            }
+            if (!weakValid) {
+                weak = BlockSignatures.weakChecksum(buffer, start, blockSize);
+                weakValid = true;
+            }
+
+            int block = signatures.find(weak, buffer, start, md5);
+            if (block >= 0) {
+                addCopy(copies, bufferOffset + start, (long) block * blockSize, blockSize);
+                start += blockSize;
+                weakValid = false;
+                continue;
+            }
+            if (start + blockSize >= limit) {
+                break;
+            }
+            weak = BlockSignatures.roll(weak, buffer[start], buffer[start + blockSize], blockSize);
+            start++;
+        }
+        return copies;
+    }
+
+    private static void addCopy(List<long[]> copies, long targetOffset, long basisOffset, int length) {
+        long[] last = copies.isEmpty() ? null : copies.get(copies.size() - 1);
+        if (last != null && last[0] + last[2] == targetOffset && last[1] + last[2] == basisOffset) {
+            last[2] += length;
+        } else {
+            copies.add(new long[]{targetOffset, basisOffset, length});
+        }
+    }
+
+    /**
+     * Lists the ranges of the new file that the copies leave out, which are sent as literal bytes.
+     *
+     * @param copies - the copies, ordered by target offset.
+     * @param size - the size of the new file in bytes.
+     * @return - the missing ranges as {offset, length} pairs.
+     */
+    public static List<long[]> missingRanges(List<long[]> copies, long size) {
+        List<long[]> missing = new ArrayList<>();
+        long position = 0;
+        for (long[] copy : copies) {
+            if (copy[0] > position) {
+                missing.add(new long[]{position, copy[0] - position});
+            }
+            position = Math.max(position, copy[0] + copy[2]);
+        }
+        if (position < size) {
+            missing.add(new long[]{position, size - position});
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Keeps the received files in a directory, for the sides running off Android: the relay server and tests.
+ * Every transfer gets a directory of its own, named after its id, so files of the same name sent by different
+ * peers do not overwrite each other. The journal and the content index are kept next to them.
+ */
+public class DirectoryTransferStore implements TransferStore {
+    private final File directory;
+    private final TransferJournal transferJournal;
+    private final ContentIndex contentIndex;
+
+    /**
+     * @param directory - the directory of the received files, created if needed.
+     * @throws IOException - if the directory cannot be created
+     */
+    public DirectoryTransferStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.transferJournal = new TransferJournal(new File(directory, ".transfers"));
+        this.contentIndex = new ContentIndex(new File(directory, ".content-index"));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public TransferJournal getTransferJournal() {
+        return transferJournal;
+    }
+
+    @Override
+    public ContentIndex getContentIndex() {
+        return contentIndex;
+    }
+
+    @Override
+    public File prepareFileForWriting(String fileName, long fileSize, String transferId) throws IOException {
+        File transferDirectory = new File(directory, new File(transferId).getName());
+        if (!transferDirectory.isDirectory() && !transferDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + transferDirectory);
+        }
+        // The name comes from the peer, only its last part is used
+        String name = new File(fileName).getName();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            name = "file";
+        }
+        if (transferDirectory.getUsableSpace() < fileSize) {
+            throw new IOException("Not enough space for " + fileSize + " bytes in " + transferDirectory);
+        }
+        return new File(transferDirectory, name);
+    }
+
+    @Override
+    public void preallocate(RandomAccessFile file, long length) throws IOException {
+        file.setLength(length);
+    }
+
+    @Override
+    public void onFileReceived(Session session, String transferId, File file) {
+        System.out.println("Received " + file + " from " + session);
+    }
+}
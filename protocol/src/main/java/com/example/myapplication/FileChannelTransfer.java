@@ -0,0 +1,86 @@
+package com.example.myapplication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves file bodies between a {@link FileChannel} and a socket channel without copying them through
+ * a Java buffer. When both ends support it, the kernel copies the bytes directly (sendfile).
+ */
+public final class FileChannelTransfer {
+    /** Upper bound of a single transfer call, so progress is reported while large files are moved. */
+    static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024; // 8MB
+
+    private FileChannelTransfer() {
+    }
+
+    /**
+     * Sends count bytes of a file, starting at position, to the target channel.
+     *
+     * @param source - the channel of the file to be sent.
+     * @param position - the position in the file of the first byte to send.
+     * @param count - the number of bytes to send.
+     * @param target - the channel of the connection.
+     * @param progressListener - the listener notified after every chunk, may be null.
+     * @throws IOException - if the file is shorter than expected or an I/O error occurs.
+     */
+    public static void send(FileChannel source, long position, long count, WritableByteChannel target,
+                            ProgressListener progressListener) throws IOException {
+        long bytesTransferred = 0;
+        RollingCounter speed = RollingCounter.forProgress();
+        long lastChunkAt = System.nanoTime();
+
+        while (bytesTransferred < count) {
+            long chunk = Math.min(TRANSFER_CHUNK_SIZE, count - bytesTransferred);
+            long chunkStart = System.nanoTime();
+            long transferred = source.transferTo(position + bytesTransferred, chunk, target);
+            if (transferred <= 0 && position + bytesTransferred >= source.size()) {
+                throw new EOFException("File ended after " + bytesTransferred + " of " + count + " bytes");
+            }
+            bytesTransferred += transferred;
+            long now = System.nanoTime();
+            TransferMetrics.DEFAULT.sent.chunk(transferred, now - chunkStart, now - lastChunkAt);
+            lastChunkAt = now;
+            speed.add(transferred);
+
+            if (progressListener != null) {
+                progressListener.onProgressUpdate(bytesTransferred, count, speed.megabytesPerSecond());
+            }
+        }
+    }
+
+    /**
+     * Receives count bytes of a file body from the connection and writes them at position.
+     * The target file should be preallocated to its final length, see {@link FrameDecoder#transferTo}.
+     *
+     * @param decoder - the decoder positioned at the first byte of the file body.
+     * @param target - the channel of the destination file.
+     * @param position - the position in the file of the first byte to write.
+     * @param count - the number of bytes to receive.
+     * @param progressListener - the listener notified after every chunk, may be null.
+     * @throws IOException - if the connection was closed or an I/O error occurs.
+     */
+    public static void receive(FrameDecoder decoder, FileChannel target, long position, long count,
+                               ProgressListener progressListener) throws IOException {
+        long bytesTransferred = 0;
+        RollingCounter speed = RollingCounter.forProgress();
+        long lastChunkAt = System.nanoTime();
+
+        while (bytesTransferred < count) {
+            long chunk = Math.min(TRANSFER_CHUNK_SIZE, count - bytesTransferred);
+            long chunkStart = System.nanoTime();
+            decoder.transferTo(target, position + bytesTransferred, chunk);
+            bytesTransferred += chunk;
+            long now = System.nanoTime();
+            TransferMetrics.DEFAULT.received.chunk(chunk, now - chunkStart, now - lastChunkAt);
+            lastChunkAt = now;
+            speed.add(chunk);
+
+            if (progressListener != null) {
+                progressListener.onProgressUpdate(bytesTransferred, count, speed.megabytesPerSecond());
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes a range of a file on a {@link ChunkChecksums#PIPELINE} thread, chunk by chunk and ahead of the writer.
+ * It is used with {@link FileChannel#transferTo}, where the sent bytes never pass through the sender's memory:
+ * the hasher reads the same chunks from the page cache while the kernel copies them into the socket.
+ */
+final class FileChunkHasher implements Runnable, Closeable {
+    /** The number of chunk checksums the hasher may run ahead of the writer. */
+    static final int MAX_AHEAD = 64;
+
+    private final FileChannel fileChannel;
+    private final long start;
+    private final long end;
+    private final int chunkSize;
+    private final ArrayBlockingQueue<Integer> checksums = new ArrayBlockingQueue<>(MAX_AHEAD);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final MessageDigest digest = ChunkChecksums.newDigest();
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    FileChunkHasher(FileChannel fileChannel, long position, long count, int chunkSize) {
+        this.fileChannel = fileChannel;
+        this.start = position;
+        this.end = position + count;
+        this.chunkSize = chunkSize;
+    }
+
+    void start() {
+        ChunkChecksums.PIPELINE.execute(this);
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[chunkSize];
+        Crc32c crc = new Crc32c();
+        try {
+            for (long position = start; position < end && !closed; ) {
+                int length = (int) Math.min(chunkSize, end - position);
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer, position + buffer.position()) == -1) {
+                        throw new EOFException("File ended " + (end - position - buffer.position()) + " bytes early");
+                    }
+                }
+                crc.reset();
+                crc.update(chunk, 0, length);
+                digest.update(chunk, 0, length);
+                while (!closed && !checksums.offer((int) crc.getValue(), 100, TimeUnit.MILLISECONDS)) {
+                    // The writer is behind, wait for it
+                }
+                position += length;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Hashing interrupted");
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Waits for the checksum of the next chunk.
+     *
+     * @return - the CRC-32C of the chunk.
+     * @throws IOException - if the file could not be read
+     */
+    int nextChecksum() throws IOException {
+        try {
+            while (true) {
+                Integer checksum = checksums.poll(100, TimeUnit.MILLISECONDS);
+                if (checksum != null) {
+                    return checksum;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (finished.getCount() == 0 && checksums.isEmpty()) {
+                    throw new IOException("No checksum left for the chunk");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a checksum");
+        }
+    }
+
+    /**
+     * Waits for the hasher to reach the end of the range.
+     *
+     * @return - the SHA-256 of the range.
+     * @throws IOException - if the file could not be read
+     */
+    byte[] digest() throws IOException {
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the digest");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return digest.digest();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.myapplication;
+
+import static com.example.myapplication.ReceiveFileRepairCommand.verdictKey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sends one file to the peer of a session, the sending half of the transfer protocol.
+ * Transfers are resumable: the file is first offered, and the body is sent from the offset
+ * the receiver reports as already committed. Large files can be sent as ranges over several
+ * parallel connections, see {@link RangeTransfer}.
+ * After a stream the receiver reports the ranges that failed their checksums, and those ranges are sent
+ * again, see {@link ChunkChecksums}.
+ * The offer carries the content hash of the file, so a receiver that already has the file answers that
+ * nothing is missing and the body is not sent at all.
+ * A receiver holding an older version of the file sends the signatures of its blocks before the answer;
+ * the blocks found in the file are then only referenced in a FILE_DELTA frame and only the bytes in between
+ * are sent, as streams verified like any other, see {@link DeltaEncoder}.
+ * Opening the file is left to the caller, the app sends the documents picked by the user and the relay
+ * server the files in its spool directory.
+ */
+public class FileSender {
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 30_000;
+    /** The receiver answers once the stream is verified, which waits for its last writes to reach the disk. */
+    private static final long VERDICT_TIMEOUT_MILLIS = 60_000;
+    /** The most ranges sent again for one file before the transfer is given up. */
+    static final int MAX_REPAIR_STREAMS = 16;
+    /** The number of literal ranges of a delta sent at the same time, so the verdicts do not cost a round trip each. */
+    static final int DELTA_STREAM_WINDOW = 8;
+
+    /**
+     * Opens a range of the file to be sent again.
+     */
+    interface RangeOpener {
+        ChunkSource open(long offset, long length) throws IOException;
+    }
+
+    private final Session session;
+    private final FrameWriter frameWriter;
+    private final ProgressListener progressListener;
+    private volatile boolean cancelled;
+    private final Set<CompletableFuture<Void>> completions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param session - the session of the receiver.
+     * @param progressListener - notified of the bytes of the file the receiver has.
+     */
+    public FileSender(Session session, ProgressListener progressListener) {
+        this.session = session;
+        this.frameWriter = session.frameWriter;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Cancels the transfer. A file sent on the chat connection stops before its next chunk; ranges already
+     * being sent over parallel connections are finished. The receiver keeps the bytes it committed.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (CompletableFuture<Void> completion : completions) {
+            completion.cancel(false);
+        }
+    }
+
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Transfer cancelled");
+        }
+    }
+
+    /**
+     * Sends a file that can be read positionally, on the chat connection, as a delta or as parallel ranges.
+     *
+     * @param fileChannel - the channel of the file, it is not closed.
+     * @param transferId - the id of the transfer, the same for every offer of the same file so it can be resumed.
+     * @param fileName - the name of the file.
+     * @param fileSize - the size of the file in bytes.
+     * @param contentHash - the SHA-256 of the file, or null.
+     * @param parallelStreams - the most range connections to offer, 1 sends the file on the chat connection.
+     * @param compress - true to compress the chunks, the file is then sent on one stream.
+     * @throws IOException - if the file cannot be read or the connection fails
+     */
+    public void sendFile(FileChannel fileChannel, String transferId, String fileName, long fileSize, byte[] contentHash,
+                         int parallelStreams, boolean compress) throws IOException {
+        // Only files with a seekable channel can be split into ranges, compressed files are sent on one stream
+        int streams = compress ? 1 : RangeTransfer.chooseStreamCount(fileSize, parallelStreams);
+        TransferHandshake.Accept accept = negotiateOffset(transferId, fileName, fileSize, streams, contentHash);
+        long offset = accept.committedOffset;
+        BlockSignatures signatures = session.deltaSignatures.remove(transferId);
+        checkCancelled();
+        RangeOpener rangeOpener = (rangeOffset, rangeLength) -> ChunkSource.ofFileChannel(fileChannel, rangeOffset, rangeLength);
+        if (signatures != null && offset == 0 && accept.rangePort == 0) {
+            // The ranges are read positionally, the channel position only serves the delta
+            fileChannel.position(0);
+            sendDelta(signatures, Channels.newInputStream(fileChannel), transferId, fileSize, rangeOpener);
+        } else if (accept.rangePort != 0) {
+            sendFileRanges(fileChannel, transferId, offset, fileSize, accept.rangePort, streams);
+            TransferMetrics.DEFAULT.sent.transfer(fileSize);
+        } else {
+            ChunkSource source = compress
+                    ? ChunkSource.compressed(fileChannel, offset, fileSize - offset)
+                    : ChunkSource.ofFileChannel(fileChannel, offset, fileSize - offset);
+            sendVerifiedStream(source, transferId, offset, fileSize, rangeOpener);
+        }
+    }
+
+    /**
+     * Offers the file to the receiver and waits for the offset from which it has to be sent.
+     *
+     * @param transferId - the id of the transfer.
+     * @param fileName - the name of the file to be sent.
+     * @param fileSize - the size of the file to be sent in bytes.
+     * @param streams - the number of parallel range connections to offer.
+     * @param contentHash - the SHA-256 of the file, or null.
+     *
+     * @return - the answer of the receiver, with the number of bytes it already has.
+     * @throws IOException - if the offer cannot be sent or is not answered
+     */
+    TransferHandshake.Accept negotiateOffset(String transferId, String fileName, long fileSize, int streams, byte[] contentHash) throws IOException {
+        session.transferHandshake.expect(transferId);
+        byte[] offer = FrameEncoder.encodeFileOffer(transferId, fileName, fileSize, streams, contentHash);
+        frameWriter.send(offer);
+        TransferHandshake.Accept accept = session.transferHandshake.await(transferId, HANDSHAKE_TIMEOUT_MILLIS);
+        if (accept.committedOffset < 0 || accept.committedOffset > fileSize) {
+            throw new IOException("Invalid resume offset " + accept.committedOffset + " for " + fileSize + " bytes");
+        }
+        return accept;
+    }
+
+    /**
+     * Sends the rest of the file as a logical stream, then sends the ranges the receiver reports as corrupted
+     * again, one stream after the other, until the receiver has all of the file intact.
+     *
+     * @param source - the bytes of the file from offset on.
+     * @param transferId - the id of the transfer.
+     * @param offset - the position in the file of the first byte to send.
+     * @param fileSize - the size of the file to be sent in bytes.
+     * @param rangeOpener - opens the ranges to send again.
+     *
+     * @throws IOException - if the file cannot be sent, or ranges are still corrupted after {@link #MAX_REPAIR_STREAMS} repairs
+     */
+    void sendVerifiedStream(ChunkSource source, String transferId, long offset, long fileSize, RangeOpener rangeOpener) throws IOException {
+        CompletableFuture<Void> completion = openStream(source, transferId, offset,
+                (bytesTransferred, totalBytes, speed) -> progressListener.onProgressUpdate(offset + bytesTransferred, fileSize, speed));
+        repair(new ArrayDeque<>(awaitVerdict(completion, transferId, offset)), transferId, fileSize, rangeOpener);
+        TransferMetrics.DEFAULT.sent.transfer(fileSize);
+    }
+
+    /**
+     * Sends the file as a delta against the receiver's older version of it. The blocks of the older version
+     * found in the file are announced in a FILE_DELTA frame, the receiver answers with the ranges in between,
+     * which are sent as streams, {@link #DELTA_STREAM_WINDOW} at a time.
+     *
+     * @param signatures - the signatures of the blocks of the older version.
+     * @param content - the content of the file, read once from the start to find the blocks.
+     * @param transferId - the id of the transfer.
+     * @param fileSize - the size of the file to be sent in bytes.
+     * @param rangeOpener - opens the ranges to send.
+     *
+     * @throws IOException - if the file cannot be sent, or ranges are still corrupted after {@link #MAX_REPAIR_STREAMS} repairs
+     */
+    void sendDelta(BlockSignatures signatures, InputStream content, String transferId, long fileSize, RangeOpener rangeOpener) throws IOException {
+        List<long[]> copies = DeltaEncoder.computeCopies(signatures, content, fileSize);
+        checkCancelled();
+
+        session.repairRequests.expect(verdictKey(transferId, 0));
+        frameWriter.send(FrameEncoder.encodeFileDelta(transferId, copies));
+        ArrayDeque<long[]> literalRanges = new ArrayDeque<>(session.repairRequests.await(verdictKey(transferId, 0), HANDSHAKE_TIMEOUT_MILLIS));
+
+        // The copied bytes count as sent; the progress of the streams is only updated on the writer thread
+        long[] sentBytes = {fileSize - sum(literalRanges)};
+        ArrayDeque<long[]> windowRanges = new ArrayDeque<>();
+        ArrayDeque<CompletableFuture<Void>> window = new ArrayDeque<>();
+        ArrayDeque<long[]> badRanges = new ArrayDeque<>();
+        try {
+            while (!literalRanges.isEmpty() || !window.isEmpty()) {
+                while (window.size() < DELTA_STREAM_WINDOW && !literalRanges.isEmpty()) {
+                    checkCancelled();
+                    long[] range = checkRange(literalRanges.poll(), fileSize);
+                    long[] reported = {0};
+                    window.add(openStream(rangeOpener.open(range[0], range[1]), transferId, range[0], (bytesTransferred, totalBytes, speed) -> {
+                        sentBytes[0] += bytesTransferred - reported[0];
+                        reported[0] = bytesTransferred;
+                        progressListener.onProgressUpdate(sentBytes[0], fileSize, speed);
+                    }));
+                    windowRanges.add(range);
+                }
+                badRanges.addAll(awaitVerdict(window.poll(), transferId, windowRanges.poll()[0]));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (CompletableFuture<Void> completion : window) {
+                completion.cancel(false);
+            }
+            throw e;
+        }
+        repair(badRanges, transferId, fileSize, rangeOpener);
+        TransferMetrics.DEFAULT.sent.transfer(fileSize);
+    }
+
+    private static long sum(Iterable<long[]> ranges) {
+        long total = 0;
+        for (long[] range : ranges) {
+            total += range[1];
+        }
+        return total;
+    }
+
+    /**
+     * Sends the ranges the receiver reports as corrupted again, one stream after the other, until the receiver
+     * has all of the file intact.
+     *
+     * @param badRanges - the ranges to send again, ranges reported by the repairs are added.
+     * @param transferId - the id of the transfer.
+     * @param fileSize - the size of the file to be sent in bytes.
+     * @param rangeOpener - opens the ranges to send again.
+     *
+     * @throws IOException - if a range cannot be sent, or ranges are still corrupted after {@link #MAX_REPAIR_STREAMS} repairs
+     */
+    private void repair(ArrayDeque<long[]> badRanges, String transferId, long fileSize, RangeOpener rangeOpener) throws IOException {
+        int repairStreams = 0;
+        while (!badRanges.isEmpty()) {
+            if (repairStreams++ == MAX_REPAIR_STREAMS) {
+                throw new IOException(badRanges.size() + " ranges of transfer " + transferId + " still fail their checksums after " + MAX_REPAIR_STREAMS + " repairs");
+            }
+            checkCancelled();
+            long[] range = checkRange(badRanges.poll(), fileSize);
+            badRanges.addAll(awaitVerdict(openStream(rangeOpener.open(range[0], range[1]), transferId, range[0], null), transferId, range[0]));
+        }
+    }
+
+    private static long[] checkRange(long[] range, long fileSize) throws ProtocolException {
+        if (range[1] <= 0 || range[0] < 0 || range[0] + range[1] > fileSize) {
+            throw new ProtocolException("Request of invalid range " + range[0] + "+" + range[1] + " of " + fileSize + " bytes");
+        }
+        return range;
+    }
+
+    /**
+     * Opens a range of the file as a logical stream on the chat connection.
+     * The writer interleaves its chunks with chat frames and other transfers.
+     *
+     * @param source - the bytes of the range.
+     * @param transferId - the id of the transfer.
+     * @param offset - the position in the file of the first byte to send.
+     * @param streamProgressListener - notified of the bytes sent on the stream, or null.
+     *
+     * @return - the completion of the stream, which is cancelled with the transfer.
+     * @throws IOException - if the connection is closed
+     */
+    private CompletableFuture<Void> openStream(ChunkSource source, String transferId, long offset, ProgressListener streamProgressListener) throws IOException {
+        // The verdict is sent as soon as the STREAM_END frame arrives, so it is expected before the stream is opened
+        session.repairRequests.expect(verdictKey(transferId, offset));
+        CompletableFuture<Void> completion = frameWriter.openStream(transferId, offset, source, streamProgressListener);
+        completions.add(completion);
+        if (cancelled) {
+            completion.cancel(false);
+        }
+        return completion;
+    }
+
+    /**
+     * Waits until a stream is sent and the receiver's verdict on it.
+     * A cancelled stream ends with a {@link CancellationException}.
+     *
+     * @param completion - the completion of the stream.
+     * @param transferId - the id of the transfer.
+     * @param offset - the position in the file of the first byte of the stream.
+     *
+     * @return - the ranges of the stream that failed their checksums at the receiver.
+     * @throws IOException - if there is an issue while reading the file or writing to the socket
+     */
+    private List<long[]> awaitVerdict(CompletableFuture<Void> completion, String transferId, long offset) throws IOException {
+        try {
+            completion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending " + transferId);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            completions.remove(completion);
+        }
+        return session.repairRequests.await(verdictKey(transferId, offset), VERDICT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sends the rest of the file as ranges over parallel connections to the receiver's range port.
+     *
+     * @param fileChannel - the channel of the file to be sent.
+     * @param transferId - the id of the transfer.
+     * @param offset - the position in the file of the first byte to send.
+     * @param fileSize - the size of the file to be sent in bytes.
+     * @param rangePort - the port the receiver accepts range connections on.
+     * @param streams - the number of parallel connections.
+     *
+     * @throws IOException - if any range fails
+     */
+    private void sendFileRanges(FileChannel fileChannel, String transferId, long offset, long fileSize, int rangePort, int streams) throws IOException {
+        InetSocketAddress receiver = new InetSocketAddress(session.getPeerAddress(), rangePort);
+        RangeTransfer.send(fileChannel, transferId, offset, fileSize - offset, receiver, streams,
+                (bytesTransferred, totalBytes, speed) -> progressListener.onProgressUpdate(offset + bytesTransferred, fileSize, speed));
+    }
+}
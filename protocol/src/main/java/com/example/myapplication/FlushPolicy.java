@@ -0,0 +1,43 @@
+package com.example.myapplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells the {@link FrameWriter} when to write the frames it collected to the socket.
+ * The writer always gathers the frames queued at the same moment into one write; a policy with a delay also
+ * waits up to that delay for more frames, unless the collected bytes reach the threshold first.
+ * The connection runs with TCP_NODELAY, so every write goes out as its own packet right away and the
+ * policy alone decides between fewer packets and lower latency.
+ */
+public final class FlushPolicy {
+    /** Writes as soon as no more frames are queued, without waiting. */
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(0, FrameWriter.OUTPUT_BUFFER_SIZE);
+
+    final long maxDelayNanos;
+    final int maxBytes;
+
+    private FlushPolicy(long maxDelayNanos, int maxBytes) {
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a policy coalescing frames for a short time.
+     *
+     * @param maxDelayMicros - the longest time a frame waits for more frames, in microseconds.
+     * @param maxBytes - the number of collected bytes that are written without waiting any longer.
+     * @return - the policy.
+     */
+    public static FlushPolicy coalesce(long maxDelayMicros, int maxBytes) {
+        if (maxDelayMicros < 0 || maxBytes < 1) {
+            throw new IllegalArgumentException("Invalid flush policy " + maxDelayMicros + "us, " + maxBytes + " bytes");
+        }
+        return new FlushPolicy(TimeUnit.MICROSECONDS.toNanos(maxDelayMicros), Math.min(maxBytes, FrameWriter.OUTPUT_BUFFER_SIZE));
+    }
+
+    @Override
+    public String toString() {
+        return maxDelayNanos == 0 && maxBytes == FrameWriter.OUTPUT_BUFFER_SIZE ? "immediate"
+                : "coalesce " + TimeUnit.NANOSECONDS.toMicros(maxDelayNanos) + "us/" + maxBytes + "B";
+    }
+}
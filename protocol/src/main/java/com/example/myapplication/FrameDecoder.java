@@ -0,0 +1,309 @@
+package com.example.myapplication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads frames from a connection. Frames in the v2 wire format are decoded directly,
+ * frames sent by v1 peers are recognised by their leading zero byte and decoded by
+ * {@link LegacyFrameDecoder}. Field reads after {@link #readFrameType()} use the format
+ * of the frame that was just read.
+ * All reads block until the requested bytes have arrived, like {@link java.io.DataInput#readFully}.
+ * Headers and strings that fit into the read buffer are decoded in place, so decoding a frame
+ * allocates nothing but the resulting strings.
+ */
+public class FrameDecoder {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FIELD_LENGTH = 64 * 1024 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean legacyFrame;
+
+    public FrameDecoder(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    public FrameDecoder(InputStream inputStream) {
+        this(Channels.newChannel(inputStream));
+    }
+
+    /**
+     * Reads the opcode of the next frame.
+     *
+     * @return - the type of the next frame.
+     * @throws EOFException - if the connection was closed before a new frame started.
+     * @throws ProtocolException - if the frame type is unknown.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public FrameType readFrameType() throws IOException {
+        int opcode = readUnsignedByte();
+        if (opcode == 0) {
+            legacyFrame = true;
+            return LegacyFrameDecoder.readFrameType(this);
+        }
+        legacyFrame = false;
+        FrameType type = FrameType.fromOpcode(opcode);
+        if (type == null) {
+            throw new ProtocolException("Unknown frame opcode: " + opcode);
+        }
+        return type;
+    }
+
+    /**
+     * Returns whether the frame that was just read came from a v1 peer.
+     */
+    public boolean isLegacyFrame() {
+        return legacyFrame;
+    }
+
+    /**
+     * Reads a length field of the current frame.
+     *
+     * @return - the length in bytes.
+     * @throws IOException - if the length is malformed or an I/O error occurs.
+     */
+    public int readLength() throws IOException {
+        long length = legacyFrame ? LegacyFrameDecoder.readInt(this) : readVarint();
+        if (length < 0 || length > MAX_FIELD_LENGTH) {
+            throw new ProtocolException("Invalid field length: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads the file size field of a file frame.
+     *
+     * @return - the file size in bytes.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public long readFileLength() throws IOException {
+        long length = legacyFrame ? LegacyFrameDecoder.readLong(this) : readVarint();
+        if (length < 0) {
+            throw new ProtocolException("Invalid file length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string field of the current frame.
+     *
+     * @return - the decoded string.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public String readString() throws IOException {
+        return readString(readLength());
+    }
+
+    /**
+     * Reads a UTF-8 string of a known length.
+     *
+     * @param length - the length of the string in bytes.
+     * @return - the decoded string.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public String readString(int length) throws IOException {
+        if (length > buffer.capacity()) {
+            byte[] bytes = new byte[length];
+            readFully(bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        ensureBuffered(length);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Reads a 4-byte big-endian int.
+     *
+     * @return - the int value.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public int readInt() throws IOException {
+        ensureBuffered(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads an 8-byte big-endian long.
+     *
+     * @return - the long value.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public long readLong() throws IOException {
+        ensureBuffered(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @return - the decoded value.
+     * @throws IOException - if the varint is malformed or an I/O error occurs.
+     */
+    public long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("Malformed varint");
+    }
+
+    /**
+     * Reads a single unsigned byte.
+     *
+     * @return - the byte value between 0 and 255.
+     * @throws IOException - if the connection was closed or an I/O error occurs.
+     */
+    public int readUnsignedByte() throws IOException {
+        if (!buffer.hasRemaining()) {
+            fill();
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Reads exactly len bytes into the given array.
+     *
+     * @param bytes - the destination array.
+     * @param offset - the index of the first byte to write.
+     * @param len - the number of bytes to read.
+     * @throws IOException - if the connection was closed or an I/O error occurs.
+     */
+    public void readFully(byte[] bytes, int offset, int len) throws IOException {
+        while (len > 0) {
+            int read = read(bytes, offset, len);
+            offset += read;
+            len -= read;
+        }
+    }
+
+    /**
+     * Reads at least one and at most len bytes into the given array.
+     *
+     * @param bytes - the destination array.
+     * @param offset - the index of the first byte to write.
+     * @param len - the maximum number of bytes to read.
+     * @return - the number of bytes read.
+     * @throws IOException - if the connection was closed or an I/O error occurs.
+     */
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (len >= buffer.capacity()) {
+                // Large reads bypass the buffer to avoid copying the bytes twice
+                int read = channel.read(ByteBuffer.wrap(bytes, offset, len));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                return read;
+            }
+            fill();
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    /**
+     * Writes the next count bytes of the connection into a file at the given position.
+     * Bytes already buffered by the decoder are written first, the rest is moved with
+     * {@link FileChannel#transferFrom}, without passing through a Java byte array.
+     * The file must already be at least position bytes long.
+     *
+     * @param target - the channel of the destination file.
+     * @param position - the file position of the first byte to write.
+     * @param count - the number of bytes to transfer.
+     * @throws IOException - if the connection was closed or an I/O error occurs.
+     */
+    public void transferTo(FileChannel target, long position, long count) throws IOException {
+        long written = 0;
+        if (buffer.hasRemaining() && count > 0) {
+            int buffered = (int) Math.min(buffer.remaining(), count);
+            ByteBuffer bufferedBytes = buffer.duplicate();
+            bufferedBytes.limit(bufferedBytes.position() + buffered);
+            while (bufferedBytes.hasRemaining()) {
+                written += target.write(bufferedBytes, position + written);
+            }
+            buffer.position(buffer.position() + buffered);
+        }
+        while (written < count) {
+            long transferred = target.transferFrom(channel, position + written, count - written);
+            if (transferred <= 0) {
+                throw new EOFException("Connection closed after " + written + " of " + count + " bytes");
+            }
+            written += transferred;
+        }
+    }
+
+    /**
+     * Reads and discards the next count bytes, e.g. the body of a frame nobody can handle.
+     *
+     * @param count - the number of bytes to skip.
+     * @throws IOException - if the connection was closed or an I/O error occurs.
+     */
+    public void skip(long count) throws IOException {
+        while (count > 0) {
+            if (!buffer.hasRemaining()) {
+                fill();
+            }
+            int skipped = (int) Math.min(buffer.remaining(), count);
+            buffer.position(buffer.position() + skipped);
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Returns the number of bytes that have been received but not consumed yet.
+     */
+    public int buffered() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Makes sure that at least count bytes are buffered, reading more from the channel if needed.
+     */
+    private void ensureBuffered(int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < count) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    private void fill() throws IOException {
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        if (read < 0) {
+            throw new EOFException();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.myapplication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Builds frames in the v2 wire format.
+ * A frame is a one-byte {@link FrameType} opcode followed by the fields of that frame type.
+ * Strings are written as a varint UTF-8 byte count followed by the UTF-8 bytes,
+ * so non-ASCII text always produces a well-formed frame.
+ *
+ * <pre>
+ * MESSAGE:     [0x01][string message]
+ * FILE:        [0x02][string file name][varint file size][file bytes...]
+ * FILE_OFFER:  [0x03][string transfer id][string file name][varint file size][varint streams]
+ *              [varint hash length][sha-256 of the file, or nothing]
+ * FILE_ACCEPT: [0x04][string transfer id][varint committed offset][varint range port]
+ * FILE_DATA:   [0x05][string transfer id][varint offset][varint length][file bytes...]
+ * STREAM_OPEN: [0x06][varint stream id][string transfer id][varint offset][varint length]
+ * STREAM_CHUNK:[0x07][varint stream id][varint chunk length][int crc32c][chunk bytes...]
+ * STREAM_RESET:[0x08][varint stream id]
+ * STREAM_COMPRESSED_CHUNK:
+ *              [0x09][varint stream id][varint raw length][varint compressed length][int crc32c of the raw bytes][raw deflate bytes...]
+ * STREAM_END:  [0x0A][varint stream id][32 bytes sha-256 of the stream]
+ * FILE_REPAIR: [0x0B][string transfer id][varint stream offset][varint count]{[varint offset][varint length]}...
+ * FILE_SIGNATURES:
+ *              [0x0C][string transfer id][varint block size][varint count]{[int weak checksum][16 bytes md5]}...
+ * FILE_DELTA:  [0x0D][string transfer id][varint count]{[varint target offset][varint basis offset][varint length]}...
+ * </pre>
+ *
+ * FILE_DATA carries a whole range and is only used on the dedicated range connections.
+ * On the chat connection a file body is sent as a logical stream: STREAM_OPEN binds a stream id
+ * to a range of an accepted transfer, and the range follows in STREAM_CHUNK frames, which can be
+ * interleaved with the frames of other streams and with chat and control frames.
+ * A stream that is cancelled or fails before its end is closed with STREAM_RESET.
+ * Compressed chunks are independent deflate blocks, see {@link BlockCompression}.
+ * A complete stream is closed with STREAM_END, and the receiver answers with FILE_REPAIR listing the ranges
+ * that failed their checksums, see {@link ChunkChecksums}; an empty list confirms the stream.
+ * A receiver holding an older version of an offered file sends the FILE_SIGNATURES of its blocks before
+ * accepting, and the sender answers with the FILE_DELTA copies rebuilding the new version from the old one,
+ * see {@link DeltaEncoder}. The receiver then asks for the rest with a FILE_REPAIR frame.
+ */
+public final class FrameEncoder {
+    public static final int PROTOCOL_VERSION = 2;
+    /** The largest header of a chunk frame: the opcode, up to three 5-byte varints and the checksum. */
+    public static final int MAX_STREAM_CHUNK_HEADER_SIZE = 1 + 5 + 5 + 5 + 4;
+
+    private FrameEncoder() {
+    }
+
+    /**
+     * Encodes a complete text message frame.
+     *
+     * @param message - the message text.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeMessage(String message) {
+        byte[] messageBytes = utf8(message);
+        ByteBuffer frame = allocateFrame(FrameType.MESSAGE, sizeOf(messageBytes));
+        putString(frame, messageBytes);
+        return frame.array();
+    }
+
+    /**
+     * Encodes the header of a file frame. The file bytes are written right after it.
+     *
+     * @param fileName - the name of the file.
+     * @param fileSize - the size of the file in bytes.
+     * @return - the encoded header.
+     */
+    public static byte[] encodeFileHeader(String fileName, long fileSize) {
+        byte[] fileNameBytes = utf8(fileName);
+        ByteBuffer header = allocateFrame(FrameType.FILE, sizeOf(fileNameBytes) + Varint.sizeOf(fileSize));
+        putString(header, fileNameBytes);
+        Varint.write(fileSize, header);
+        return header.array();
+    }
+
+    /**
+     * Encodes the offer of a resumable file transfer, which the receiver answers with a FILE_ACCEPT frame.
+     *
+     * @param transferId - the id of the transfer, stable across reconnects for the same file.
+     * @param fileName - the name of the file.
+     * @param fileSize - the size of the file in bytes.
+     * @param streams - the number of parallel range connections the sender wants to use, 1 for none.
+     * @param contentHash - the SHA-256 of the file, which lets the receiver use a copy it already has, or null.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeFileOffer(String transferId, String fileName, long fileSize, int streams, byte[] contentHash) {
+        byte[] transferIdBytes = utf8(transferId);
+        byte[] fileNameBytes = utf8(fileName);
+        byte[] hash = contentHash != null ? contentHash : new byte[0];
+        ByteBuffer frame = allocateFrame(FrameType.FILE_OFFER, sizeOf(transferIdBytes) + sizeOf(fileNameBytes)
+                + Varint.sizeOf(fileSize) + Varint.sizeOf(streams) + sizeOf(hash));
+        putString(frame, transferIdBytes);
+        putString(frame, fileNameBytes);
+        Varint.write(fileSize, frame);
+        Varint.write(streams, frame);
+        putString(frame, hash);
+        return frame.array();
+    }
+
+    /**
+     * Encodes the answer to a file offer.
+     *
+     * @param transferId - the id of the offered transfer.
+     * @param committedOffset - the number of bytes the receiver already has, the sender continues from there.
+     * @param rangePort - the port accepting the range connections, or 0 to send the file on this connection.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeFileAccept(String transferId, long committedOffset, int rangePort) {
+        byte[] transferIdBytes = utf8(transferId);
+        ByteBuffer frame = allocateFrame(FrameType.FILE_ACCEPT,
+                sizeOf(transferIdBytes) + Varint.sizeOf(committedOffset) + Varint.sizeOf(rangePort));
+        putString(frame, transferIdBytes);
+        Varint.write(committedOffset, frame);
+        Varint.write(rangePort, frame);
+        return frame.array();
+    }
+
+    /**
+     * Encodes the header of a file data frame. The file bytes are written right after it.
+     *
+     * @param transferId - the id of the accepted transfer.
+     * @param offset - the position in the file of the first byte that follows.
+     * @param length - the number of file bytes that follow.
+     * @return - the encoded header.
+     */
+    public static byte[] encodeFileDataHeader(String transferId, long offset, long length) {
+        byte[] transferIdBytes = utf8(transferId);
+        ByteBuffer header = allocateFrame(FrameType.FILE_DATA,
+                sizeOf(transferIdBytes) + Varint.sizeOf(offset) + Varint.sizeOf(length));
+        putString(header, transferIdBytes);
+        Varint.write(offset, header);
+        Varint.write(length, header);
+        return header.array();
+    }
+
+    /**
+     * Encodes the frame opening a logical stream for a range of an accepted transfer.
+     *
+     * @param streamId - the id of the stream, unique among the open streams of the sender.
+     * @param transferId - the id of the accepted transfer.
+     * @param offset - the position in the file of the first byte of the stream.
+     * @param length - the number of file bytes sent in the chunks of the stream.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeStreamOpen(int streamId, String transferId, long offset, long length) {
+        byte[] transferIdBytes = utf8(transferId);
+        ByteBuffer frame = allocateFrame(FrameType.STREAM_OPEN,
+                Varint.sizeOf(streamId) + sizeOf(transferIdBytes) + Varint.sizeOf(offset) + Varint.sizeOf(length));
+        Varint.write(streamId, frame);
+        putString(frame, transferIdBytes);
+        Varint.write(offset, frame);
+        Varint.write(length, frame);
+        return frame.array();
+    }
+
+    /**
+     * Writes the header of a stream chunk frame into a reused buffer. The chunk bytes are written right after it.
+     *
+     * @param streamId - the id of the stream the chunk belongs to.
+     * @param length - the number of bytes in the chunk.
+     * @param checksum - the CRC-32C of the chunk bytes.
+     * @param header - the buffer receiving the header, it needs {@link #MAX_STREAM_CHUNK_HEADER_SIZE} bytes.
+     */
+    public static void putStreamChunkHeader(int streamId, int length, int checksum, ByteBuffer header) {
+        header.put((byte) FrameType.STREAM_CHUNK.getOpcode());
+        Varint.write(streamId, header);
+        Varint.write(length, header);
+        header.putInt(checksum);
+    }
+
+    /**
+     * Writes the header of a compressed stream chunk frame into a reused buffer. The compressed bytes are written right after it.
+     *
+     * @param streamId - the id of the stream the chunk belongs to.
+     * @param rawLength - the number of bytes of the chunk once decompressed.
+     * @param compressedLength - the number of compressed bytes that follow.
+     * @param checksum - the CRC-32C of the decompressed bytes.
+     * @param header - the buffer receiving the header, it needs {@link #MAX_STREAM_CHUNK_HEADER_SIZE} bytes.
+     */
+    public static void putCompressedChunkHeader(int streamId, int rawLength, int compressedLength, int checksum, ByteBuffer header) {
+        header.put((byte) FrameType.STREAM_COMPRESSED_CHUNK.getOpcode());
+        Varint.write(streamId, header);
+        Varint.write(rawLength, header);
+        Varint.write(compressedLength, header);
+        header.putInt(checksum);
+    }
+
+    /**
+     * Encodes the frame ending a stream before all of its bytes were sent.
+     *
+     * @param streamId - the id of the stream.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeStreamReset(int streamId) {
+        ByteBuffer frame = allocateFrame(FrameType.STREAM_RESET, Varint.sizeOf(streamId));
+        Varint.write(streamId, frame);
+        return frame.array();
+    }
+
+    /**
+     * Encodes the frame ending a stream after its last chunk.
+     *
+     * @param streamId - the id of the stream.
+     * @param digest - the SHA-256 of all bytes of the stream.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeStreamEnd(int streamId, byte[] digest) {
+        ByteBuffer frame = allocateFrame(FrameType.STREAM_END, Varint.sizeOf(streamId) + ChunkChecksums.DIGEST_LENGTH);
+        Varint.write(streamId, frame);
+        frame.put(digest, 0, ChunkChecksums.DIGEST_LENGTH);
+        return frame.array();
+    }
+
+    /**
+     * Encodes the receiver's verdict on a finished stream, or on a FILE_DELTA frame.
+     *
+     * @param transferId - the id of the transfer the stream belongs to.
+     * @param offset - the position in the file of the first byte of the stream, 0 for a FILE_DELTA frame.
+     * @param badRanges - the ranges to be sent (again) as {offset, length} pairs, empty if nothing is missing.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeFileRepair(String transferId, long offset, List<long[]> badRanges) {
+        byte[] transferIdBytes = utf8(transferId);
+        int size = sizeOf(transferIdBytes) + Varint.sizeOf(offset) + Varint.sizeOf(badRanges.size());
+        for (long[] range : badRanges) {
+            size += Varint.sizeOf(range[0]) + Varint.sizeOf(range[1]);
+        }
+        ByteBuffer frame = allocateFrame(FrameType.FILE_REPAIR, size);
+        putString(frame, transferIdBytes);
+        Varint.write(offset, frame);
+        Varint.write(badRanges.size(), frame);
+        for (long[] range : badRanges) {
+            Varint.write(range[0], frame);
+            Varint.write(range[1], frame);
+        }
+        return frame.array();
+    }
+
+    /**
+     * Encodes the signatures of the receiver's older version of an offered file.
+     *
+     * @param transferId - the id of the offered transfer.
+     * @param signatures - the signatures of the blocks of the older version.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeFileSignatures(String transferId, BlockSignatures signatures) {
+        byte[] transferIdBytes = utf8(transferId);
+        ByteBuffer frame = allocateFrame(FrameType.FILE_SIGNATURES, sizeOf(transferIdBytes) + Varint.sizeOf(signatures.blockSize)
+                + Varint.sizeOf(signatures.count) + signatures.count * (Integer.BYTES + BlockSignatures.STRONG_LENGTH));
+        putString(frame, transferIdBytes);
+        Varint.write(signatures.blockSize, frame);
+        Varint.write(signatures.count, frame);
+        for (int block = 0; block < signatures.count; block++) {
+            frame.putInt(signatures.weak[block]);
+            frame.put(signatures.strong, block * BlockSignatures.STRONG_LENGTH, BlockSignatures.STRONG_LENGTH);
+        }
+        return frame.array();
+    }
+
+    /**
+     * Encodes the copies rebuilding the new version of a file from the receiver's older version.
+     *
+     * @param transferId - the id of the transfer.
+     * @param copies - the copies as {target offset, basis offset, length}.
+     * @return - the encoded frame.
+     */
+    public static byte[] encodeFileDelta(String transferId, List<long[]> copies) {
+        byte[] transferIdBytes = utf8(transferId);
+        int size = sizeOf(transferIdBytes) + Varint.sizeOf(copies.size());
+        for (long[] copy : copies) {
+            size += Varint.sizeOf(copy[0]) + Varint.sizeOf(copy[1]) + Varint.sizeOf(copy[2]);
+        }
+        ByteBuffer frame = allocateFrame(FrameType.FILE_DELTA, size);
+        putString(frame, transferIdBytes);
+        Varint.write(copies.size(), frame);
+        for (long[] copy : copies) {
+            Varint.write(copy[0], frame);
+            Varint.write(copy[1], frame);
+            Varint.write(copy[2], frame);
+        }
+        return frame.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] string) {
+        return Varint.sizeOf(string.length) + string.length;
+    }
+
+    private static ByteBuffer allocateFrame(FrameType frameType, int fieldsSize) {
+        ByteBuffer frame = ByteBuffer.allocate(1 + fieldsSize);
+        frame.put((byte) frameType.getOpcode());
+        return frame;
+    }
+
+    private static void putString(ByteBuffer frame, byte[] string) {
+        Varint.write(string.length, frame);
+        frame.put(string);
+    }
+}
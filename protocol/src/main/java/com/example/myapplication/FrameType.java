@@ -0,0 +1,73 @@
+package com.example.myapplication;
+
+/**
+ * Registry of the frame types understood by the v2 wire format.
+ * Every v2 frame starts with the one-byte opcode of its type. Opcode 0x00 is reserved,
+ * because it is the first byte of every v1 frame (a 4-byte big-endian command name length).
+ */
+public enum FrameType {
+    MESSAGE(0x01, "Message"),
+    FILE(0x02, "File"),
+    FILE_OFFER(0x03, null),
+    FILE_ACCEPT(0x04, null),
+    FILE_DATA(0x05, null),
+    STREAM_OPEN(0x06, null),
+    STREAM_CHUNK(0x07, null),
+    STREAM_RESET(0x08, null),
+    STREAM_COMPRESSED_CHUNK(0x09, null),
+    STREAM_END(0x0A, null),
+    FILE_REPAIR(0x0B, null),
+    FILE_SIGNATURES(0x0C, null),
+    FILE_DELTA(0x0D, null);
+
+    private static final FrameType[] BY_OPCODE = new FrameType[256];
+
+    static {
+        for (FrameType type : values()) {
+            if (BY_OPCODE[type.opcode] != null) {
+                throw new IllegalStateException("Duplicate opcode " + type.opcode);
+            }
+            BY_OPCODE[type.opcode] = type;
+        }
+    }
+
+    private final int opcode;
+    private final String legacyName;
+
+    FrameType(int opcode, String legacyName) {
+        this.opcode = opcode;
+        this.legacyName = legacyName;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Looks up a frame type by its opcode.
+     *
+     * @param opcode - the unsigned opcode byte read from the wire.
+     * @return - the matching frame type, or null if the opcode is not registered.
+     */
+    public static FrameType fromOpcode(int opcode) {
+        if (opcode < 0 || opcode >= BY_OPCODE.length) {
+            return null;
+        }
+        return BY_OPCODE[opcode];
+    }
+
+    /**
+     * Looks up a frame type by the command name used by the v1 wire format.
+     *
+     * @param name - the v1 command name, e.g. "Message" or "File".
+     * @return - the matching frame type, or null if v1 had no such command.
+     */
+    public static FrameType fromLegacyName(String name) {
+        for (FrameType type : BY_OPCODE) {
+            if (type != null && type.legacyName != null && type.legacyName.equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
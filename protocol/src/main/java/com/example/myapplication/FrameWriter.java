@@ -0,0 +1,459 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single writer of a connection, which multiplexes chat and control frames with the bodies of file transfers.
+ * Complete frames are queued with {@link #send(byte[])}, file bodies are opened as logical streams with
+ * {@link #openStream} and are written as STREAM_CHUNK frames of at most {@link #CHUNK_SIZE} bytes.
+ * Between two chunks the writer always drains the queued frames first, so a message waits for at most one chunk
+ * instead of the whole file, and the open streams take turns chunk by chunk, which shares the bandwidth
+ * evenly between the active transfers. Cancelling the future of a stream ends it with a STREAM_RESET frame
+ * before its next chunk. A stream whose last chunk is written ends with a STREAM_END frame carrying the
+ * digest of its bytes.
+ * Frames and chunk headers are collected in an output buffer and written together, so a burst of messages
+ * costs one write instead of one per frame; the {@link FlushPolicy} decides how long the buffer may wait.
+ * Chunk bodies are written straight from their source after the buffer.
+ * Producers never block: frames and streams are handed over through lock-free queues, so sending a message
+ * from the main thread costs an enqueue, and only the writer thread touches the socket, so frames never
+ * interleave. The writer parks while there is nothing to write.
+ * Queued frames are only read, so one encoded frame can be queued on the writers of many connections,
+ * see {@link Room}; {@link #offer} refuses frames once too many bytes wait for a slow connection.
+ */
+public class FrameWriter implements Closeable {
+    /** The largest chunk of a stream, which bounds how long a queued frame waits behind file data. */
+    static final int CHUNK_SIZE = 64 * 1024;
+    /** The size of the buffer collecting frames, larger frames are written on their own. */
+    static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    private final WritableByteChannel channel;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<QueuedFrame> frames = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<OutboundStream> openedStreams = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextStreamId = new AtomicInteger(1);
+    private final AtomicInteger streamCount = new AtomicInteger();
+    /** The bytes of the frames in the queue. */
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final FlushPolicy flushPolicy;
+    private volatile boolean parked;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // Only used by the writer thread
+    /** The streams taking turns, in the order of their next chunk. */
+    private final ArrayDeque<OutboundStream> streams = new ArrayDeque<>();
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(FrameEncoder.MAX_STREAM_CHUNK_HEADER_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    /** When the oldest byte in the output buffer was queued. */
+    private long bufferedSince;
+    private OutboundStream writing;
+
+    /**
+     * A frame waiting for the writer.
+     */
+    private static final class QueuedFrame {
+        final ByteBuffer bytes;
+        final long queuedAt = System.nanoTime();
+
+        QueuedFrame(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A file body being sent on the connection.
+     */
+    private static final class OutboundStream {
+        final int streamId;
+        final byte[] openFrame;
+        final ChunkSource source;
+        final long length;
+        final ProgressListener progressListener;
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        final RollingCounter speed = RollingCounter.forProgress();
+        /** When the previous chunk was written, or the stream was opened. */
+        long lastChunkAt = System.nanoTime();
+        boolean opened;
+
+        OutboundStream(int streamId, byte[] openFrame, ChunkSource source, ProgressListener progressListener) {
+            this.streamId = streamId;
+            this.openFrame = openFrame;
+            this.source = source;
+            this.length = source.remaining();
+            this.progressListener = progressListener;
+        }
+    }
+
+    public FrameWriter(String name, WritableByteChannel channel) {
+        this(name, channel, FlushPolicy.IMMEDIATE);
+    }
+
+    public FrameWriter(String name, WritableByteChannel channel, FlushPolicy flushPolicy) {
+        this(name, channel, flushPolicy, Threads.DAEMON);
+    }
+
+    public FrameWriter(String name, WritableByteChannel channel, FlushPolicy flushPolicy, ThreadFactory threadFactory) {
+        this.channel = channel;
+        this.flushPolicy = flushPolicy;
+        this.thread = threadFactory.newThread(this::run);
+        this.thread.setName(name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues a complete frame. Frames are written in the order they are queued, ahead of any stream chunk.
+     *
+     * @param frame - the encoded frame.
+     * @throws IOException - if the writer is closed or the connection failed
+     */
+    public void send(byte[] frame) throws IOException {
+        checkOpen();
+        enqueue(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Queues a complete frame unless the frames already waiting for this writer reach the limit.
+     * The writer reads the remaining bytes of the buffer and never writes to it, so the buffer can be a view
+     * of bytes shared with other writers.
+     *
+     * @param frame - the encoded frame, which must not be changed until it is written.
+     * @param maxQueuedBytes - the most bytes of frames that may wait for the writer, including this frame.
+     * @return - true if the frame was queued, false if the connection is too far behind.
+     * @throws IOException - if the writer is closed or the connection failed
+     */
+    public boolean offer(ByteBuffer frame, long maxQueuedBytes) throws IOException {
+        checkOpen();
+        if (queuedBytes.get() + frame.remaining() > maxQueuedBytes) {
+            return false;
+        }
+        enqueue(frame);
+        return true;
+    }
+
+    private void enqueue(ByteBuffer frame) {
+        queuedBytes.addAndGet(frame.remaining());
+        frames.add(new QueuedFrame(frame));
+        wakeUp();
+    }
+
+    /**
+     * Opens a logical stream for a range of an accepted transfer. The source is closed once the stream ends.
+     *
+     * @param transferId - the id of the accepted transfer.
+     * @param offset - the position in the file of the first byte of the source.
+     * @param source - the bytes of the range.
+     * @param progressListener - notified on the writer thread after every chunk, with the bytes of this stream.
+     * @return - a future completed when the STREAM_END frame is written, or completed exceptionally if the stream failed.
+     *           Cancelling the future cancels the stream.
+     * @throws IOException - if the writer is closed or the connection failed
+     */
+    public CompletableFuture<Void> openStream(String transferId, long offset, ChunkSource source, ProgressListener progressListener) throws IOException {
+        checkOpen();
+        int streamId = nextStreamId.getAndIncrement();
+        byte[] openFrame = FrameEncoder.encodeStreamOpen(streamId, transferId, offset, source.remaining());
+        OutboundStream stream = new OutboundStream(streamId, openFrame, source, progressListener);
+        streamCount.incrementAndGet();
+        openedStreams.add(stream);
+        if (closed) {
+            // The writer may have failed the streams already, this one must not wait forever
+            failOpenedStreams(closeCause());
+        }
+        wakeUp();
+        return stream.completion;
+    }
+
+    private void wakeUp() {
+        // The writer sets the flag before it looks at the queues a last time, so one of both sides sees the other
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("Connection failed", failure);
+        }
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                QueuedFrame frame = frames.poll();
+                if (frame != null) {
+                    queuedBytes.addAndGet(-frame.bytes.remaining());
+                    buffer(frame.bytes, frame.queuedAt);
+                    if (output.position() >= flushPolicy.maxBytes) {
+                        flush();
+                    }
+                    continue;
+                }
+
+                OutboundStream stream;
+                while ((stream = openedStreams.poll()) != null) {
+                    streams.add(stream);
+                }
+                stream = streams.poll();
+                if (stream != null) {
+                    writing = stream;
+                    boolean more = writeChunk(stream);
+                    writing = null;
+                    if (more) {
+                        streams.add(stream);
+                    }
+                    continue;
+                }
+
+                if (output.position() == 0) {
+                    park(0);
+                    continue;
+                }
+                long delay = bufferedSince + flushPolicy.maxDelayNanos - System.nanoTime();
+                if (delay > 0) {
+                    park(delay);
+                } else {
+                    flush();
+                }
+            }
+            // The frames already taken from the queue still go out
+            flush();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            failStreams();
+        }
+    }
+
+    /**
+     * Waits until something is queued, the writer is closed or the delay passed.
+     * Object.wait only sleeps whole milliseconds, the delays of a policy are often shorter.
+     *
+     * @param nanos - the longest time to wait, 0 waits without limit.
+     */
+    private void park(long nanos) {
+        parked = true;
+        if (frames.isEmpty() && openedStreams.isEmpty() && !closed) {
+            if (nanos > 0) {
+                LockSupport.parkNanos(this, nanos);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        parked = false;
+    }
+
+    /**
+     * Writes the next chunk of a stream, opening the stream first if needed.
+     *
+     * @param stream - the stream whose turn it is.
+     * @return - true if the stream has more chunks to send.
+     * @throws IOException - if the connection cannot be written, the stream itself is failed on source errors
+     */
+    private boolean writeChunk(OutboundStream stream) throws IOException {
+        if (!stream.opened) {
+            buffer(ByteBuffer.wrap(stream.openFrame), System.nanoTime());
+            stream.opened = true;
+        }
+        if (stream.completion.isCancelled()) {
+            reset(stream, null);
+            return false;
+        }
+        if (stream.source.remaining() == 0) {
+            end(stream);
+            return false;
+        }
+
+        int length;
+        try {
+            length = stream.source.prepareChunk(CHUNK_SIZE);
+        } catch (IOException e) {
+            // Nothing of this chunk is written yet, the receiver keeps what was committed so far
+            reset(stream, e);
+            return false;
+        }
+        chunkHeader.clear();
+        try {
+            stream.source.putChunkHeader(stream.streamId, length, chunkHeader);
+        } catch (IOException e) {
+            reset(stream, e);
+            return false;
+        }
+        chunkHeader.flip();
+        // The header goes out with the frames before it, the body follows straight from the source
+        long writeStart = System.nanoTime();
+        buffer(chunkHeader, writeStart);
+        flush();
+        stream.source.writeChunk(channel);
+        long now = System.nanoTime();
+        TransferMetrics.DEFAULT.sent.chunk(length, now - writeStart, now - stream.lastChunkAt);
+        stream.lastChunkAt = now;
+        stream.speed.add(length);
+
+        long bytesTransferred = stream.length - stream.source.remaining();
+        if (stream.progressListener != null) {
+            stream.progressListener.onProgressUpdate(bytesTransferred, stream.length, stream.speed.megabytesPerSecond());
+        }
+
+        if (stream.source.remaining() == 0) {
+            end(stream);
+            return false;
+        }
+        return true;
+    }
+
+    private void end(OutboundStream stream) throws IOException {
+        byte[] digest;
+        try {
+            digest = stream.source.digest();
+        } catch (IOException e) {
+            reset(stream, e);
+            return;
+        }
+        buffer(ByteBuffer.wrap(FrameEncoder.encodeStreamEnd(stream.streamId, digest)), System.nanoTime());
+        finish(stream, null);
+    }
+
+    private void reset(OutboundStream stream, IOException cause) throws IOException {
+        finish(stream, cause);
+        buffer(ByteBuffer.wrap(FrameEncoder.encodeStreamReset(stream.streamId)), System.nanoTime());
+    }
+
+    /**
+     * Adds bytes to the output buffer, writing the buffer first if they do not fit.
+     * Bytes larger than the whole buffer are written together with it in one gathering write.
+     *
+     * @param bytes - the bytes to write.
+     * @param queuedAt - when the bytes were queued, in {@link System#nanoTime()}.
+     * @throws IOException - if the buffer cannot be written
+     */
+    private void buffer(ByteBuffer bytes, long queuedAt) throws IOException {
+        if (bytes.remaining() > output.remaining()) {
+            if (bytes.remaining() > output.capacity()) {
+                output.flip();
+                writeFully(output, bytes);
+                output.clear();
+                return;
+            }
+            flush();
+        }
+        if (output.position() == 0) {
+            bufferedSince = queuedAt;
+        }
+        output.put(bytes);
+    }
+
+    private void flush() throws IOException {
+        if (output.position() > 0) {
+            output.flip();
+            writeFully(output);
+            output.clear();
+        }
+    }
+
+    /**
+     * Writes buffers one after the other, with a single gathering write where the channel supports it.
+     */
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        if (buffers.length > 1 && channel instanceof GatheringByteChannel) {
+            while (last.hasRemaining()) {
+                ((GatheringByteChannel) channel).write(buffers);
+            }
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private void finish(OutboundStream stream, IOException cause) {
+        streamCount.decrementAndGet();
+        try {
+            stream.source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (cause == null) {
+            stream.completion.complete(null);
+        } else {
+            stream.completion.completeExceptionally(cause);
+        }
+    }
+
+    private IOException closeCause() {
+        IOException failure = this.failure;
+        return failure != null ? failure : new IOException("Writer is closed");
+    }
+
+    private void failStreams() {
+        closed = true;
+        IOException cause = closeCause();
+        frames.clear();
+        queuedBytes.set(0);
+        if (writing != null) {
+            finish(writing, cause);
+            writing = null;
+        }
+        OutboundStream stream;
+        while ((stream = streams.poll()) != null) {
+            finish(stream, cause);
+        }
+        failOpenedStreams(cause);
+    }
+
+    private void failOpenedStreams(IOException cause) {
+        OutboundStream stream;
+        while ((stream = openedStreams.poll()) != null) {
+            finish(stream, cause);
+        }
+    }
+
+    /**
+     * @return - the bytes of the frames waiting for the writer.
+     */
+    public long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return - the number of streams still being sent.
+     */
+    public int openStreams() {
+        return streamCount.get();
+    }
+
+    /**
+     * Stops the writer after the chunk or frame being written. Queued frames and streams are dropped,
+     * the streams complete exceptionally. The channel is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A logical stream received on the chat connection, writing the chunks of one range of a transfer
+ * into its partial file. The journal is advanced every {@link #COMMIT_INTERVAL} bytes, once the bytes
+ * are on disk and verified, so an interrupted transfer resumes from the last commit.
+ * Compressed chunks are decompressed and written on the {@link BlockCompression#POOL} while the reader
+ * goes on with the next frames; a commit first waits for the blocks before it.
+ * Every chunk is checked against its CRC-32C and added to the digest of the stream on a
+ * {@link ChunkChecksums#PIPELINE} thread, behind the writes, so the reader never waits for the hashing.
+ * Chunks failing their checksum are reported by {@link #finish} and are not committed, so the sender
+ * can send them again.
+ */
+public class InboundStream implements Closeable {
+    /** The number of bytes received between two journal commits. */
+    static final long COMMIT_INTERVAL = 8 * 1024 * 1024;
+    /** The number of compressed blocks decompressed at the same time, which bounds their memory. */
+    static final int MAX_BLOCKS_IN_FLIGHT = 2 * BlockCompression.POOL.getParallelism();
+
+    private final TransferJournal journal;
+    private final TransferJournal.Entry entry;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final long start;
+    private final long end;
+    /** Whether the stream continues the committed prefix of the file, only then it may advance the journal. */
+    private final boolean extendsCommitted;
+    private long position;
+    private long committed;
+    /** When the previous chunk was read, or the stream was opened. */
+    private long lastChunkAt = System.nanoTime();
+    private final ArrayDeque<CompletableFuture<Boolean>> blocksInFlight = new ArrayDeque<>();
+
+    // Only used by the verification steps, which run one after the other in the order of the chunks
+    private final MessageDigest digest = ChunkChecksums.newDigest();
+    private final Crc32c crc = new Crc32c();
+    private final List<long[]> badRanges = new ArrayList<>();
+    private byte[] verifyBuffer;
+    private CompletableFuture<Void> verified = CompletableFuture.completedFuture(null);
+    private volatile long firstBad = Long.MAX_VALUE;
+
+    /**
+     * Opens the partial file of a transfer for the range announced by a STREAM_OPEN frame.
+     *
+     * @param journal - the journal the received bytes are committed to.
+     * @param entry - the journal entry of the transfer.
+     * @param offset - the position in the file of the first byte of the stream.
+     * @param length - the number of bytes of the stream.
+     * @throws IOException - if the range does not fit into the file or the file cannot be opened
+     */
+    public InboundStream(TransferJournal journal, TransferJournal.Entry entry, long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > entry.size) {
+            throw new ProtocolException("Range " + offset + "+" + length + " outside of " + entry.size + " bytes");
+        }
+        this.journal = journal;
+        this.entry = entry;
+        this.start = offset;
+        this.position = offset;
+        this.committed = offset;
+        this.end = offset + length;
+        this.extendsCommitted = offset <= entry.committed;
+        this.randomAccessFile = new RandomAccessFile(entry.path, "rw");
+        this.fileChannel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Writes the next chunk of the stream into the file and queues its verification.
+     *
+     * @param decoder - the decoder positioned at the chunk bytes.
+     * @param length - the number of bytes of the chunk.
+     * @param checksum - the CRC-32C the sender computed for the chunk.
+     * @throws IOException - if the chunk overruns the stream or cannot be written
+     */
+    public void receiveChunk(FrameDecoder decoder, int length, int checksum) throws IOException {
+        checkLength(length);
+        long chunkPosition = position;
+        long readStart = System.nanoTime();
+        decoder.transferTo(fileChannel, chunkPosition, length);
+        recordChunk(length, readStart);
+        // The chunk went straight from the socket into the file, it is read back from the page cache to be verified
+        verified = verified.thenRunAsync(() -> verifyWrittenChunk(chunkPosition, length, checksum), ChunkChecksums.PIPELINE);
+        advance(length);
+    }
+
+    /**
+     * Reads a compressed chunk and hands it to the pool, which decompresses it, writes it into the file
+     * and checks it against its CRC-32C.
+     *
+     * @param decoder - the decoder positioned at the compressed bytes.
+     * @param rawLength - the number of bytes of the chunk once decompressed.
+     * @param compressedLength - the number of compressed bytes.
+     * @param checksum - the CRC-32C the sender computed for the decompressed bytes.
+     * @throws IOException - if the chunk overruns the stream, or an earlier block could not be written
+     */
+    public void receiveCompressedChunk(FrameDecoder decoder, int rawLength, int compressedLength, int checksum) throws IOException {
+        checkLength(rawLength);
+        byte[] compressed = new byte[compressedLength];
+        long readStart = System.nanoTime();
+        decoder.readFully(compressed, 0, compressedLength);
+        recordChunk(rawLength, readStart);
+        while (blocksInFlight.size() >= MAX_BLOCKS_IN_FLIGHT) {
+            await(blocksInFlight.poll());
+        }
+
+        long blockPosition = position;
+        byte[] raw = new byte[rawLength];
+        CompletableFuture<Boolean> block = CompletableFuture.supplyAsync(() -> {
+            try {
+                BlockCompression.decompress(compressed, compressedLength, raw, rawLength);
+            } catch (IOException e) {
+                // A corrupted block is sent again like any chunk failing its checksum
+                return false;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(raw);
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer, blockPosition + buffer.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return ChunkChecksums.crc32c(raw, 0, rawLength) == checksum;
+        }, BlockCompression.POOL);
+        blocksInFlight.add(block);
+        verified = verified.thenCombineAsync(block, (ignored, intact) -> {
+            if (!intact) {
+                markBad(blockPosition, rawLength);
+            }
+            digest.update(raw, 0, rawLength);
+            return null;
+        }, ChunkChecksums.PIPELINE);
+        advance(rawLength);
+    }
+
+    private void recordChunk(int length, long readStart) {
+        long now = System.nanoTime();
+        TransferMetrics.DEFAULT.received.chunk(length, now - readStart, now - lastChunkAt);
+        lastChunkAt = now;
+    }
+
+    private void checkLength(int length) throws ProtocolException {
+        if (length > end - position) {
+            throw new ProtocolException("Chunk of " + length + " bytes overruns the stream by " + (length - (end - position)));
+        }
+    }
+
+    private void advance(int length) throws IOException {
+        position += length;
+        if (position - committed >= COMMIT_INTERVAL) {
+            commit();
+        }
+    }
+
+    private void verifyWrittenChunk(long chunkPosition, int length, int checksum) {
+        if (verifyBuffer == null) {
+            verifyBuffer = new byte[FrameWriter.CHUNK_SIZE];
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(verifyBuffer, 0, length);
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, chunkPosition + buffer.position()) == -1) {
+                    throw new EOFException("Chunk at " + chunkPosition + " is missing from the file");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        crc.reset();
+        crc.update(verifyBuffer, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            markBad(chunkPosition, length);
+        }
+        digest.update(verifyBuffer, 0, length);
+    }
+
+    private void markBad(long chunkPosition, long length) {
+        long[] last = badRanges.isEmpty() ? null : badRanges.get(badRanges.size() - 1);
+        if (last != null && last[0] + last[1] == chunkPosition) {
+            last[1] += length;
+        } else {
+            badRanges.add(new long[]{chunkPosition, length});
+        }
+        if (firstBad == Long.MAX_VALUE) {
+            firstBad = chunkPosition;
+        }
+    }
+
+    private static void await(CompletableFuture<?> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void awaitBlocks() throws IOException {
+        while (!blocksInFlight.isEmpty()) {
+            await(blocksInFlight.poll());
+        }
+        await(verified);
+    }
+
+    /**
+     * Commits the verified bytes of the stream. Nothing after the first chunk failing its checksum is committed.
+     */
+    private void commit() throws IOException {
+        awaitBlocks();
+        fileChannel.force(false);
+        long verifiedPosition = Math.min(position, firstBad);
+        if (extendsCommitted && verifiedPosition > committed) {
+            journal.commit(entry.transferId, verifiedPosition);
+        }
+        committed = position;
+    }
+
+    /**
+     * Ends the stream when its STREAM_END frame arrives, after its last chunk.
+     *
+     * @param expectedDigest - the SHA-256 the sender computed over the stream.
+     * @return - the ranges to be sent again as {offset, length} pairs, empty if the stream arrived intact.
+     *           The whole stream is sent again if its digest does not match although every chunk passed its CRC.
+     * @throws IOException - if chunks of the stream are missing or the file cannot be written
+     */
+    public List<long[]> finish(byte[] expectedDigest) throws IOException {
+        if (position != end) {
+            throw new ProtocolException("Stream ended " + (end - position) + " bytes early");
+        }
+        awaitBlocks();
+        if (!MessageDigest.isEqual(expectedDigest, digest.digest()) && badRanges.isEmpty() && end > start) {
+            markBad(start, end - start);
+        }
+        commit();
+        return Collections.unmodifiableList(badRanges);
+    }
+
+    /**
+     * @return - the position in the file of the first byte of the stream.
+     */
+    public long getOffset() {
+        return start;
+    }
+
+    /**
+     * @return - the position in the file after the last byte of the stream.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return - true if the stream is the last range of the file, so the file is complete with it.
+     */
+    public boolean endsFile() {
+        return end == entry.size;
+    }
+
+    public TransferJournal.Entry getEntry() {
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitBlocks();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * Decodes frames in the v1 wire format, so that peers running older versions of the app can still be read.
+ * In v1 every field is prefixed by a 4-byte big-endian length, file sizes are 8-byte big-endian longs
+ * and the command is identified by its name, e.g. "Message" or "File".
+ */
+final class LegacyFrameDecoder {
+    private static final int MAX_COMMAND_NAME_LENGTH = 64;
+
+    private LegacyFrameDecoder() {
+    }
+
+    /**
+     * Reads the command name of a v1 frame whose first byte has already been consumed.
+     *
+     * @param decoder - the decoder positioned right after the leading zero byte.
+     * @return - the frame type matching the command name.
+     * @throws IOException - if the command is unknown or an I/O error occurs.
+     */
+    static FrameType readFrameType(FrameDecoder decoder) throws IOException {
+        int nameLength = decoder.readUnsignedByte() << 16 | decoder.readUnsignedByte() << 8 | decoder.readUnsignedByte();
+        if (nameLength <= 0 || nameLength > MAX_COMMAND_NAME_LENGTH) {
+            throw new ProtocolException("Invalid v1 command length: " + nameLength);
+        }
+
+        String commandName = decoder.readString(nameLength);
+
+        FrameType type = FrameType.fromLegacyName(commandName);
+        if (type == null) {
+            throw new ProtocolException("Unknown v1 command: " + commandName);
+        }
+        return type;
+    }
+
+    /**
+     * Reads a 4-byte big-endian int field.
+     *
+     * @param decoder - the decoder to read from.
+     * @return - the deserialized int value.
+     * @throws IOException - if an I/O error occurs.
+     */
+    static int readInt(FrameDecoder decoder) throws IOException {
+        return decoder.readInt();
+    }
+
+    /**
+     * Reads an 8-byte big-endian long field.
+     *
+     * @param decoder - the decoder to read from.
+     * @return - the deserialized long value.
+     * @throws IOException - if an I/O error occurs.
+     */
+    static long readLong(FrameDecoder decoder) throws IOException {
+        return decoder.readLong();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.myapplication;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces the progress of many transfers into at most one dispatch per frame, or per interval, on the UI thread.
+ * A transfer reports every chunk to its {@link Slot}, which only keeps the latest values and asks for a dispatch
+ * if none is scheduled yet; the dispatch then hands the latest values of every transfer that made progress to
+ * its listener. So the main thread does the same work whatever the chunk size or the speed of the link, and
+ * a chunk costs three stores and a compare-and-set: nothing is allocated per update.
+ */
+public class ProgressDispatcher {
+    /**
+     * Runs {@link #dispatch()} on the UI thread, e.g. with a frame callback of the platform.
+     */
+    public interface Scheduler {
+        /**
+         * @param delayNanos - the time to wait at least before the dispatch, 0 for the next frame.
+         */
+        void schedule(long delayNanos);
+    }
+
+    private final Scheduler scheduler;
+    private final long minIntervalNanos;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /** Replaced on every change, so the dispatch iterates without a lock and without an iterator. */
+    private volatile Slot[] slots = new Slot[0];
+    /** Written by the UI thread, read by the transfers to delay the next dispatch. */
+    private volatile long lastDispatch;
+
+    /**
+     * The latest progress of one transfer, which forwards it to the listener of the transfer on dispatch.
+     */
+    public final class Slot implements ProgressListener {
+        private final ProgressListener target;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private volatile long bytesTransferred;
+        private volatile long totalBytes;
+        private volatile double speed;
+
+        private Slot(ProgressListener target) {
+            this.target = target;
+        }
+
+        /**
+         * Keeps the values for the next dispatch, on the thread of the transfer.
+         */
+        @Override
+        public void onProgressUpdate(long bytesTransferred, long totalBytes, double speed) {
+            this.bytesTransferred = bytesTransferred;
+            this.totalBytes = totalBytes;
+            this.speed = speed;
+            dirty.set(true);
+            requestDispatch();
+        }
+
+        private void dispatch() {
+            if (dirty.getAndSet(false)) {
+                target.onProgressUpdate(bytesTransferred, totalBytes, speed);
+            }
+        }
+    }
+
+    /**
+     * @param scheduler - runs the dispatches on the UI thread.
+     * @param minInterval - the shortest time between two dispatches, 0 to dispatch on every frame with progress.
+     * @param unit - the unit of the interval.
+     */
+    public ProgressDispatcher(Scheduler scheduler, long minInterval, TimeUnit unit) {
+        this.scheduler = scheduler;
+        this.minIntervalNanos = unit.toNanos(minInterval);
+        // System.nanoTime may be negative, the first dispatch must not wait
+        this.lastDispatch = System.nanoTime() - minIntervalNanos;
+    }
+
+    /**
+     * Starts coalescing the progress of a transfer.
+     *
+     * @param target - receives the progress of the transfer on the UI thread.
+     * @return - the listener to report the progress of the transfer to, from any thread.
+     */
+    public synchronized Slot register(ProgressListener target) {
+        Slot slot = new Slot(target);
+        Slot[] grown = Arrays.copyOf(slots, slots.length + 1);
+        grown[slots.length] = slot;
+        slots = grown;
+        return slot;
+    }
+
+    /**
+     * Stops coalescing the progress of a transfer after handing over its last values, on the UI thread.
+     *
+     * @param target - the listener the transfer was registered with.
+     */
+    public void unregister(ProgressListener target) {
+        Slot removed = null;
+        synchronized (this) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i].target == target) {
+                    removed = slots[i];
+                    Slot[] shrunk = new Slot[slots.length - 1];
+                    System.arraycopy(slots, 0, shrunk, 0, i);
+                    System.arraycopy(slots, i + 1, shrunk, i, slots.length - i - 1);
+                    slots = shrunk;
+                    break;
+                }
+            }
+        }
+        if (removed != null) {
+            removed.dispatch();
+        }
+    }
+
+    /**
+     * @return - the number of transfers being tracked.
+     */
+    public int size() {
+        return slots.length;
+    }
+
+    private void requestDispatch() {
+        if (scheduled.compareAndSet(false, true)) {
+            long sinceLast = System.nanoTime() - lastDispatch;
+            scheduler.schedule(Math.max(0, minIntervalNanos - sinceLast));
+        }
+    }
+
+    /**
+     * Hands the latest progress of every transfer that changed since the previous dispatch to its listener.
+     * Called by the {@link Scheduler} on the UI thread.
+     */
+    public void dispatch() {
+        lastDispatch = System.nanoTime();
+        // Cleared first: progress reported from now on schedules the next dispatch, progress before is seen now
+        scheduled.set(false);
+        for (Slot slot : slots) {
+            slot.dispatch();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Receives the ranges of a {@link RangeTransfer} on a dedicated listening socket and writes every range
+ * at its own position of the preallocated file with positional writes.
+ * The committed offset reported to the listener is the write position of the first incomplete range;
+ * since the ranges are contiguous and ordered, every byte below it has been written.
+ */
+public class RangeReceiver implements Closeable {
+    private static final int ACCEPT_TIMEOUT_MILLIS = 60_000;
+
+    private final String transferId;
+    private final long[] bounds;
+    private final long[] positions;
+    private final Listener listener;
+    private final ServerSocketChannel serverSocket;
+    private final RandomAccessFile file;
+    private int completedRanges;
+    private boolean failed;
+
+    /**
+     * Receives the events of a range transfer. All methods are called from the receiving threads.
+     */
+    public interface Listener {
+        /**
+         * Called after a chunk of any range has been written.
+         *
+         * @param committedOffset - the length of the prefix of the file that is completely written.
+         * @param fileChannel - the channel of the file, e.g. to force the bytes to disk.
+         * @throws IOException - if the offset cannot be recorded.
+         */
+        void onCommitted(long committedOffset, FileChannel fileChannel) throws IOException;
+
+        /**
+         * Called once when all ranges have been written.
+         */
+        void onComplete();
+
+        /**
+         * Called once when the transfer failed. The ranges written so far stay committed.
+         *
+         * @param cause - the error.
+         */
+        void onFailed(IOException cause);
+    }
+
+    /**
+     * Starts listening for the range connections of a transfer.
+     *
+     * @param transferId - the id of the accepted transfer.
+     * @param file - the preallocated destination file.
+     * @param offset - the committed offset the sender continues from.
+     * @param fileSize - the size of the file in bytes.
+     * @param streams - the number of ranges offered by the sender.
+     * @param listener - the listener notified about progress and completion.
+     * @throws IOException - if the listening socket or the file cannot be opened.
+     */
+    public RangeReceiver(String transferId, File file, long offset, long fileSize, int streams, Listener listener)
+            throws IOException {
+        this.transferId = transferId;
+        this.bounds = RangeTransfer.split(offset, fileSize - offset, streams);
+        this.positions = new long[streams];
+        System.arraycopy(bounds, 0, positions, 0, streams);
+        this.listener = listener;
+        this.file = new RandomAccessFile(file, "rw");
+        this.serverSocket = ServerSocketChannel.open();
+        this.serverSocket.bind(new InetSocketAddress(0));
+        this.serverSocket.socket().setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+
+        Thread acceptThread = new Thread(this::acceptRanges, "ranges-" + transferId);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Returns the port the range connections have to connect to.
+     */
+    public int getPort() {
+        return serverSocket.socket().getLocalPort();
+    }
+
+    private void acceptRanges() {
+        try {
+            for (int i = 0; i < positions.length; i++) {
+                // The socket adaptor honours SO_TIMEOUT, unlike ServerSocketChannel.accept()
+                Socket socket = serverSocket.socket().accept();
+                SocketChannel channel = socket.getChannel();
+                Thread rangeThread = new Thread(() -> receiveRange(channel), "range-" + transferId + "-" + i);
+                rangeThread.setDaemon(true);
+                rangeThread.start();
+            }
+        } catch (SocketTimeoutException e) {
+            fail(new IOException("Sender did not open all ranges of transfer " + transferId, e));
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            closeQuietly(serverSocket);
+        }
+    }
+
+    private void receiveRange(SocketChannel channel) {
+        try {
+            FrameDecoder decoder = new FrameDecoder(channel);
+            if (decoder.readFrameType() != FrameType.FILE_DATA || !transferId.equals(decoder.readString())) {
+                throw new ProtocolException("Unexpected frame on range connection of " + transferId);
+            }
+            long start = decoder.readFileLength();
+            long length = decoder.readFileLength();
+            int range = findRange(start, length);
+
+            FileChannel fileChannel = file.getChannel();
+            FileChannelTransfer.receive(decoder, fileChannel, start, length,
+                    (bytesTransferred, totalBytes, speed) -> advance(range, start + bytesTransferred, fileChannel));
+            rangeCompleted();
+        } catch (IOException e) {
+            fail(e);
+        } catch (UncheckedIOException e) {
+            fail(e.getCause());
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private int findRange(long start, long length) throws ProtocolException {
+        for (int i = 0; i < positions.length; i++) {
+            if (bounds[i] == start && bounds[i + 1] == start + length) {
+                return i;
+            }
+        }
+        throw new ProtocolException("Unexpected range " + start + "+" + length + " of " + transferId);
+    }
+
+    private void advance(int range, long position, FileChannel fileChannel) {
+        long committedOffset;
+        synchronized (this) {
+            positions[range] = position;
+            int firstIncomplete = 0;
+            while (firstIncomplete < positions.length && positions[firstIncomplete] == bounds[firstIncomplete + 1]) {
+                firstIncomplete++;
+            }
+            committedOffset = firstIncomplete < positions.length ? positions[firstIncomplete] : bounds[positions.length];
+        }
+        try {
+            listener.onCommitted(committedOffset, fileChannel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void rangeCompleted() {
+        synchronized (this) {
+            if (++completedRanges < positions.length || failed) {
+                return;
+            }
+        }
+        closeQuietly(file);
+        listener.onComplete();
+    }
+
+    private void fail(IOException cause) {
+        synchronized (this) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+        }
+        close();
+        listener.onFailed(cause);
+    }
+
+    /**
+     * Stops listening and closes the file. Ranges still being received fail.
+     */
+    @Override
+    public void close() {
+        closeQuietly(serverSocket);
+        closeQuietly(file);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
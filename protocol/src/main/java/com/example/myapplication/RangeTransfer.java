@@ -0,0 +1,134 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Sends a file as byte ranges over several parallel connections, so that a single TCP stream
+ * is not the limit on links with high latency or packet loss.
+ * The range [offset, fileSize) is split into equal contiguous ranges with {@link #split}, which the
+ * receiver computes the same way. Every range is sent on its own connection as one FILE_DATA frame.
+ */
+public final class RangeTransfer {
+    /** Ranges smaller than this are not worth the extra connection setup. */
+    static final long MIN_RANGE_SIZE = 32 * 1024 * 1024; // 32MB
+    /** Stream count that lets {@link #chooseStreamCount} pick the number of streams from the file size. */
+    public static final int AUTO_STREAMS = 0;
+    public static final int MAX_STREAMS = 8;
+
+    private RangeTransfer() {
+    }
+
+    /**
+     * Chooses the number of parallel streams for a file.
+     *
+     * @param length - the number of bytes to transfer.
+     * @param requestedStreams - the configured number of streams, or {@link #AUTO_STREAMS}.
+     * @return - the number of streams, 1 if the file should be sent on the main connection.
+     */
+    public static int chooseStreamCount(long length, int requestedStreams) {
+        long byRangeSize = Math.max(1, length / MIN_RANGE_SIZE);
+        int limit = requestedStreams == AUTO_STREAMS ? MAX_STREAMS : Math.min(requestedStreams, MAX_STREAMS);
+        return (int) Math.max(1, Math.min(limit, byRangeSize));
+    }
+
+    /**
+     * Splits [offset, offset + length) into contiguous ranges of nearly equal size.
+     *
+     * @param offset - the position of the first byte.
+     * @param length - the number of bytes.
+     * @param streams - the number of ranges.
+     * @return - the start positions of the ranges, followed by the end of the last range.
+     */
+    public static long[] split(long offset, long length, int streams) {
+        long[] bounds = new long[streams + 1];
+        for (int i = 0; i <= streams; i++) {
+            bounds[i] = offset + length * i / streams;
+        }
+        return bounds;
+    }
+
+    /**
+     * Sends [offset, offset + length) of the file to a {@link RangeReceiver}.
+     *
+     * @param file - the channel of the file to be sent.
+     * @param transferId - the id of the accepted transfer.
+     * @param offset - the position of the first byte to send.
+     * @param length - the number of bytes to send.
+     * @param receiver - the address the receiver listens on for range connections.
+     * @param streams - the number of parallel connections, as offered to the receiver.
+     * @param progressListener - the listener notified with the bytes sent over all connections, may be null.
+     *                         It is called from the sending threads of all ranges.
+     * @throws IOException - if any range fails.
+     */
+    public static void send(FileChannel file, String transferId, long offset, long length, InetSocketAddress receiver,
+                            int streams, ProgressListener progressListener) throws IOException {
+        long[] bounds = split(offset, length, streams);
+        AtomicLong bytesTransferred = new AtomicLong();
+        // Counts the bytes of all ranges, so the speed is the one of the whole transfer
+        RollingCounter speed = RollingCounter.forProgress();
+
+        LongConsumer reportProgress = sent -> {
+            speed.add(sent);
+            long total = bytesTransferred.addAndGet(sent);
+            if (progressListener != null) {
+                progressListener.onProgressUpdate(total, length, speed.megabytesPerSecond());
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(streams);
+        try {
+            List<Future<Void>> ranges = new ArrayList<>(streams);
+            for (int i = 0; i < streams; i++) {
+                long start = bounds[i];
+                long count = bounds[i + 1] - start;
+                ranges.add(executor.submit(() -> {
+                    sendRange(file, transferId, start, count, receiver, reportProgress);
+                    return null;
+                }));
+            }
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending transfer " + transferId);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void sendRange(FileChannel file, String transferId, long start, long count, InetSocketAddress receiver,
+                                  LongConsumer reportProgress) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(receiver)) {
+            ByteBuffer header = ByteBuffer.wrap(FrameEncoder.encodeFileDataHeader(transferId, start, count));
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            // The listener gets the cumulative bytes of this range, so only the delta is added to the total
+            long[] reported = {0};
+            FileChannelTransfer.send(file, start, count, channel, (rangeBytes, rangeTotal, speed) -> {
+                reportProgress.accept(rangeBytes - reported[0]);
+                reported[0] = rangeBytes;
+            });
+            // Wait for the receiver to close the range, so the bytes are known to have arrived
+            channel.shutdownOutput();
+            channel.read(ByteBuffer.allocate(1));
+        }
+    }
+}
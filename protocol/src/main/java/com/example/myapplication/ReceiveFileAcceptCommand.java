@@ -0,0 +1,27 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+
+/**
+ * The ReceiveFileAcceptCommand class hands the receiver's answer to a file offer
+ * to the {@link FileSender} waiting for it.
+ */
+public class ReceiveFileAcceptCommand implements Command {
+    private final Session session;
+
+    public ReceiveFileAcceptCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        String transferId = decoder.readString();
+        long committedOffset = decoder.readFileLength();
+        int rangePort = (int) decoder.readVarint();
+
+        if (!session.transferHandshake.complete(transferId, new TransferHandshake.Accept(committedOffset, rangePort))) {
+            System.out.println("Nobody is waiting for transfer " + transferId);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * The ReceiveFileDataCommand class writes the body of an accepted resumable transfer into its partial file.
+ * The bytes are written at the offset announced by the sender, and the journal is advanced after every
+ * chunk once the chunk is on disk, so an interrupted transfer can resume from the last committed chunk.
+ * Current senders use logical streams instead, see {@link ReceiveStreamOpenCommand}; a whole FILE_DATA frame
+ * is still accepted on the chat connection from peers that send the body in one piece.
+ */
+public class ReceiveFileDataCommand implements Command {
+    private final Session session;
+
+    public ReceiveFileDataCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        String transferId = decoder.readString();
+        long offset = decoder.readFileLength();
+        long length = decoder.readFileLength();
+
+        TransferJournal transferJournal = session.store.getTransferJournal();
+        TransferJournal.Entry entry = transferJournal.find(transferId);
+        if (entry == null || offset + length > entry.size) {
+            System.out.println("Discarding data of unknown transfer " + transferId);
+            decoder.skip(length);
+            return;
+        }
+
+        writeFileContent(entry, offset, length);
+
+        if (offset + length == entry.size) {
+            transferJournal.remove(transferId);
+            TransferMetrics.DEFAULT.received.transfer(entry.size);
+            session.store.onFileReceived(session, transferId, new File(entry.path));
+        }
+    }
+
+    /**
+     * Writes the received bytes into the partial file and commits them chunk by chunk.
+     *
+     * @param entry - the journal entry of the transfer
+     * @param offset - the position in the file of the first received byte
+     * @param length - the number of bytes to receive
+     * @throws IOException - if an error occurs while receiving or writing the file
+     */
+    private void writeFileContent(TransferJournal.Entry entry, long offset, long length) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(entry.path, "rw");
+             FileChannel fileChannel = randomAccessFile.getChannel()) {
+            FileChannelTransfer.receive(session.decoder, fileChannel, offset, length, (bytesTransferred, totalBytes, speed) -> {
+                try {
+                    fileChannel.force(false);
+                    session.store.getTransferJournal().commit(entry.transferId, offset + bytesTransferred);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The ReceiveFileDeltaCommand class rebuilds a file from the receiver's older version of it. The frame lists
+ * the blocks of the older version to copy into the new file; the command answers at once with a FILE_REPAIR
+ * frame asking for the ranges in between, which the sender sends as ordinary streams while the blocks are
+ * copied on a {@link ChunkChecksums#PIPELINE} thread. The file is complete when both are done.
+ */
+public class ReceiveFileDeltaCommand implements Command {
+    private final Session session;
+
+    public ReceiveFileDeltaCommand(Session session) {
+        this.session = session;
+    }
+
+    /** The most copies one frame may list. */
+    static final int MAX_COPIES = BlockSignatures.MAX_BLOCKS;
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        String transferId = decoder.readString();
+        long count = decoder.readVarint();
+        if (count > MAX_COPIES) {
+            throw new ProtocolException("Delta of " + count + " copies exceeds " + MAX_COPIES);
+        }
+        List<long[]> copies = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            copies.add(new long[]{decoder.readFileLength(), decoder.readFileLength(), decoder.readFileLength()});
+        }
+
+        TransferJournal.Entry entry = session.store.getTransferJournal().find(transferId);
+        File basis = session.deltaBases.remove(transferId);
+        if (entry == null) {
+            System.out.println("Discarding delta of unknown transfer " + transferId);
+            return;
+        }
+        if (basis == null || !isValid(copies, entry.size, basis.length())) {
+            // Without the older version the whole file is needed
+            System.out.println("Cannot apply the delta of transfer " + transferId);
+            copies = Collections.emptyList();
+        }
+
+        List<long[]> missing = DeltaEncoder.missingRanges(copies, entry.size);
+        if (!missing.isEmpty()) {
+            session.pendingRepairs.put(transferId, new ArrayList<>(missing));
+        }
+        if (basis != null) {
+            List<long[]> basisCopies = copies;
+            CompletableFuture<Void> copied = CompletableFuture.runAsync(() -> {
+                try {
+                    applyCopies(basis, new File(entry.path), basisCopies);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    basis.delete();
+                }
+            }, ChunkChecksums.PIPELINE);
+            copied.whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    System.out.println("Cannot copy the older version of transfer " + transferId);
+                    failure.printStackTrace();
+                }
+            });
+            session.deltaCopies.put(transferId, copied);
+        }
+        session.frameWriter.send(FrameEncoder.encodeFileRepair(transferId, 0, missing));
+        if (missing.isEmpty()) {
+            ReceiveStreamEndCommand.completeFile(session, entry);
+        }
+    }
+
+    private static boolean isValid(List<long[]> copies, long size, long basisSize) {
+        for (long[] copy : copies) {
+            if (copy[2] <= 0 || copy[0] + copy[2] > size || copy[1] + copy[2] > basisSize) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies blocks of the older version into the new file and forces them to disk.
+     *
+     * @param basis - the older version.
+     * @param target - the new file, preallocated.
+     * @param copies - the copies as {target offset, basis offset, length}.
+     * @throws IOException - if a file cannot be read or written
+     */
+    static void applyCopies(File basis, File target, List<long[]> copies) throws IOException {
+        try (FileChannel source = new RandomAccessFile(basis, "r").getChannel();
+             FileChannel destination = new RandomAccessFile(target, "rw").getChannel()) {
+            for (long[] copy : copies) {
+                long copied = 0;
+                while (copied < copy[2]) {
+                    destination.position(copy[0] + copied);
+                    long transferred = source.transferTo(copy[1] + copied, copy[2] - copied, destination);
+                    if (transferred <= 0) {
+                        throw new IOException("Older version ended before " + (copy[1] + copied));
+                    }
+                    copied += transferred;
+                }
+            }
+            destination.force(false);
+        }
+    }
+}
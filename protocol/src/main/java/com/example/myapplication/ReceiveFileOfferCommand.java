@@ -0,0 +1,321 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The ReceiveFileOfferCommand class handles the offer of a resumable file transfer.
+ * It looks the transfer up in the {@link TransferJournal} and answers with the number of bytes
+ * already committed to the partial file, so the sender only sends what is missing.
+ * New transfers get a preallocated destination file and a fresh journal entry.
+ * When the sender offers several streams, the ranges are received by a {@link RangeReceiver}
+ * whose port is returned in the answer.
+ * A new transfer offered with a content hash is first looked up in the {@link ContentIndex} of the
+ * {@link TransferStore}, the Downloads folder on a device. A file with the same content is linked or copied to the destination, and the answer
+ * reports the whole file as committed, so nothing is sent. Otherwise, when the Downloads folder holds an older
+ * version under the same name, the older version is moved aside and the signatures of its blocks are sent
+ * before the answer, so the sender only sends what changed, see {@link ReceiveFileDeltaCommand}. The older
+ * version is put back if the session ends or the transfer is offered again before the delta comes, and deleted
+ * if the new version arrives whole.
+ * Looking up and signing may hash files, so they run on a {@link ChunkChecksums#PIPELINE} thread and the
+ * reader goes on meanwhile.
+ */
+public class ReceiveFileOfferCommand implements Command {
+    private final Session session;
+
+    public ReceiveFileOfferCommand(Session session) {
+        this.session = session;
+    }
+
+    /** The smallest file worth a delta, smaller ones are sent as they are. */
+    static final long MIN_DELTA_SIZE = 1024 * 1024;
+    private static final String BASIS_SUFFIX = ".basis";
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        String transferId = decoder.readString();
+        String fileName = decoder.readString();
+        long fileSize = decoder.readFileLength();
+        int streams = (int) Math.min(decoder.readVarint(), RangeTransfer.MAX_STREAMS);
+        int hashLength = decoder.readLength();
+        byte[] contentHash = hashLength == ChunkChecksums.DIGEST_LENGTH ? new byte[hashLength] : null;
+        if (contentHash != null) {
+            decoder.readFully(contentHash, 0, hashLength);
+        } else {
+            decoder.skip(hashLength);
+        }
+
+        long committedOffset = resume(transferId, fileSize);
+        if (committedOffset >= 0) {
+            answer(transferId, committedOffset, fileSize, streams);
+        } else if (contentHash == null || session.store.getContentIndex() == null) {
+            answer(transferId, begin(transferId, fileName, fileSize), fileSize, streams);
+        } else {
+            ChunkChecksums.PIPELINE.execute(() -> {
+                try {
+                    answer(transferId, prepareDestination(transferId, fileName, fileSize, contentHash), fileSize, streams);
+                } catch (IOException e) {
+                    System.out.println("Cannot answer the offer of transfer " + transferId);
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    private void answer(String transferId, long committedOffset, long fileSize, int streams) throws IOException {
+        int rangePort = 0;
+        // A delta is sent on this connection
+        if (streams > 1 && committedOffset < fileSize && !session.deltaBases.containsKey(transferId)) {
+            rangePort = startRangeReceiver(transferId, committedOffset, fileSize, streams);
+        }
+        sendAccept(transferId, committedOffset, rangePort);
+    }
+
+    /**
+     * Starts listening for the range connections of a parallel transfer.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param committedOffset - the offset the sender continues from
+     * @param fileSize - the size of the offered file in bytes
+     * @param streams - the number of ranges offered by the sender
+     * @return - the port of the range receiver
+     * @throws IOException - if the range receiver cannot be started
+     */
+    private int startRangeReceiver(String transferId, long committedOffset, long fileSize, int streams) throws IOException {
+        TransferJournal transferJournal = session.store.getTransferJournal();
+        File file = new File(transferJournal.find(transferId).path);
+        RangeReceiver rangeReceiver = new RangeReceiver(transferId, file, committedOffset, fileSize, streams,
+                new RangeReceiver.Listener() {
+                    @Override
+                    public void onCommitted(long committedOffset, FileChannel fileChannel) throws IOException {
+                        fileChannel.force(false);
+                        transferJournal.commit(transferId, committedOffset);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        transferJournal.remove(transferId);
+                        TransferMetrics.DEFAULT.received.transfer(fileSize);
+                        session.store.onFileReceived(session, transferId, file);
+                    }
+
+                    @Override
+                    public void onFailed(IOException cause) {
+                        System.out.println("Parallel transfer " + transferId + " interrupted");
+                        cause.printStackTrace();
+                    }
+                });
+        return rangeReceiver.getPort();
+    }
+
+    /**
+     * Finds the committed offset of a partially received file.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param fileSize - the size of the offered file in bytes
+     * @return - the number of bytes the sender can skip, or -1 if the transfer has to begin anew
+     */
+    private long resume(String transferId, long fileSize) {
+        TransferJournal.Entry entry = session.store.getTransferJournal().find(transferId);
+        if (entry != null && !session.deltaCopies.containsKey(transferId)) {
+            session.deltaBases.remove(transferId);
+            if (restoreOlderVersion(session, transferId, basisFile(new File(entry.path), transferId))) {
+                // Offered again before its delta came, e.g. after the process was killed: the transfer begins anew
+                return -1;
+            }
+        }
+        if (entry != null && entry.size == fileSize && entry.committed <= fileSize) {
+            File partialFile = new File(entry.path);
+            // The partial file is preallocated, any other length means it was changed or deleted meanwhile
+            if (partialFile.exists() && partialFile.length() == fileSize) {
+                return entry.committed;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Prepares a new destination file.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param fileName - the name of the offered file
+     * @param fileSize - the size of the offered file in bytes
+     * @return - 0, the sender sends the whole file
+     * @throws IOException - if the destination file or the journal cannot be written
+     */
+    private long begin(String transferId, String fileName, long fileSize) throws IOException {
+        File file = session.store.prepareFileForWriting(fileName, fileSize, transferId);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            session.store.preallocate(randomAccessFile, fileSize);
+        }
+        session.store.getTransferJournal().begin(transferId, file.getAbsolutePath(), fileSize);
+        return 0;
+    }
+
+    /**
+     * Uses a received file with the same content as the destination if there is one, otherwise prepares a new file,
+     * as a delta against an older version if there is one.
+     * The journal entry of a deduplicated file is fully committed; the sender then sends an empty stream,
+     * whose end completes the file like any other transfer.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param fileName - the name of the offered file
+     * @param fileSize - the size of the offered file in bytes
+     * @param contentHash - the SHA-256 of the offered file
+     * @return - the number of bytes the sender can skip
+     * @throws IOException - if the destination file or the journal cannot be written
+     */
+    private long prepareDestination(String transferId, String fileName, long fileSize, byte[] contentHash) throws IOException {
+        File file = session.store.prepareFileForWriting(fileName, fileSize, transferId);
+        ContentIndex contentIndex = session.store.getContentIndex();
+        File existing = contentIndex.find(contentHash, fileSize, file.getParentFile());
+        if (existing == null) {
+            BlockSignatures signatures = moveOlderVersionAside(transferId, file, fileSize);
+            long committedOffset;
+            try {
+                committedOffset = begin(transferId, fileName, fileSize);
+            } catch (IOException e) {
+                if (signatures != null) {
+                    basisFile(file, transferId).renameTo(file);
+                }
+                throw e;
+            }
+            if (signatures != null) {
+                offerDelta(transferId, basisFile(file, transferId), signatures);
+            }
+            return committedOffset;
+        }
+
+        if (!existing.getCanonicalPath().equals(file.getCanonicalPath())) {
+            materialize(existing, file);
+            contentIndex.put(file, contentHash);
+        }
+        System.out.println("Already have " + fileName + " as " + existing);
+        TransferJournal transferJournal = session.store.getTransferJournal();
+        transferJournal.begin(transferId, file.getAbsolutePath(), fileSize);
+        transferJournal.commit(transferId, fileSize);
+        return fileSize;
+    }
+
+    /**
+     * Moves an older version of the file aside and signs its blocks, so the sender can send the new version
+     * as a delta against it. Nothing happens if there is no older version worth it.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param file - the destination of the offered file
+     * @param fileSize - the size of the offered file in bytes
+     * @return - the signatures of the older version, or null if it was left in place
+     */
+    private BlockSignatures moveOlderVersionAside(String transferId, File file, long fileSize) {
+        if (fileSize < MIN_DELTA_SIZE || !file.isFile() || file.length() < MIN_DELTA_SIZE) {
+            return null;
+        }
+        File basis = basisFile(file, transferId);
+        if (!file.renameTo(basis)) {
+            return null;
+        }
+        try {
+            return BlockSignatures.compute(basis, BlockSignatures.chooseBlockSize(basis.length()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            basis.renameTo(file);
+            return null;
+        }
+    }
+
+    /**
+     * Sends the signatures of the older version moved aside. The older version is put back if the session
+     * is closed before the delta comes.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param basis - the older version moved aside
+     * @param signatures - the signatures of its blocks
+     * @throws IOException - if the connection is closed
+     */
+    private void offerDelta(String transferId, File basis, BlockSignatures signatures) throws IOException {
+        session.deltaBases.put(transferId, basis);
+        try {
+            // A session closed meanwhile put back the older versions it knew of already
+            if (!session.socket.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            session.frameWriter.send(FrameEncoder.encodeFileSignatures(transferId, signatures));
+        } catch (IOException e) {
+            restoreOlderVersion(session, transferId, session.deltaBases.remove(transferId));
+            throw e;
+        }
+    }
+
+    /**
+     * Names the file an older version is moved aside to while the new version is received as a delta.
+     *
+     * @param file - the destination of the offered file.
+     * @param transferId - the id of the offered transfer.
+     * @return - the hidden file next to the destination.
+     */
+    static File basisFile(File file, String transferId) {
+        return new File(file.getParentFile(), "." + file.getName() + "." + transferId + BASIS_SUFFIX);
+    }
+
+    /**
+     * Puts an older version moved aside back in place of the new version, when the transfer ends before
+     * its delta came. The journal entry of the new version is removed, so the transfer begins anew if offered again.
+     *
+     * @param session - the session the transfer was offered on.
+     * @param transferId - the id of the transfer.
+     * @param basis - the older version moved aside, or null if there is none.
+     * @return - whether an older version was put back
+     */
+    static boolean restoreOlderVersion(Session session, String transferId, File basis) {
+        if (basis == null || !basis.isFile()) {
+            return false;
+        }
+        String name = basis.getName();
+        File file = new File(basis.getParentFile(),
+                name.substring(1, name.length() - transferId.length() - BASIS_SUFFIX.length() - 1));
+        session.store.getTransferJournal().remove(transferId);
+        if (!basis.renameTo(file)) {
+            System.out.println("Cannot put " + basis + " back to " + file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes a file with the content of an existing one, as a hard link where the filesystem supports it.
+     *
+     * @param source - the existing file.
+     * @param target - the file to create, replaced if it exists.
+     * @throws IOException - if neither linking nor copying works
+     */
+    static void materialize(File source, File target) throws IOException {
+        Path targetPath = target.toPath();
+        Files.deleteIfExists(targetPath);
+        try {
+            Files.createLink(targetPath, source.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // Shared storage on most devices is a FUSE or sdcardfs mount without hard links
+            Files.copy(source.toPath(), targetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Answers the offer with the committed offset.
+     *
+     * @param transferId - the id of the offered transfer
+     * @param committedOffset - the number of bytes the sender can skip
+     * @param rangePort - the port of the range receiver, or 0 if the file is sent on this connection
+     * @throws IOException - if the connection is closed
+     */
+    private void sendAccept(String transferId, long committedOffset, int rangePort) throws IOException {
+        byte[] frame = FrameEncoder.encodeFileAccept(transferId, committedOffset, rangePort);
+        session.frameWriter.send(frame);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ReceiveFileRepairCommand class hands the receiver's verdict on a finished stream
+ * to the {@link FileSender} waiting for it. Several streams of a transfer can wait at the same time,
+ * their verdicts are told apart by the offset of the stream, see {@link #verdictKey}.
+ */
+public class ReceiveFileRepairCommand implements Command {
+    private final Session session;
+
+    public ReceiveFileRepairCommand(Session session) {
+        this.session = session;
+    }
+
+    /** The most ranges one verdict may list, a stream of 64KB chunks has far fewer unless it is garbage. */
+    static final int MAX_RANGES = 4096;
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        String transferId = decoder.readString();
+        long offset = decoder.readFileLength();
+        long count = decoder.readVarint();
+        if (count > MAX_RANGES) {
+            throw new ProtocolException("Repair of " + count + " ranges exceeds " + MAX_RANGES);
+        }
+        List<long[]> badRanges = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            badRanges.add(new long[]{decoder.readFileLength(), decoder.readFileLength()});
+        }
+
+        if (!session.repairRequests.complete(verdictKey(transferId, offset), badRanges)) {
+            System.out.println("Nobody is waiting for the verdict on transfer " + transferId + " at " + offset);
+        }
+    }
+
+    /**
+     * @param transferId - the id of the transfer.
+     * @param offset - the offset of the stream, 0 for the verdict on a FILE_DELTA frame.
+     * @return - the key the sender waits for the verdict under.
+     */
+    static String verdictKey(String transferId, long offset) {
+        return transferId + "@" + offset;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * The ReceiveFileSignaturesCommand class keeps the signatures of the receiver's older version of an offered file.
+ * They arrive right before the FILE_ACCEPT answer, and the {@link FileSender} waiting for that answer
+ * then sends the file as a delta, see {@link DeltaEncoder}.
+ */
+public class ReceiveFileSignaturesCommand implements Command {
+    private final Session session;
+
+    public ReceiveFileSignaturesCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        String transferId = decoder.readString();
+        long blockSize = decoder.readVarint();
+        long count = decoder.readVarint();
+        if (blockSize < BlockSignatures.MIN_BLOCK_SIZE || blockSize > BlockSignatures.MAX_BLOCK_SIZE || count > BlockSignatures.MAX_BLOCKS) {
+            throw new ProtocolException("Invalid signatures of " + count + " blocks of " + blockSize + " bytes");
+        }
+
+        int[] weak = new int[(int) count];
+        byte[] strong = new byte[(int) count * BlockSignatures.STRONG_LENGTH];
+        for (int block = 0; block < count; block++) {
+            weak[block] = decoder.readInt();
+            decoder.readFully(strong, block * BlockSignatures.STRONG_LENGTH, BlockSignatures.STRONG_LENGTH);
+        }
+        session.deltaSignatures.put(transferId, new BlockSignatures((int) blockSize, (int) count, weak, strong));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * The ReceiveStreamChunkCommand class writes one chunk of a logical stream into the partial file the stream
+ * was opened for. Chunks are small, so the reader returns to the chat frames interleaved between them right away.
+ */
+public class ReceiveStreamChunkCommand implements Command {
+    private final Session session;
+
+    public ReceiveStreamChunkCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        int streamId = (int) decoder.readVarint();
+        long length = decoder.readVarint();
+        int checksum = decoder.readInt();
+        if (length > FrameWriter.CHUNK_SIZE) {
+            throw new ProtocolException("Chunk of " + length + " bytes exceeds " + FrameWriter.CHUNK_SIZE);
+        }
+
+        InboundStream stream = session.inboundStreams.get(streamId);
+        if (stream == null) {
+            decoder.skip(length);
+            return;
+        }
+
+        stream.receiveChunk(decoder, (int) length, checksum);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * The ReceiveStreamCompressedChunkCommand class hands a compressed chunk of a logical stream to its
+ * {@link InboundStream}, which decompresses it in parallel with the following chunks.
+ */
+public class ReceiveStreamCompressedChunkCommand implements Command {
+    private final Session session;
+
+    public ReceiveStreamCompressedChunkCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        int streamId = (int) decoder.readVarint();
+        long rawLength = decoder.readVarint();
+        long compressedLength = decoder.readVarint();
+        int checksum = decoder.readInt();
+        if (rawLength > FrameWriter.CHUNK_SIZE || compressedLength > rawLength) {
+            throw new ProtocolException("Compressed chunk of " + compressedLength + "/" + rawLength + " bytes exceeds " + FrameWriter.CHUNK_SIZE);
+        }
+
+        InboundStream stream = session.inboundStreams.get(streamId);
+        if (stream == null) {
+            decoder.skip(compressedLength);
+            return;
+        }
+
+        stream.receiveCompressedChunk(decoder, (int) rawLength, (int) compressedLength, checksum);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The ReceiveStreamEndCommand class verifies a stream after its last chunk against the digest sent by the sender,
+ * and answers with a FILE_REPAIR frame listing the ranges that failed their checksums. The sender sends those
+ * ranges again as new streams; the file is complete once its last stream and all repairs arrived intact.
+ */
+public class ReceiveStreamEndCommand implements Command {
+    private final Session session;
+
+    public ReceiveStreamEndCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        int streamId = (int) session.decoder.readVarint();
+        byte[] digest = new byte[ChunkChecksums.DIGEST_LENGTH];
+        session.decoder.readFully(digest, 0, digest.length);
+
+        InboundStream stream = session.inboundStreams.remove(streamId);
+        if (stream == null) {
+            return;
+        }
+        List<long[]> badRanges;
+        try {
+            badRanges = stream.finish(digest);
+        } finally {
+            stream.close();
+        }
+
+        String transferId = stream.getEntry().transferId;
+        session.frameWriter.send(FrameEncoder.encodeFileRepair(transferId, stream.getOffset(), badRanges));
+        if (updateRepairs(session.pendingRepairs, transferId, stream.getOffset(), stream.getEnd(), badRanges, stream.endsFile())) {
+            completeFile(session, stream.getEntry());
+        }
+    }
+
+    /**
+     * Updates the ranges of a file that still have to be sent again after one of its streams ended.
+     * Repairs are only requested once the last stream of the file ended, so a file with a pending repair
+     * is complete as soon as no range is missing anymore.
+     *
+     * @param pendingRepairs - the ranges still waiting to be sent of the files received in the session.
+     * @param transferId - the id of the transfer.
+     * @param start - the position in the file of the first byte of the stream.
+     * @param end - the position in the file after the last byte of the stream.
+     * @param badRanges - the ranges of the stream that failed their checksums.
+     * @param endsFile - whether the stream is the last range of the file.
+     * @return - true if the file is complete and has no missing range left.
+     */
+    static boolean updateRepairs(Map<String, List<long[]>> pendingRepairs, String transferId, long start, long end, List<long[]> badRanges, boolean endsFile) {
+        List<long[]> missing = pendingRepairs.remove(transferId);
+        boolean repairing = missing != null;
+        if (missing == null) {
+            missing = new ArrayList<>();
+        }
+        missing.removeIf(range -> range[0] >= start && range[0] + range[1] <= end);
+        missing.addAll(badRanges);
+        if (!missing.isEmpty()) {
+            pendingRepairs.put(transferId, missing);
+            return false;
+        }
+        return repairing || endsFile;
+    }
+
+    /**
+     * Removes the journal entry of a file that arrived intact and shows the file in the chat.
+     * A file rebuilt from an older version is complete once its copies are done as well.
+     *
+     * @param session - the session the file was received in.
+     * @param entry - the journal entry of the file.
+     */
+    static void completeFile(Session session, TransferJournal.Entry entry) {
+        CompletableFuture<Void> copies = session.deltaCopies.remove(entry.transferId);
+        if (copies != null) {
+            copies.thenRun(() -> completeFile(session, entry));
+            return;
+        }
+        File basis = session.deltaBases.remove(entry.transferId);
+        if (basis != null) {
+            // The peer sent the whole file instead of a delta
+            basis.delete();
+        }
+        session.store.getTransferJournal().remove(entry.transferId);
+        TransferMetrics.DEFAULT.received.transfer(entry.size);
+        session.store.onFileReceived(session, entry.transferId, new File(entry.path));
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+
+/**
+ * The ReceiveStreamOpenCommand class binds a stream id announced by the sender to a range of an accepted transfer.
+ * The chunks of the stream are then written by {@link ReceiveStreamChunkCommand} until {@link ReceiveStreamEndCommand}
+ * verifies it. Streams of unknown transfers are not registered, so their chunks are discarded.
+ */
+public class ReceiveStreamOpenCommand implements Command {
+    private final Session session;
+
+    public ReceiveStreamOpenCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        FrameDecoder decoder = session.decoder;
+        int streamId = (int) decoder.readVarint();
+        String transferId = decoder.readString();
+        long offset = decoder.readFileLength();
+        long length = decoder.readFileLength();
+
+        TransferJournal transferJournal = session.store.getTransferJournal();
+        TransferJournal.Entry entry = transferJournal.find(transferId);
+        if (entry == null) {
+            System.out.println("Discarding stream " + streamId + " of unknown transfer " + transferId);
+            return;
+        }
+
+        InboundStream stream = new InboundStream(transferJournal, entry, offset, length);
+        InboundStream previous = session.inboundStreams.put(streamId, stream);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+}
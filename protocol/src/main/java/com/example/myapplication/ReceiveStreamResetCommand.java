@@ -0,0 +1,24 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+
+/**
+ * The ReceiveStreamResetCommand class closes a stream the sender cancelled or could not finish.
+ * The journal keeps the bytes committed so far, so offering the file again resumes it.
+ */
+public class ReceiveStreamResetCommand implements Command {
+    private final Session session;
+
+    public ReceiveStreamResetCommand(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        int streamId = (int) session.decoder.readVarint();
+        InboundStream stream = session.inboundStreams.remove(streamId);
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
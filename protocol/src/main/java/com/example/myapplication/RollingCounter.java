@@ -0,0 +1,84 @@
+package com.example.myapplication;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts bytes or events over a sliding window of time slots, so a rate shows what happened in the last seconds
+ * instead of averaging the whole transfer: a stall brings it down within the window and a short burst does not
+ * carry on forever. The current slot is counted as far as it went, so the rate is right from the first chunk on.
+ * Safe to use from several threads.
+ */
+public class RollingCounter {
+    private final long slotNanos;
+    private final LongSupplier clock;
+    private final long createdAt;
+    private final long[] counts;
+    /** The number of the slot each entry of counts holds, entries of older slots are stale. */
+    private final long[] slots;
+
+    /**
+     * @param slotCount - the number of slots in the window.
+     * @param slotDuration - the length of a slot.
+     * @param unit - the unit of the length.
+     */
+    public RollingCounter(int slotCount, long slotDuration, TimeUnit unit) {
+        this(slotCount, unit.toNanos(slotDuration), System::nanoTime);
+    }
+
+    /**
+     * @return - a counter of the speed a {@link ProgressListener} is given: the bytes of the last second.
+     */
+    public static RollingCounter forProgress() {
+        return new RollingCounter(5, 200, TimeUnit.MILLISECONDS);
+    }
+
+    RollingCounter(int slotCount, long slotNanos, LongSupplier clock) {
+        this.slotNanos = slotNanos;
+        this.clock = clock;
+        this.createdAt = clock.getAsLong();
+        this.counts = new long[slotCount];
+        this.slots = new long[slotCount];
+        // No slot is current yet
+        Arrays.fill(slots, Long.MIN_VALUE);
+    }
+
+    /**
+     * @param count - the bytes or events to add to the current slot.
+     */
+    public synchronized void add(long count) {
+        long slot = (clock.getAsLong() - createdAt) / slotNanos;
+        int index = (int) (slot % counts.length);
+        if (slots[index] != slot) {
+            slots[index] = slot;
+            counts[index] = 0;
+        }
+        counts[index] += count;
+    }
+
+    /**
+     * @return - the count per second over the window, or over the time since the counter was created if that is shorter.
+     */
+    public synchronized double ratePerSecond() {
+        long elapsed = clock.getAsLong() - createdAt;
+        long currentSlot = elapsed / slotNanos;
+        long firstSlot = Math.max(0, currentSlot - counts.length + 1);
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (slots[i] >= firstSlot && slots[i] <= currentSlot) {
+                sum += counts[i];
+            }
+        }
+        // At least a millisecond, the first chunk of a stream is often counted at the time the stream started
+        double seconds = Math.max(elapsed - firstSlot * slotNanos, TimeUnit.MILLISECONDS.toNanos(1)) / 1e9;
+        return sum / seconds;
+    }
+
+    /**
+     * @return - the rate in MB/s, as reported to a {@link ProgressListener}.
+     */
+    public double megabytesPerSecond() {
+        return ratePerSecond() / (1024.0 * 1024.0);
+    }
+}
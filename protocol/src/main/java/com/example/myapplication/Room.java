@@ -0,0 +1,106 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A group chat: the sessions receiving every frame broadcast to it.
+ * A frame is encoded once and the same read-only bytes are queued on the writer of every member, each
+ * member through its own view of them, so a broadcast to N members costs N enqueues and no copies.
+ * Every member has a bounded queue: when the frames waiting for a member reach {@code maxQueuedBytes},
+ * because its device or its network cannot keep up, the {@link SlowMemberPolicy} of the room decides
+ * what happens to it, so one lagging member never holds back the others or fills the memory of the sender.
+ */
+public class Room {
+    private final CopyOnWriteArrayList<Session> members = new CopyOnWriteArrayList<>();
+    private final long maxQueuedBytes;
+    private final SlowMemberPolicy slowMemberPolicy;
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * What happens to a member whose queue is full.
+     */
+    public enum SlowMemberPolicy {
+        /** The member misses the frame and stays in the room. */
+        DROP,
+        /** The member is disconnected, it can connect again once it caught up. */
+        DISCONNECT
+    }
+
+    /**
+     * @param maxQueuedBytes - the most bytes of frames that may wait for a member.
+     * @param slowMemberPolicy - what happens to a member whose queue is full.
+     */
+    public Room(long maxQueuedBytes, SlowMemberPolicy slowMemberPolicy) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.slowMemberPolicy = slowMemberPolicy;
+    }
+
+    public void join(Session session) {
+        members.addIfAbsent(session);
+    }
+
+    public void leave(Session session) {
+        members.remove(session);
+    }
+
+    /**
+     * @return - the members, in the order they joined.
+     */
+    public List<Session> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Queues a frame on the writer of every member. Never blocks, so it is safe on the main thread.
+     *
+     * @param frame - the encoded frame, which must not be changed afterwards.
+     * @return - the number of members the frame was queued for.
+     */
+    public int broadcast(byte[] frame) {
+        return broadcast(frame, null);
+    }
+
+    /**
+     * Queues a frame on the writer of every member but one, e.g. the member who sent it to a relay.
+     *
+     * @param frame - the encoded frame, which must not be changed afterwards.
+     * @param except - the member not to send the frame to, or null.
+     * @return - the number of members the frame was queued for.
+     */
+    public int broadcast(byte[] frame, Session except) {
+        ByteBuffer shared = ByteBuffer.wrap(frame).asReadOnlyBuffer();
+        int queued = 0;
+        for (Session member : members) {
+            if (member == except) {
+                continue;
+            }
+            try {
+                if (member.frameWriter.offer(shared.duplicate(), maxQueuedBytes)) {
+                    queued++;
+                    continue;
+                }
+            } catch (IOException e) {
+                // The connection failed, its reader ends the session
+                continue;
+            }
+            droppedFrames.incrementAndGet();
+            if (slowMemberPolicy == SlowMemberPolicy.DISCONNECT) {
+                leave(member);
+                member.abort();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * @return - the frames members missed because their queue was full.
+     */
+    public long droppedFrames() {
+        return droppedFrames.get();
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.myapplication;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An append-only log of records, numbered from 0, kept in segment files of about {@link #SEGMENT_BYTES} bytes.
+ * Every segment is named after the number of its first record and has a sparse index next to it, holding the
+ * file offset of every {@link #INDEX_INTERVAL}th record, so a record is found with one index lookup and a scan
+ * of at most {@link #INDEX_INTERVAL} records. Appending writes the record, and now and then an index entry,
+ * at the end of the last segment; older segments are never written again.
+ * <p>
+ * Opening reads the names of the segments, the index of the last segment and the records after its last entry,
+ * so it takes the same time however long the log is. A record torn by a crash, detected by its CRC-32C,
+ * is cut off with everything after it. The indexes of older segments are only read when a record of the
+ * segment is, and at most {@link #CACHED_INDEXES} of them are kept.
+ * <p>
+ * A record is written as its length (4 bytes), the CRC-32C of its bytes (4 bytes) and its bytes.
+ * Records survive the process being killed, the log does not sync them to the disk.
+ */
+public class SegmentedLog implements Closeable {
+    static final long SEGMENT_BYTES = 4 * 1024 * 1024;
+    static final int INDEX_INTERVAL = 64;
+    static final int CACHED_INDEXES = 4;
+    static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final int HEADER_BYTES = 8;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final File directory;
+    private final long segmentBytes;
+    /** The number of the first record of every segment, the last one is being appended to. */
+    private final List<Long> bases = new ArrayList<>();
+    private final Map<Long, long[]> cachedIndexes = new LinkedHashMap<Long, long[]>(CACHED_INDEXES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+            return size() > CACHED_INDEXES;
+        }
+    };
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(8);
+    private final Crc32c crc = new Crc32c();
+
+    private FileChannel activeLog;
+    private FileChannel activeIndexFile;
+    private long[] activeIndex = new long[16];
+    private int activeIndexSize;
+    private long activeBase;
+    private long activeCount;
+    private long activeBytes;
+
+    /**
+     * Opens the log in a directory, creating it if missing.
+     *
+     * @param directory - the directory holding the segments.
+     * @throws IOException - if the last segment cannot be opened or recovered.
+     */
+    public SegmentedLog(File directory) throws IOException {
+        this(directory, SEGMENT_BYTES);
+    }
+
+    SegmentedLog(File directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        directory.mkdirs();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(LOG_SUFFIX)) {
+                    try {
+                        bases.add(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Ignoring " + name + " in " + directory);
+                    }
+                }
+            }
+        }
+        Collections.sort(bases);
+        if (bases.isEmpty()) {
+            bases.add(0L);
+        }
+        openActive(bases.get(bases.size() - 1));
+    }
+
+    /**
+     * @return - the number of records in the log.
+     */
+    public synchronized long size() {
+        return activeBase + activeCount;
+    }
+
+    /**
+     * Appends a record at the end of the log, starting a new segment if the last one is full.
+     *
+     * @param record - the bytes of the record.
+     * @return - the number of the record.
+     * @throws IOException - if the record cannot be written.
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        if (record.length > MAX_RECORD_BYTES) {
+            throw new IOException("Record of " + record.length + " bytes exceeds " + MAX_RECORD_BYTES);
+        }
+        if (activeCount > 0 && activeBytes + HEADER_BYTES + record.length > segmentBytes) {
+            roll();
+        }
+        if (activeCount % INDEX_INTERVAL == 0) {
+            addIndexEntry(activeBytes);
+        }
+        crc.reset();
+        crc.update(record, 0, record.length);
+        header.clear();
+        header.putInt(record.length).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] buffers = {header, ByteBuffer.wrap(record)};
+        activeLog.position(activeBytes);
+        while (buffers[1].hasRemaining()) {
+            activeLog.write(buffers);
+        }
+        activeBytes += HEADER_BYTES + record.length;
+        return activeBase + activeCount++;
+    }
+
+    /**
+     * Reads consecutive records.
+     *
+     * @param from - the number of the first record.
+     * @param count - the number of records to read at most, fewer are returned at the end of the log.
+     * @return - the records in order.
+     * @throws IOException - if a segment cannot be read or a record is damaged.
+     */
+    public synchronized List<byte[]> read(long from, int count) throws IOException {
+        long size = size();
+        if (from < 0 || from > size) {
+            throw new IndexOutOfBoundsException("Record " + from + " of " + size);
+        }
+        int remaining = (int) Math.min(count, size - from);
+        List<byte[]> records = new ArrayList<>(remaining);
+        while (records.size() < remaining) {
+            long index = from + records.size();
+            int segment = segmentOf(index);
+            long base = bases.get(segment);
+            long segmentEnd = segment == bases.size() - 1 ? size : bases.get(segment + 1);
+            long[] sparseIndex = segment == bases.size() - 1 ? activeIndex : loadIndex(base);
+            int slot = (int) ((index - base) / INDEX_INTERVAL);
+            long current = base + (long) slot * INDEX_INTERVAL;
+            long last = Math.min(segmentEnd, from + remaining);
+            try (FileInputStream file = new FileInputStream(logFile(base))) {
+                file.getChannel().position(sparseIndex[slot]);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+                for (; current < last; current++) {
+                    byte[] record = readRecord(in);
+                    if (current >= index) {
+                        records.add(record);
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            activeLog.close();
+        } finally {
+            activeIndexFile.close();
+        }
+    }
+
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length < 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("Damaged record length " + length);
+        }
+        byte[] record = new byte[length];
+        in.readFully(record);
+        crc.reset();
+        crc.update(record, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Damaged record");
+        }
+        return record;
+    }
+
+    private int segmentOf(long index) {
+        int found = Collections.binarySearch(bases, index);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private long[] loadIndex(long base) throws IOException {
+        long[] index = cachedIndexes.get(base);
+        if (index == null) {
+            try (RandomAccessFile file = new RandomAccessFile(indexFile(base), "r")) {
+                index = new long[(int) (file.length() / 8)];
+                for (int i = 0; i < index.length; i++) {
+                    index[i] = file.readLong();
+                }
+            }
+            cachedIndexes.put(base, index);
+        }
+        return index;
+    }
+
+    private void addIndexEntry(long offset) throws IOException {
+        if (activeIndexSize == activeIndex.length) {
+            activeIndex = Arrays.copyOf(activeIndex, activeIndexSize * 2);
+        }
+        activeIndex[activeIndexSize++] = offset;
+        indexEntry.clear();
+        indexEntry.putLong(offset).flip();
+        activeIndexFile.write(indexEntry, (long) (activeIndexSize - 1) * 8);
+    }
+
+    /**
+     * Seals the last segment and starts a new one after it.
+     */
+    private void roll() throws IOException {
+        long base = activeBase + activeCount;
+        close();
+        cachedIndexes.put(activeBase, Arrays.copyOf(activeIndex, activeIndexSize));
+        bases.add(base);
+        openActive(base);
+    }
+
+    /**
+     * Opens the last segment for appending, after cutting off a record torn by a crash.
+     * Only the records after the last index entry are read.
+     */
+    private void openActive(long base) throws IOException {
+        activeBase = base;
+        activeLog = new RandomAccessFile(logFile(base), "rw").getChannel();
+        activeIndexFile = new RandomAccessFile(indexFile(base), "rw").getChannel();
+        long logLength = activeLog.size();
+
+        activeIndexSize = 0;
+        ByteBuffer entries = ByteBuffer.allocate((int) (activeIndexFile.size() / 8 * 8));
+        while (entries.hasRemaining()) {
+            if (activeIndexFile.read(entries, entries.position()) < 0) {
+                break;
+            }
+        }
+        entries.flip();
+        long previous = -1;
+        while (entries.remaining() >= 8) {
+            long offset = entries.getLong();
+            if (offset <= previous || offset >= logLength) {
+                break;
+            }
+            if (activeIndexSize == activeIndex.length) {
+                activeIndex = Arrays.copyOf(activeIndex, activeIndexSize * 2);
+            }
+            activeIndex[activeIndexSize++] = offset;
+            previous = offset;
+        }
+
+        long position = 0;
+        long count = 0;
+        if (activeIndexSize > 0) {
+            position = activeIndex[activeIndexSize - 1];
+            count = (long) (activeIndexSize - 1) * INDEX_INTERVAL;
+            activeIndexSize--;
+        }
+        activeIndexFile.truncate((long) activeIndexSize * 8);
+        activeCount = count;
+        activeBytes = position;
+        try (FileInputStream file = new FileInputStream(logFile(base))) {
+            file.getChannel().position(position);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+            while (true) {
+                long start = activeBytes;
+                try {
+                    int length = readRecord(in).length;
+                    if (activeCount % INDEX_INTERVAL == 0) {
+                        addIndexEntry(start);
+                    }
+                    activeBytes += HEADER_BYTES + length;
+                    activeCount++;
+                } catch (EOFException e) {
+                    break;
+                } catch (IOException e) {
+                    System.out.println("Cutting off a damaged record at " + start + " of " + logFile(base));
+                    break;
+                }
+            }
+        }
+        if (activeBytes < logLength) {
+            activeLog.truncate(activeBytes);
+        }
+    }
+
+    private File logFile(long base) {
+        return new File(directory, String.format(Locale.ROOT, "%020d", base) + LOG_SUFFIX);
+    }
+
+    private File indexFile(long base) {
+        return new File(directory, String.format(Locale.ROOT, "%020d", base) + INDEX_SUFFIX);
+    }
+}
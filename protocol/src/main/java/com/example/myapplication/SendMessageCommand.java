@@ -0,0 +1,41 @@
+package com.example.myapplication;
+
+/**
+ * The SendMessageCommand class implements the Command interface and is responsible for
+ * executing the process of sending a text message to the other users in the chat.
+ */
+public class SendMessageCommand implements Command {
+    private final String message;
+    private final Room room;
+
+    public SendMessageCommand(Room room, String message) {
+        this.room = room;
+        this.message = message;
+    }
+
+    @Override
+    public void execute() {
+        byte[] commandBytes = prepareCommandBytes();
+        sendData(commandBytes);
+    }
+
+    /**
+     * Prepares a byte array containing the full command and message to send.
+     * It is encoded once, whatever the number of peers in the room.
+     *
+     * @return - byte[] representing the encoded message frame
+     */
+    private byte[] prepareCommandBytes() {
+        return FrameEncoder.encodeMessage(message);
+    }
+
+    /**
+     * Queues the prepared data (byte array) on the writer of every member of the room, ahead of any file chunk.
+     * Queuing never blocks, so it is safe on the main thread
+     *
+     * @param data - byte array containing the full command and message
+     */
+    private void sendData(byte[] data) {
+        TransferMetrics.DEFAULT.sent.messages(room.broadcast(data));
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The state of one connection to a peer: its socket, the reader and writer threads, and the transfers
+ * running on it. Commands get the session whose reader read their frame, or whose peer they send to,
+ * so any number of peers can be connected at the same time.
+ * The files received on all sessions of a side are kept by its {@link TransferStore}.
+ */
+public class Session implements Closeable {
+    final String peer;
+    final SocketChannel socket;
+    final FrameDecoder decoder;
+    final FrameWriter frameWriter;
+    /** Where the files received on this session go. */
+    final TransferStore store;
+    private final ThreadFactory threadFactory;
+    /**
+     * The streams the peer is sending on this connection, by stream id. Only used by the reader thread,
+     * which also closes them when it ends, so {@link #close()} never touches them from another thread.
+     */
+    final Map<Integer, InboundStream> inboundStreams = new HashMap<>();
+    final TransferHandshake<TransferHandshake.Accept> transferHandshake = new TransferHandshake<>();
+    /** The verdicts on the streams this side sent, as the ranges to send again, see {@link ReceiveFileRepairCommand#verdictKey}. */
+    final TransferHandshake<List<long[]>> repairRequests = new TransferHandshake<>();
+    /** The ranges of received files still waiting to be sent (again), by transfer id. */
+    final Map<String, List<long[]>> pendingRepairs = new ConcurrentHashMap<>();
+    /** The signatures of the older versions the peer has of the files this side offered, by transfer id. */
+    final Map<String, BlockSignatures> deltaSignatures = new ConcurrentHashMap<>();
+    /**
+     * The older versions of the files being received as a delta, moved aside until the delta comes,
+     * and put back if the session ends before.
+     */
+    final Map<String, File> deltaBases = new ConcurrentHashMap<>();
+    /** The copies running for files received as a delta, by transfer id. */
+    final Map<String, CompletableFuture<Void>> deltaCopies = new ConcurrentHashMap<>();
+    private ConnectionReader reader;
+
+    /**
+     * Handles the frames and the end of a session.
+     */
+    public interface Listener {
+        /**
+         * Called on the reader thread of the session for every frame.
+         *
+         * @param session - the session the frame was read from.
+         * @param frameType - the type of the frame.
+         * @throws IOException - if the fields of the frame cannot be read.
+         */
+        void onFrame(Session session, FrameType frameType) throws IOException;
+
+        /**
+         * Called once, on the reader thread, when the session ended.
+         *
+         * @param session - the session.
+         * @param cause - the error which ended the connection, or null if it was closed.
+         */
+        void onDisconnected(Session session, IOException cause);
+    }
+
+    /**
+     * @param peer - the address of the peer, used to name the threads.
+     * @param socket - the connected socket.
+     * @param flushPolicy - when the writer writes the frames it collected.
+     * @param store - where the files received on this session go.
+     */
+    public Session(String peer, SocketChannel socket, FlushPolicy flushPolicy, TransferStore store) {
+        this(peer, socket, flushPolicy, store, Threads.DAEMON);
+    }
+
+    /**
+     * @param peer - the address of the peer, used to name the threads.
+     * @param socket - the connected socket.
+     * @param flushPolicy - when the writer writes the frames it collected.
+     * @param store - where the files received on this session go.
+     * @param threadFactory - creates the reader and the writer thread, e.g. virtual threads on a server.
+     */
+    public Session(String peer, SocketChannel socket, FlushPolicy flushPolicy, TransferStore store, ThreadFactory threadFactory) {
+        this.peer = peer;
+        this.socket = socket;
+        this.decoder = new FrameDecoder(socket);
+        this.frameWriter = new FrameWriter("writer-" + peer, socket, flushPolicy, threadFactory);
+        this.store = store;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Starts the writer and the single reader thread of the session. The reader blocks in the socket read
+     * while the connection is idle. Everything sent on the connection goes through the {@link FrameWriter},
+     * which lets chat frames overtake file chunks.
+     *
+     * @param listener - handles the frames read from the peer.
+     */
+    public void start(Listener listener) {
+        frameWriter.start();
+        reader = new ConnectionReader("reader-" + peer, decoder, socket, new ConnectionReader.FrameHandler() {
+            @Override
+            public void onFrame(FrameType frameType, FrameDecoder decoder) throws IOException {
+                if (frameType == FrameType.MESSAGE) {
+                    TransferMetrics.DEFAULT.received.messages(1);
+                }
+                listener.onFrame(Session.this, frameType);
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+                closeInboundStreams();
+                restoreOlderVersions();
+                listener.onDisconnected(Session.this, cause);
+            }
+        }, threadFactory);
+        reader.start();
+    }
+
+    /**
+     * Returns the address of the peer, which range connections of parallel transfers are opened to.
+     */
+    InetAddress getPeerAddress() {
+        return socket.socket().getInetAddress();
+    }
+
+    /**
+     * Closes the socket without waiting for the threads of the session, so it is safe on any thread.
+     * The reader fails on the closed socket and the session ends as if the peer disconnected.
+     */
+    void abort() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the streams being received, on the reader thread when it ends.
+     */
+    private void closeInboundStreams() {
+        for (InboundStream stream : inboundStreams.values()) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        inboundStreams.clear();
+    }
+
+    /**
+     * Puts back the older versions moved aside for deltas which never came.
+     */
+    private void restoreOlderVersions() {
+        for (String transferId : deltaBases.keySet()) {
+            ReceiveFileOfferCommand.restoreOlderVersion(this, transferId, deltaBases.remove(transferId));
+        }
+    }
+
+    /**
+     * Stops the threads of the session and closes its socket. May be called from any thread: the streams being
+     * received are closed by the reader thread as it ends, or here if the session was never started.
+     *
+     * @throws IOException - if an I/O error occurs when closing the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.shutdown();
+        } else {
+            closeInboundStreams();
+        }
+        frameWriter.close();
+        socket.close();
+        pendingRepairs.clear();
+        deltaSignatures.clear();
+        restoreOlderVersions();
+        deltaCopies.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "Session " + peer;
+    }
+}
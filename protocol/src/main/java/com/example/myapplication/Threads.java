@@ -0,0 +1,18 @@
+package com.example.myapplication;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The threads the connections run on.
+ */
+final class Threads {
+    /** Daemon platform threads, so open connections never keep the process alive. */
+    static final ThreadFactory DAEMON = runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private Threads() {
+    }
+}
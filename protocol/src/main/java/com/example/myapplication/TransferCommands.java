@@ -0,0 +1,47 @@
+package com.example.myapplication;
+
+/**
+ * Maps the frames of the transfer protocol to their commands. Chat frames are left to the side reading them,
+ * the app shows them, the relay server forwards them.
+ */
+public final class TransferCommands {
+
+    private TransferCommands() {
+    }
+
+    /**
+     * Creates the command handling a frame of a file transfer.
+     *
+     * @param frameType - the type of the frame read.
+     * @param session - the session the frame was read from.
+     * @return - the command reading the rest of the frame, or null if it is not a transfer frame.
+     */
+    public static Command create(FrameType frameType, Session session) {
+        switch (frameType) {
+            case FILE_OFFER:
+                return new ReceiveFileOfferCommand(session);
+            case FILE_ACCEPT:
+                return new ReceiveFileAcceptCommand(session);
+            case FILE_DATA:
+                return new ReceiveFileDataCommand(session);
+            case STREAM_OPEN:
+                return new ReceiveStreamOpenCommand(session);
+            case STREAM_CHUNK:
+                return new ReceiveStreamChunkCommand(session);
+            case STREAM_RESET:
+                return new ReceiveStreamResetCommand(session);
+            case STREAM_COMPRESSED_CHUNK:
+                return new ReceiveStreamCompressedChunkCommand(session);
+            case STREAM_END:
+                return new ReceiveStreamEndCommand(session);
+            case FILE_REPAIR:
+                return new ReceiveFileRepairCommand(session);
+            case FILE_SIGNATURES:
+                return new ReceiveFileSignaturesCommand(session);
+            case FILE_DELTA:
+                return new ReceiveFileDeltaCommand(session);
+            default:
+                return null;
+        }
+    }
+}
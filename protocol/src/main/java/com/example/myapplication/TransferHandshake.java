@@ -0,0 +1,83 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Matches the answers read by the connection reader with the senders waiting for them, by transfer id.
+ * A sender registers its transfer id before writing the frame to be answered, then blocks until the receiver
+ * answers: FILE_ACCEPT reports the offset from which the file has to be sent, FILE_REPAIR the ranges
+ * of a stream that have to be sent again.
+ *
+ * @param <T> - the type of the answer.
+ */
+public class TransferHandshake<T> {
+    private final ConcurrentHashMap<String, CompletableFuture<T>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The receiver's answer to a file offer.
+     */
+    public static class Accept {
+        public final long committedOffset;
+        public final int rangePort;
+
+        public Accept(long committedOffset, int rangePort) {
+            this.committedOffset = committedOffset;
+            this.rangePort = rangePort;
+        }
+    }
+
+    /**
+     * Registers a transfer whose frame is about to be sent.
+     *
+     * @param transferId - the id of the transfer.
+     */
+    public void expect(String transferId) {
+        pending.put(transferId, new CompletableFuture<>());
+    }
+
+    /**
+     * Completes the handshake of a transfer, called when the answer arrives.
+     *
+     * @param transferId - the id of the answered transfer.
+     * @param answer - the answer of the receiver.
+     * @return - false if no sender was waiting for this transfer.
+     */
+    public boolean complete(String transferId, T answer) {
+        // The answer can arrive before the sender starts waiting, await removes the entry
+        CompletableFuture<T> future = pending.get(transferId);
+        return future != null && future.complete(answer);
+    }
+
+    /**
+     * Waits for the receiver to answer.
+     *
+     * @param transferId - the id of the transfer.
+     * @param timeoutMillis - the maximum time to wait.
+     * @return - the answer of the receiver.
+     * @throws IOException - if the receiver does not answer in time or the wait is interrupted.
+     */
+    public T await(String transferId, long timeoutMillis) throws IOException {
+        CompletableFuture<T> future = pending.get(transferId);
+        if (future == null) {
+            throw new IllegalStateException("Transfer " + transferId + " is not expected");
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("No answer for transfer " + transferId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for transfer " + transferId);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pending.remove(transferId, future);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Persists the state of incoming resumable transfers, so a transfer interrupted by a dropped connection
+ * or a killed process can continue from the last committed byte instead of starting again.
+ * Every transfer is stored as a small properties file named after its transfer id, which is
+ * rewritten atomically whenever the committed offset moves.
+ */
+public class TransferJournal {
+    private static final String SUFFIX = ".partial";
+    private static final String KEY_PATH = "path";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_COMMITTED = "committed";
+
+    private final File directory;
+
+    /**
+     * The journal entry of one incoming transfer.
+     */
+    public static class Entry {
+        public final String transferId;
+        public final String path;
+        public final long size;
+        public final long committed;
+
+        Entry(String transferId, String path, long size, long committed) {
+            this.transferId = transferId;
+            this.path = path;
+            this.size = size;
+            this.committed = committed;
+        }
+    }
+
+    /**
+     * @param directory - the directory holding the journal files, created if missing.
+     */
+    public TransferJournal(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * Returns the entry of a transfer.
+     *
+     * @param transferId - the id of the transfer.
+     * @return - the entry, or null if the transfer is unknown or its journal file is unreadable.
+     */
+    public synchronized Entry find(String transferId) {
+        File journalFile = journalFile(transferId);
+        if (!journalFile.exists()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(journalFile)) {
+            properties.load(in);
+            return new Entry(transferId,
+                    properties.getProperty(KEY_PATH),
+                    Long.parseLong(properties.getProperty(KEY_SIZE)),
+                    Long.parseLong(properties.getProperty(KEY_COMMITTED)));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Starts tracking a transfer with nothing committed yet.
+     *
+     * @param transferId - the id of the transfer.
+     * @param path - the path of the file being written.
+     * @param size - the final size of the file in bytes.
+     * @return - the new entry.
+     * @throws IOException - if the journal file cannot be written.
+     */
+    public synchronized Entry begin(String transferId, String path, long size) throws IOException {
+        Entry entry = new Entry(transferId, path, size, 0);
+        write(entry);
+        return entry;
+    }
+
+    /**
+     * Records that all bytes before the given offset are durably written to the file.
+     *
+     * @param transferId - the id of the transfer.
+     * @param committed - the number of bytes written from the start of the file.
+     * @throws IOException - if the transfer is unknown or the journal file cannot be written.
+     */
+    public synchronized void commit(String transferId, long committed) throws IOException {
+        Entry entry = find(transferId);
+        if (entry == null) {
+            throw new IOException("Unknown transfer " + transferId);
+        }
+        write(new Entry(transferId, entry.path, entry.size, committed));
+    }
+
+    /**
+     * Stops tracking a transfer, after it completed or was cancelled.
+     *
+     * @param transferId - the id of the transfer.
+     */
+    public synchronized void remove(String transferId) {
+        journalFile(transferId).delete();
+    }
+
+    private void write(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_PATH, entry.path);
+        properties.setProperty(KEY_SIZE, Long.toString(entry.size));
+        properties.setProperty(KEY_COMMITTED, Long.toString(entry.committed));
+
+        File journalFile = journalFile(entry.transferId);
+        File tempFile = new File(directory, entry.transferId + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            throw new IOException("Cannot write journal file " + journalFile);
+        }
+    }
+
+    private File journalFile(String transferId) {
+        if (transferId.isEmpty() || transferId.contains("/") || transferId.contains("..")) {
+            throw new IllegalArgumentException("Invalid transfer id: " + transferId);
+        }
+        return new File(directory, transferId + SUFFIX);
+    }
+}
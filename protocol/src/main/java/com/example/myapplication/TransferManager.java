@@ -0,0 +1,334 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Queues outgoing file transfers and runs them on background threads, at most {@link #getMaxConcurrent()} at a time.
+ * Pending transfers start in order of priority, then in the order they were queued; both can be changed while
+ * the transfer waits. The active transfers share the connection chunk by chunk through the {@link FrameWriter},
+ * so each of them gets an even part of the bandwidth. Every change of the queue is reported to the
+ * {@link Listener}, which reads the current state with {@link #getTransfers()}.
+ */
+public class TransferManager {
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    public enum State {
+        QUEUED, ACTIVE, COMPLETED, FAILED, CANCELLED
+    }
+
+    /**
+     * Receives the changes of the queue, on the thread that made the change.
+     */
+    public interface Listener {
+        /** Called when a transfer was queued, started, moved or made progress. */
+        void onTransfersChanged();
+
+        /** Called once when a transfer completed, failed or was cancelled. */
+        void onTransferFinished(Transfer transfer);
+    }
+
+    /**
+     * A queued or running transfer. The command reports its progress to the transfer.
+     */
+    public final class Transfer implements ProgressListener {
+        private final long id;
+        private final String name;
+        private final long totalBytes;
+        private final CancellableCommand command;
+        private volatile int priority;
+        private volatile State state = State.QUEUED;
+        private volatile long bytesTransferred;
+        private volatile double speed;
+        private volatile Exception failure;
+
+        private Transfer(long id, String name, long totalBytes, int priority, Function<ProgressListener, CancellableCommand> commandFactory) {
+            this.id = id;
+            this.name = name;
+            this.totalBytes = totalBytes;
+            this.priority = priority;
+            this.command = commandFactory.apply(this);
+        }
+
+        @Override
+        public void onProgressUpdate(long bytesTransferred, long totalBytes, double speed) {
+            this.bytesTransferred = bytesTransferred;
+            this.speed = speed;
+            notifyChanged();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getBytesTransferred() {
+            return bytesTransferred;
+        }
+
+        public double getSpeed() {
+            return speed;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return - the reason of a failed transfer, or null.
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final List<Transfer> pending = new ArrayList<>();
+    private final List<Transfer> active = new ArrayList<>();
+    private final ExecutorService executor;
+    private volatile Listener listener;
+    private int maxConcurrent;
+    private long nextId = 1;
+
+    public TransferManager(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1");
+        }
+        this.maxConcurrent = maxConcurrent;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a transfer and starts it right away if fewer than the maximum number of transfers are running.
+     *
+     * @param name - the name shown for the transfer.
+     * @param totalBytes - the size of the transfer in bytes.
+     * @param priority - the priority, transfers with a higher priority start first.
+     * @param commandFactory - creates the command running the transfer from the listener of its progress.
+     * @return - the queued transfer.
+     */
+    public Transfer enqueue(String name, long totalBytes, int priority, Function<ProgressListener, CancellableCommand> commandFactory) {
+        Transfer transfer;
+        synchronized (lock) {
+            transfer = new Transfer(nextId++, name, totalBytes, priority, commandFactory);
+            pending.add(insertionIndex(priority), transfer);
+            startPending();
+        }
+        notifyChanged();
+        return transfer;
+    }
+
+    /**
+     * Cancels a transfer. A queued transfer is removed, a running one is stopped by its command.
+     *
+     * @param id - the id of the transfer.
+     * @return - false if the transfer is not queued or running anymore.
+     */
+    public boolean cancel(long id) {
+        Transfer cancelled = null;
+        synchronized (lock) {
+            Transfer transfer = find(pending, id);
+            if (transfer != null) {
+                pending.remove(transfer);
+                transfer.state = State.CANCELLED;
+                cancelled = transfer;
+            } else {
+                transfer = find(active, id);
+                if (transfer == null) {
+                    return false;
+                }
+                transfer.command.cancel();
+            }
+        }
+        if (cancelled != null) {
+            notifyFinished(cancelled);
+            notifyChanged();
+        }
+        return true;
+    }
+
+    /**
+     * Changes the priority of a queued transfer, which moves it behind the transfers of the same priority.
+     *
+     * @param id - the id of the transfer.
+     * @param priority - the new priority.
+     * @return - false if the transfer is not queued anymore.
+     */
+    public boolean setPriority(long id, int priority) {
+        synchronized (lock) {
+            Transfer transfer = find(pending, id);
+            if (transfer == null) {
+                return false;
+            }
+            pending.remove(transfer);
+            transfer.priority = priority;
+            pending.add(insertionIndex(priority), transfer);
+        }
+        notifyChanged();
+        return true;
+    }
+
+    /**
+     * Moves a queued transfer to a position in the queue. It takes the priority of its new neighbours,
+     * so it keeps the position when more transfers are queued.
+     *
+     * @param id - the id of the transfer.
+     * @param position - the new position among the queued transfers, 0 starts next.
+     * @return - false if the transfer is not queued anymore.
+     */
+    public boolean move(long id, int position) {
+        synchronized (lock) {
+            Transfer transfer = find(pending, id);
+            if (transfer == null) {
+                return false;
+            }
+            pending.remove(transfer);
+            position = Math.max(0, Math.min(position, pending.size()));
+            if (position > 0) {
+                transfer.priority = Math.min(transfer.priority, pending.get(position - 1).priority);
+            }
+            if (position < pending.size()) {
+                transfer.priority = Math.max(transfer.priority, pending.get(position).priority);
+            }
+            pending.add(position, transfer);
+        }
+        notifyChanged();
+        return true;
+    }
+
+    /**
+     * Changes the number of transfers running at the same time. Running transfers are not stopped
+     * when the number is lowered, no new one starts until fewer are running.
+     *
+     * @param maxConcurrent - the maximum number of running transfers, at least 1.
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1");
+        }
+        synchronized (lock) {
+            this.maxConcurrent = maxConcurrent;
+            startPending();
+        }
+        notifyChanged();
+    }
+
+    public int getMaxConcurrent() {
+        synchronized (lock) {
+            return maxConcurrent;
+        }
+    }
+
+    /**
+     * @return - a copy of the running transfers followed by the queued transfers in the order they start.
+     */
+    public List<Transfer> getTransfers() {
+        synchronized (lock) {
+            List<Transfer> transfers = new ArrayList<>(active.size() + pending.size());
+            transfers.addAll(active);
+            transfers.addAll(pending);
+            return transfers;
+        }
+    }
+
+    /**
+     * Cancels all transfers and stops the threads.
+     */
+    public void shutdown() {
+        List<Transfer> transfers = getTransfers();
+        for (Transfer transfer : transfers) {
+            cancel(transfer.id);
+        }
+        executor.shutdown();
+    }
+
+    private int insertionIndex(int priority) {
+        int index = 0;
+        while (index < pending.size() && pending.get(index).priority >= priority) {
+            index++;
+        }
+        return index;
+    }
+
+    private static Transfer find(List<Transfer> transfers, long id) {
+        for (Transfer transfer : transfers) {
+            if (transfer.id == id) {
+                return transfer;
+            }
+        }
+        return null;
+    }
+
+    private void startPending() {
+        while (active.size() < maxConcurrent && !pending.isEmpty()) {
+            Transfer transfer = pending.remove(0);
+            transfer.state = State.ACTIVE;
+            active.add(transfer);
+            executor.execute(() -> run(transfer));
+        }
+    }
+
+    private void run(Transfer transfer) {
+        State state;
+        try {
+            transfer.command.execute();
+            state = State.COMPLETED;
+        } catch (CancellationException e) {
+            state = State.CANCELLED;
+        } catch (Exception e) {
+            e.printStackTrace();
+            transfer.failure = e;
+            state = State.FAILED;
+        }
+
+        synchronized (lock) {
+            transfer.state = state;
+            active.remove(transfer);
+            startPending();
+        }
+        notifyFinished(transfer);
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onTransfersChanged();
+        }
+    }
+
+    private void notifyFinished(Transfer transfer) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onTransferFinished(transfer);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.myapplication;
+
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * What the connections of this side sent and received: the time every file chunk took to write to or read from
+ * the socket, the throughput of the last {@link #WINDOW_SECONDS} seconds, the stalls, the chat messages and the
+ * completed transfers. The writers and readers of all sessions record into {@link #DEFAULT}, a stats screen or a
+ * periodic log reads it with {@link #snapshot()}. Recording costs a few atomic increments per chunk or message.
+ */
+public class TransferMetrics {
+    /** A stream going this long without a chunk counts as a stall. */
+    static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /** The window of the throughput and message rates. */
+    static final int WINDOW_SECONDS = 10;
+
+    public static final TransferMetrics DEFAULT = new TransferMetrics();
+
+    final Direction sent = new Direction();
+    final Direction received = new Direction();
+
+    /**
+     * The metrics of one direction of the transfers.
+     */
+    static final class Direction {
+        final LatencyHistogram chunkLatency = new LatencyHistogram();
+        final RollingCounter throughput = new RollingCounter(WINDOW_SECONDS, 1, TimeUnit.SECONDS);
+        final RollingCounter messageRate = new RollingCounter(WINDOW_SECONDS, 1, TimeUnit.SECONDS);
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong stalls = new AtomicLong();
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong transfers = new AtomicLong();
+        final AtomicLong transferBytes = new AtomicLong();
+        final AtomicLong largestTransfer = new AtomicLong();
+
+        /**
+         * Records a chunk of a file written to or read from a connection.
+         *
+         * @param length - the bytes of the chunk.
+         * @param latencyNanos - the time the chunk took to write or read.
+         * @param sincePreviousNanos - the time since the previous chunk of the same stream ended, or since the stream started.
+         */
+        void chunk(long length, long latencyNanos, long sincePreviousNanos) {
+            chunkLatency.record(latencyNanos);
+            throughput.add(length);
+            bytes.addAndGet(length);
+            if (sincePreviousNanos > STALL_NANOS) {
+                stalls.incrementAndGet();
+            }
+        }
+
+        /**
+         * @param count - the chat messages sent or received.
+         */
+        void messages(int count) {
+            messageRate.add(count);
+            messages.addAndGet(count);
+        }
+
+        /**
+         * @param size - the size of the file whose transfer completed.
+         */
+        void transfer(long size) {
+            transfers.incrementAndGet();
+            transferBytes.addAndGet(size);
+            largestTransfer.accumulateAndGet(size, Math::max);
+        }
+
+        DirectionSnapshot snapshot() {
+            return new DirectionSnapshot(this);
+        }
+    }
+
+    /**
+     * The metrics of one direction at the time of the snapshot.
+     */
+    public static final class DirectionSnapshot {
+        /** The chunks written or read so far. */
+        public final long chunks;
+        /** The percentiles of the time to write or read a chunk, in microseconds. */
+        public final long chunkLatencyP50Micros;
+        public final long chunkLatencyP99Micros;
+        public final long chunkLatencyP999Micros;
+        public final long chunkLatencyMaxMicros;
+        /** The file bytes per second over the last {@link #WINDOW_SECONDS} seconds. */
+        public final double bytesPerSecond;
+        public final long bytes;
+        /** The times a stream went more than {@link #STALL_NANOS} without a chunk. */
+        public final long stalls;
+        /** The chat messages per second over the last {@link #WINDOW_SECONDS} seconds. */
+        public final double messagesPerSecond;
+        public final long messages;
+        /** The completed transfers and the sizes of their files. */
+        public final long transfers;
+        public final long averageTransferBytes;
+        public final long largestTransferBytes;
+
+        private DirectionSnapshot(Direction direction) {
+            LatencyHistogram latency = direction.chunkLatency;
+            chunks = latency.getCount();
+            chunkLatencyP50Micros = latency.getPercentileMicros(50);
+            chunkLatencyP99Micros = latency.getPercentileMicros(99);
+            chunkLatencyP999Micros = latency.getPercentileMicros(99.9);
+            chunkLatencyMaxMicros = latency.getMaxMicros();
+            bytesPerSecond = direction.throughput.ratePerSecond();
+            bytes = direction.bytes.get();
+            stalls = direction.stalls.get();
+            messagesPerSecond = direction.messageRate.ratePerSecond();
+            messages = direction.messages.get();
+            transfers = direction.transfers.get();
+            averageTransferBytes = transfers > 0 ? direction.transferBytes.get() / transfers : 0;
+            largestTransferBytes = direction.largestTransfer.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.2f MB/s, %d MB in %d chunks (p50 %.1fms p99 %.1fms p999 %.1fms max %.1fms),"
+                            + " %d stalls, %.1f msg/s, %d messages, %d transfers (avg %d KB, max %d KB)",
+                    bytesPerSecond / (1024 * 1024), bytes / (1024 * 1024), chunks,
+                    chunkLatencyP50Micros / 1000.0, chunkLatencyP99Micros / 1000.0, chunkLatencyP999Micros / 1000.0,
+                    chunkLatencyMaxMicros / 1000.0, stalls, messagesPerSecond, messages, transfers,
+                    averageTransferBytes / 1024, largestTransferBytes / 1024);
+        }
+    }
+
+    /**
+     * The metrics of both directions at one moment.
+     */
+    public static final class Snapshot {
+        public final DirectionSnapshot sent;
+        public final DirectionSnapshot received;
+
+        private Snapshot(DirectionSnapshot sent, DirectionSnapshot received) {
+            this.sent = sent;
+            this.received = received;
+        }
+
+        @Override
+        public String toString() {
+            return "Sent: " + sent + "\nReceived: " + received;
+        }
+    }
+
+    /**
+     * @return - the metrics as they are now, the snapshot does not change afterwards.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(sent.snapshot(), received.snapshot());
+    }
+
+    /**
+     * Writes a snapshot to a log at a fixed rate, until the returned future is cancelled.
+     *
+     * @param executor - runs the logging.
+     * @param period - the time between two snapshots.
+     * @param unit - the unit of the period.
+     * @param log - receives the snapshot as text, e.g. a logger of the platform.
+     * @return - the future of the logging task.
+     */
+    public ScheduledFuture<?> logPeriodically(ScheduledExecutorService executor, long period, TimeUnit unit, Consumer<String> log) {
+        return executor.scheduleAtFixedRate(() -> log.accept(snapshot().toString()), period, period, unit);
+    }
+}
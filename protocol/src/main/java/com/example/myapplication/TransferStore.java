@@ -0,0 +1,51 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Where the receive commands keep the files sent to this side, shared by all its sessions:
+ * the Downloads folder of the app, or the spool directory of the relay server.
+ * The commands only speak the protocol, the store decides where a file goes and who hears about it.
+ */
+public interface TransferStore {
+    /**
+     * @return - the journal of the partially received files.
+     */
+    TransferJournal getTransferJournal();
+
+    /**
+     * @return - the content hashes of the received files, or null if offered files are not deduplicated.
+     */
+    ContentIndex getContentIndex();
+
+    /**
+     * Chooses the destination of an offered file.
+     *
+     * @param fileName - the name of the file, as sent by the peer.
+     * @param fileSize - the size of the file in bytes.
+     * @param transferId - the id of the transfer.
+     * @return - the destination file, which may exist already.
+     * @throws IOException - if there is no place for the file
+     */
+    File prepareFileForWriting(String fileName, long fileSize, String transferId) throws IOException;
+
+    /**
+     * Reserves the space of a destination file and sets its length.
+     *
+     * @param file - the opened destination file.
+     * @param length - the size of the file in bytes.
+     * @throws IOException - if there is not enough space
+     */
+    void preallocate(RandomAccessFile file, long length) throws IOException;
+
+    /**
+     * Called once a file is completely received and verified.
+     *
+     * @param session - the session the file was offered on, also for a file received over parallel range connections.
+     * @param transferId - the id of the transfer.
+     * @param file - the received file.
+     */
+    void onFileReceived(Session session, String transferId, File file);
+}
@@ -0,0 +1,60 @@
+package com.example.myapplication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 variable-length integers, as used for every length field of the v2 wire format.
+ * Values below 128 take a single byte, so short messages and file names cost one byte of length.
+ */
+public final class Varint {
+    public static final int MAX_LONG_SIZE = 10;
+
+    private Varint() {
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the given value.
+     *
+     * @param value - the non-negative value to be encoded.
+     * @return - the encoded size in bytes, between 1 and 10.
+     */
+    public static int sizeOf(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the value into a byte array.
+     *
+     * @param value - the non-negative value to be encoded.
+     * @param dst - the destination array.
+     * @param offset - the index of the first byte to write.
+     * @return - the index just past the last written byte.
+     */
+    public static int write(long value, byte[] dst, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            dst[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Writes the value at the current position of a buffer.
+     *
+     * @param value - the non-negative value to be encoded.
+     * @param dst - the destination buffer.
+     */
+    public static void write(long value, ByteBuffer dst) {
+        while ((value & ~0x7FL) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loopback benchmark of compressed streams, printing the bytes on the wire and the throughput of every mode
+ * for a compressible CSV and for random data. Run it with a file size in MB as the optional first argument.
+ * The "1 thread" mode compresses on a single sender thread; decompression always uses the shared pool.
+ * Loopback is far faster than a real link, so the MB/s show the CPU cost; on a slow link the throughput
+ * of the compressed modes grows with the compression ratio instead.
+ */
+public class BlockCompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 128) * 1024 * 1024;
+        File directory = Files.createTempDirectory("bench").toFile();
+        File csv = new File(directory, "data.csv");
+        File random = new File(directory, "data.bin");
+        Files.write(csv.toPath(), BlockCompressionTest.csv(size));
+        Files.write(random.toPath(), FileChannelTransferTest.randomBytes(size));
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+
+        try {
+            run(directory, csv, size, null); // warm-up
+            System.out.printf("%-8s %-12s %14s %8s %10s%n", "data", "mode", "wire bytes", "ratio", "MB/s");
+            for (File source : new File[]{csv, random}) {
+                for (String mode : new String[]{"plain", "1 thread", "parallel"}) {
+                    ExecutorService pool = mode.equals("plain") ? null : mode.equals("1 thread") ? singleThread : BlockCompression.POOL;
+                    long start = System.nanoTime();
+                    long wireBytes = run(directory, source, size, pool);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%-8s %-12s %14d %8.3f %10.1f%n", source == csv ? "csv" : "random", mode,
+                            wireBytes, (double) wireBytes / size, size / seconds / (1024 * 1024));
+                }
+            }
+        } finally {
+            singleThread.shutdown();
+            for (File file : directory.listFiles()) {
+                if (file.isDirectory()) {
+                    for (File entry : file.listFiles()) {
+                        entry.delete();
+                    }
+                }
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Sends a file as one stream over loopback and writes it into a preallocated file.
+     *
+     * @param pool - the pool compressing the blocks, or null to send plain chunks.
+     * @return - the number of bytes received on the connection.
+     */
+    private static long run(File directory, File source, int size, ExecutorService pool) throws Exception {
+        TransferJournal journal = new TransferJournal(new File(directory, "journal"));
+        File target = new File(directory, "target.bin");
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(size);
+        }
+        TransferJournal.Entry entry = journal.begin("bench", target.getAbsolutePath(), size);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Future<Long> received = executor.submit(() -> receive(serverSocket, journal, entry));
+
+            try (SocketChannel socket = SocketChannel.open(serverSocket.getLocalAddress());
+                 FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+                FrameWriter writer = new FrameWriter("bench-writer", socket);
+                writer.start();
+                ChunkSource chunkSource = pool == null
+                        ? ChunkSource.ofFileChannel(fileChannel, 0, size)
+                        : new CompressingChunkSource(fileChannel, null, size, pool, 2 * BlockCompression.POOL.getParallelism());
+                writer.openStream("bench", 0, chunkSource, null).get();
+                long wireBytes = received.get();
+                writer.close();
+                return wireBytes;
+            }
+        } finally {
+            executor.shutdown();
+            journal.remove("bench");
+        }
+    }
+
+    private static long receive(ServerSocketChannel serverSocket, TransferJournal journal, TransferJournal.Entry entry) throws IOException {
+        SocketChannel socket = serverSocket.accept();
+        try {
+            long[] wireBytes = new long[1];
+            FrameDecoder decoder = new FrameDecoder(new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int read = socket.read(dst);
+                    wireBytes[0] += Math.max(read, 0);
+                    return read;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return socket.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    socket.close();
+                }
+            });
+
+            decoder.readFrameType();
+            decoder.readVarint();
+            decoder.readString();
+            InboundStream stream = new InboundStream(journal, entry, decoder.readFileLength(), decoder.readFileLength());
+            FrameType frameType;
+            while ((frameType = decoder.readFrameType()) != FrameType.STREAM_END) {
+                decoder.readVarint();
+                if (frameType == FrameType.STREAM_COMPRESSED_CHUNK) {
+                    stream.receiveCompressedChunk(decoder, (int) decoder.readVarint(), (int) decoder.readVarint(), decoder.readInt());
+                } else {
+                    stream.receiveChunk(decoder, (int) decoder.readVarint(), decoder.readInt());
+                }
+            }
+            decoder.readVarint();
+            byte[] digest = new byte[ChunkChecksums.DIGEST_LENGTH];
+            decoder.readFully(digest, 0, digest.length);
+            if (!stream.finish(digest).isEmpty()) {
+                throw new IOException("Stream arrived corrupted");
+            }
+            stream.close();
+            return wireBytes[0];
+        } finally {
+            socket.close();
+        }
+    }
+}
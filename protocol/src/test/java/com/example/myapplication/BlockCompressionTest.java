@@ -0,0 +1,155 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class BlockCompressionTest {
+    private File directory;
+    private TransferJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("compression").toFile();
+        journal = new TransferJournal(new File(directory, "journal"));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                for (File entry : file.listFiles()) {
+                    entry.delete();
+                }
+            }
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void block_roundTrips() throws Exception {
+        byte[] raw = csv(FrameWriter.CHUNK_SIZE);
+        byte[] compressed = new byte[raw.length];
+        int compressedLength = BlockCompression.compress(raw, raw.length, compressed);
+        assertTrue(compressedLength > 0 && compressedLength < raw.length / 2);
+
+        byte[] decompressed = new byte[raw.length];
+        BlockCompression.decompress(compressed, compressedLength, decompressed, raw.length);
+        assertArrayEquals(raw, decompressed);
+    }
+
+    @Test
+    public void randomBlock_isNotCompressed() {
+        byte[] raw = FileChannelTransferTest.randomBytes(FrameWriter.CHUNK_SIZE);
+        assertEquals(-1, BlockCompression.compress(raw, raw.length, new byte[raw.length]));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptBlock_fails() throws Exception {
+        byte[] raw = csv(1000);
+        byte[] compressed = new byte[raw.length];
+        int compressedLength = BlockCompression.compress(raw, raw.length, compressed);
+        BlockCompression.decompress(compressed, compressedLength / 2, new byte[raw.length], raw.length);
+    }
+
+    @Test
+    public void compressedFormats_areRecognizedByExtension() {
+        assertTrue(BlockCompression.isCompressedFormat("holiday.JPG"));
+        assertTrue(BlockCompression.isCompressedFormat("movie.mkv"));
+        assertTrue(BlockCompression.isCompressedFormat("song.mp3"));
+        assertFalse(BlockCompression.isCompressedFormat("server.log"));
+        assertFalse(BlockCompression.isCompressedFormat("table.csv"));
+        assertFalse(BlockCompression.isCompressedFormat("README"));
+    }
+
+    @Test
+    public void compressedStream_isReassembledAndGivesUpOnRandomData() throws Exception {
+        byte[] text = csv(20 * FrameWriter.CHUNK_SIZE + 123);
+        byte[] random = FileChannelTransferTest.randomBytes(20 * FrameWriter.CHUNK_SIZE);
+        byte[] content = new byte[text.length + random.length];
+        System.arraycopy(text, 0, content, 0, text.length);
+        System.arraycopy(random, 0, content, text.length, random.length);
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter("writer-test", Channels.newChannel(wire));
+        writer.start();
+        writer.openStream("t1", 0, ChunkSource.compressed(new ByteArrayInputStream(content), content.length), null)
+                .get(10, TimeUnit.SECONDS);
+        writer.close();
+
+        File file = new File(directory, "t1.bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(content.length);
+        }
+        TransferJournal.Entry entry = journal.begin("t1", file.getAbsolutePath(), content.length);
+
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(wire.toByteArray()));
+        assertEquals(FrameType.STREAM_OPEN, decoder.readFrameType());
+        decoder.readVarint();
+        decoder.readString();
+        InboundStream stream = new InboundStream(journal, entry, decoder.readFileLength(), decoder.readFileLength());
+        int compressedChunks = 0;
+        int plainChunks = 0;
+        FrameType frameType;
+        while ((frameType = decoder.readFrameType()) != FrameType.STREAM_END) {
+            decoder.readVarint();
+            if (frameType == FrameType.STREAM_COMPRESSED_CHUNK) {
+                compressedChunks++;
+                stream.receiveCompressedChunk(decoder, (int) decoder.readVarint(), (int) decoder.readVarint(), decoder.readInt());
+            } else {
+                assertEquals(FrameType.STREAM_CHUNK, frameType);
+                plainChunks++;
+                stream.receiveChunk(decoder, (int) decoder.readVarint(), decoder.readInt());
+            }
+        }
+        decoder.readVarint();
+        byte[] digest = new byte[ChunkChecksums.DIGEST_LENGTH];
+        decoder.readFully(digest, 0, digest.length);
+        assertTrue(stream.finish(digest).isEmpty());
+        stream.close();
+
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(content.length, journal.find("t1").committed);
+        // The block mixing the end of the text with random bytes does not shrink either
+        assertEquals(20, compressedChunks);
+        assertEquals(21, plainChunks);
+        assertTrue(wire.size() < text.length / 2 + random.length + 1024);
+    }
+
+    /**
+     * Generates a log-like CSV, which compresses well but not trivially.
+     *
+     * @param size - the number of bytes.
+     * @return - the bytes.
+     */
+    static byte[] csv(int size) {
+        StringBuilder builder = new StringBuilder(size + 100);
+        Random random = new Random(size);
+        for (int row = 0; builder.length() < size; row++) {
+            builder.append(row).append(",2024-05-").append(10 + row % 20).append("T12:").append(random.nextInt(60))
+                    .append(",sensor-").append(random.nextInt(16)).append(',').append(random.nextInt(100000) / 100.0)
+                    .append(",OK\n");
+        }
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] result = new byte[size];
+        System.arraycopy(bytes, 0, result, 0, size);
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+    @Test
+    public void releasedBuffer_isReusedAndCleared() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        buffer.putInt(42).flip();
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1024, reused.limit());
+    }
+
+    @Test
+    public void pool_isBounded() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        ByteBuffer c = pool.acquire();
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(2, pool.available());
+    }
+
+    @Test
+    public void foreignBuffers_areNotPooled() {
+        BufferPool pool = new BufferPool(1024, 2);
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocateDirect(512));
+        assertEquals(0, pool.available());
+        assertNotSame(pool.acquire(), pool.acquire());
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Benchmark of the stream checksums. It prints the single-thread throughput of CRC-32C, of java.util.zip.CRC32
+ * for comparison and of SHA-256, then the loopback throughput of a stream whose receiver verifies every chunk
+ * against one that only writes the chunks. Run it with a file size in MB as the optional first argument.
+ * With the hashing pipelined the verified stream should stay close to the unverified one on a multi-core
+ * device, while hashing inline would add the SHA-256 time to every chunk.
+ */
+public class ChecksumBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 128) * 1024 * 1024;
+        byte[] content = FileChannelTransferTest.randomBytes(size);
+        File directory = Files.createTempDirectory("bench").toFile();
+        File source = new File(directory, "data.bin");
+        Files.write(source.toPath(), content);
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                // The first round warms up
+                boolean print = round == 1;
+                measure("CRC-32C", size, print, () -> ChunkChecksums.crc32c(content, 0, content.length));
+                measure("CRC32", size, print, () -> {
+                    CRC32 crc = new CRC32();
+                    crc.update(content, 0, content.length);
+                });
+                measure("SHA-256", size, print, () -> {
+                    MessageDigest digest = ChunkChecksums.newDigest();
+                    digest.update(content, 0, content.length);
+                    digest.digest();
+                });
+                measure("stream, unverified", size, print, () -> run(directory, source, size, false));
+                measure("stream, verified", size, print, () -> run(directory, source, size, true));
+            }
+        } finally {
+            for (File file : directory.listFiles()) {
+                if (file.isDirectory()) {
+                    for (File entry : file.listFiles()) {
+                        entry.delete();
+                    }
+                }
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void measure(String name, int size, boolean print, Task task) throws Exception {
+        long start = System.nanoTime();
+        task.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (print) {
+            System.out.printf("%-20s %10.1f MB/s%n", name, size / seconds / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Sends a file as one stream over loopback and writes it into a preallocated file.
+     *
+     * @param verify - whether the receiver verifies the chunks, otherwise it writes them and ignores the checksums.
+     */
+    private static void run(File directory, File source, int size, boolean verify) throws Exception {
+        TransferJournal journal = new TransferJournal(new File(directory, "journal"));
+        File target = new File(directory, "target.bin");
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(size);
+        }
+        TransferJournal.Entry entry = journal.begin("bench", target.getAbsolutePath(), size);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Future<Void> received = executor.submit(() -> {
+                receive(serverSocket, journal, entry, verify);
+                return null;
+            });
+
+            try (SocketChannel socket = SocketChannel.open(serverSocket.getLocalAddress());
+                 FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+                FrameWriter writer = new FrameWriter("bench-writer", socket);
+                writer.start();
+                writer.openStream("bench", 0, ChunkSource.ofFileChannel(fileChannel, 0, size), null).get();
+                received.get();
+                writer.close();
+            }
+        } finally {
+            executor.shutdown();
+            journal.remove("bench");
+        }
+    }
+
+    private static void receive(ServerSocketChannel serverSocket, TransferJournal journal, TransferJournal.Entry entry, boolean verify) throws IOException {
+        try (SocketChannel socket = serverSocket.accept()) {
+            FrameDecoder decoder = new FrameDecoder(socket);
+            decoder.readFrameType();
+            decoder.readVarint();
+            decoder.readString();
+            long position = decoder.readFileLength();
+            InboundStream stream = new InboundStream(journal, entry, position, decoder.readFileLength());
+            try (RandomAccessFile file = new RandomAccessFile(entry.path, "rw")) {
+                while (decoder.readFrameType() == FrameType.STREAM_CHUNK) {
+                    decoder.readVarint();
+                    int length = (int) decoder.readVarint();
+                    int checksum = decoder.readInt();
+                    if (verify) {
+                        stream.receiveChunk(decoder, length, checksum);
+                    } else {
+                        decoder.transferTo(file.getChannel(), position, length);
+                    }
+                    position += length;
+                }
+            }
+            decoder.readVarint();
+            byte[] digest = new byte[ChunkChecksums.DIGEST_LENGTH];
+            decoder.readFully(digest, 0, digest.length);
+            if (verify && !stream.finish(digest).isEmpty()) {
+                throw new IOException("Stream arrived corrupted");
+            }
+            stream.close();
+        }
+    }
+}
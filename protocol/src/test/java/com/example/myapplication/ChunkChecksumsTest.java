@@ -0,0 +1,189 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ChunkChecksumsTest {
+    private File directory;
+    private TransferJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("checksums").toFile();
+        journal = new TransferJournal(new File(directory, "journal"));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                for (File entry : file.listFiles()) {
+                    entry.delete();
+                }
+            }
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void crc32c_matchesKnownValues() {
+        assertEquals(0xE3069283, ChunkChecksums.crc32c("123456789".getBytes(StandardCharsets.US_ASCII), 0, 9));
+        assertEquals(0x8A9136AA, ChunkChecksums.crc32c(new byte[32], 0, 32));
+        assertEquals(0, ChunkChecksums.crc32c(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void crc32c_ofBufferMatchesArray() {
+        byte[] bytes = FileChannelTransferTest.randomBytes(100_003);
+        Crc32c crc = new Crc32c();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        crc.update(buffer, new byte[4096]);
+        assertEquals(ChunkChecksums.crc32c(bytes, 0, bytes.length), (int) crc.getValue());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void fileChannelSource_digestMatchesContent() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(3 * FrameWriter.CHUNK_SIZE + 7);
+        File source = new File(directory, "source.bin");
+        Files.write(source.toPath(), content);
+        TransferJournal.Entry entry = beginTransfer("t1", content.length);
+
+        try (FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+            byte[] wire = send(ChunkSource.ofFileChannel(fileChannel, 0, content.length), 0);
+            assertTrue(receive(wire, entry, -1).isEmpty());
+        }
+        assertArrayEquals(content, Files.readAllBytes(new File(entry.path).toPath()));
+        assertEquals(content.length, journal.find("t1").committed);
+    }
+
+    @Test
+    public void corruptedChunk_isReportedAndRepaired() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(5 * FrameWriter.CHUNK_SIZE + 100);
+        TransferJournal.Entry entry = beginTransfer("t1", content.length);
+
+        List<long[]> badRanges = receive(send(ChunkSource.ofStream(new ByteArrayInputStream(content), content.length), 0), entry, 2);
+        assertEquals(1, badRanges.size());
+        assertEquals(2 * FrameWriter.CHUNK_SIZE, badRanges.get(0)[0]);
+        assertEquals(FrameWriter.CHUNK_SIZE, badRanges.get(0)[1]);
+        // Nothing after the corrupted chunk is committed
+        assertEquals(2 * FrameWriter.CHUNK_SIZE, journal.find("t1").committed);
+        Map<String, List<long[]>> pendingRepairs = new HashMap<>();
+        assertFalse(ReceiveStreamEndCommand.updateRepairs(pendingRepairs, "t1", 0, content.length, badRanges, true));
+
+        int offset = 2 * FrameWriter.CHUNK_SIZE;
+        ChunkSource repair = ChunkSource.ofStream(new ByteArrayInputStream(content, offset, FrameWriter.CHUNK_SIZE), FrameWriter.CHUNK_SIZE);
+        List<long[]> repairBadRanges = receive(send(repair, offset), journal.find("t1"), -1);
+        assertTrue(repairBadRanges.isEmpty());
+        assertTrue(ReceiveStreamEndCommand.updateRepairs(pendingRepairs, "t1", offset, offset + FrameWriter.CHUNK_SIZE, repairBadRanges, false));
+        assertArrayEquals(content, Files.readAllBytes(new File(entry.path).toPath()));
+    }
+
+    @Test
+    public void corruptedCompressedChunk_isReported() throws Exception {
+        byte[] content = BlockCompressionTest.csv(4 * FrameWriter.CHUNK_SIZE);
+        TransferJournal.Entry entry = beginTransfer("t1", content.length);
+
+        List<long[]> badRanges = receive(send(ChunkSource.compressed(new ByteArrayInputStream(content), content.length), 0), entry, 1);
+        assertEquals(1, badRanges.size());
+        assertEquals(FrameWriter.CHUNK_SIZE, badRanges.get(0)[0]);
+        assertEquals(FrameWriter.CHUNK_SIZE, badRanges.get(0)[1]);
+    }
+
+    @Test
+    public void wrongDigest_failsWholeStream() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(2 * FrameWriter.CHUNK_SIZE);
+        TransferJournal.Entry entry = beginTransfer("t1", content.length);
+        byte[] wire = send(ChunkSource.ofStream(new ByteArrayInputStream(content), content.length), 0);
+        wire[wire.length - 1] ^= 1;
+
+        List<long[]> badRanges = receive(wire, entry, -1);
+        assertEquals(1, badRanges.size());
+        assertEquals(0, badRanges.get(0)[0]);
+        assertEquals(content.length, badRanges.get(0)[1]);
+        assertEquals(0, journal.find("t1").committed);
+    }
+
+    private TransferJournal.Entry beginTransfer(String transferId, long size) throws IOException {
+        File file = new File(directory, transferId + ".bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(size);
+        }
+        return journal.begin(transferId, file.getAbsolutePath(), size);
+    }
+
+    private static byte[] send(ChunkSource source, long offset) throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter("writer-test", Channels.newChannel(wire));
+        writer.start();
+        writer.openStream("t1", offset, source, null).get(10, TimeUnit.SECONDS);
+        writer.close();
+        return wire.toByteArray();
+    }
+
+    /**
+     * Receives a stream like the connection reader does, flipping a bit in one of its chunks on the way.
+     *
+     * @param wire - the frames of the stream.
+     * @param entry - the journal entry of the transfer.
+     * @param corruptedChunk - the index of the chunk to corrupt, or -1.
+     * @return - the ranges the stream reports as corrupted.
+     */
+    private List<long[]> receive(byte[] wire, TransferJournal.Entry entry, int corruptedChunk) throws IOException {
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(wire));
+        assertEquals(FrameType.STREAM_OPEN, decoder.readFrameType());
+        decoder.readVarint();
+        decoder.readString();
+        InboundStream stream = new InboundStream(journal, entry, decoder.readFileLength(), decoder.readFileLength());
+        int chunk = 0;
+        FrameType frameType;
+        while ((frameType = decoder.readFrameType()) != FrameType.STREAM_END) {
+            decoder.readVarint();
+            int rawLength = (int) decoder.readVarint();
+            int length = frameType == FrameType.STREAM_COMPRESSED_CHUNK ? (int) decoder.readVarint() : rawLength;
+            int checksum = decoder.readInt();
+            byte[] body = new byte[length];
+            decoder.readFully(body, 0, length);
+            if (chunk++ == corruptedChunk) {
+                body[length / 2] ^= 1;
+            }
+            FrameDecoder bodyDecoder = new FrameDecoder(new ByteArrayInputStream(body));
+            if (frameType == FrameType.STREAM_COMPRESSED_CHUNK) {
+                stream.receiveCompressedChunk(bodyDecoder, rawLength, length, checksum);
+            } else {
+                stream.receiveChunk(bodyDecoder, length, checksum);
+            }
+        }
+        decoder.readVarint();
+        byte[] digest = new byte[ChunkChecksums.DIGEST_LENGTH];
+        decoder.readFully(digest, 0, digest.length);
+        try {
+            return stream.finish(digest);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConnectionReaderTest {
+    private static final int LOAD_MESSAGES = 20000;
+
+    private ServerSocketChannel serverSocket;
+    private SocketChannel clientSide;
+    private SocketChannel serverSide;
+
+    private final AtomicInteger received = new AtomicInteger();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private final AtomicReference<IOException> disconnectCause = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", 0));
+        clientSide = SocketChannel.open(serverSocket.getLocalAddress());
+        serverSide = serverSocket.accept();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        clientSide.close();
+        serverSide.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void idleReader_usesNoCpu() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ConnectionReader reader = startReader();
+
+        Thread.sleep(100);
+        long idleStart = threads.getThreadCpuTime(reader.getThreadId());
+        Thread.sleep(1000);
+        long idleCpu = threads.getThreadCpuTime(reader.getThreadId()) - idleStart;
+
+        long loadStart = threads.getThreadCpuTime(reader.getThreadId());
+        byte[] frame = FrameEncoder.encodeMessage("load");
+        ByteBuffer burst = ByteBuffer.allocate(frame.length * LOAD_MESSAGES);
+        for (int i = 0; i < LOAD_MESSAGES; i++) {
+            burst.put(frame);
+        }
+        burst.flip();
+        while (burst.hasRemaining()) {
+            clientSide.write(burst);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.get() < LOAD_MESSAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        long loadCpu = threads.getThreadCpuTime(reader.getThreadId()) - loadStart;
+
+        System.out.printf("Reader CPU time: idle %.2f ms/s, load %.2f ms for %d messages%n",
+                idleCpu / 1e6, loadCpu / 1e6, LOAD_MESSAGES);
+        assertEquals(LOAD_MESSAGES, received.get());
+        // A busy-polling reader burns close to 1000 ms of CPU per second of idle time
+        assertTrue("Idle reader used " + idleCpu / 1e6 + " ms of CPU", idleCpu < TimeUnit.MILLISECONDS.toNanos(50));
+        reader.shutdown();
+    }
+
+    @Test
+    public void shutdown_stopsReaderThread() throws Exception {
+        ConnectionReader reader = startReader();
+        reader.shutdown();
+
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS));
+        assertFalse(reader.isRunning());
+        assertNull(disconnectCause.get());
+    }
+
+    @Test
+    public void peerClose_endsReaderCleanly() throws Exception {
+        ConnectionReader reader = startReader();
+        clientSide.write(ByteBuffer.wrap(FrameEncoder.encodeMessage("bye")));
+        clientSide.close();
+
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS));
+        assertEquals(1, received.get());
+        assertNull(disconnectCause.get());
+        assertFalse(reader.isRunning());
+    }
+
+    private ConnectionReader startReader() {
+        ConnectionReader reader = new ConnectionReader("test-reader", new FrameDecoder(serverSide), serverSide,
+                new ConnectionReader.FrameHandler() {
+                    @Override
+                    public void onFrame(FrameType frameType, FrameDecoder decoder) throws IOException {
+                        decoder.readString();
+                        received.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onDisconnected(IOException cause) {
+                        disconnectCause.set(cause);
+                        disconnected.countDown();
+                    }
+                });
+        reader.start();
+        return reader;
+    }
+}
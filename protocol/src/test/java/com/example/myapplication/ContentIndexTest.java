@@ -0,0 +1,91 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public class ContentIndexTest {
+    private File directory;
+    private File downloads;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("index").toFile();
+        downloads = new File(directory, "Download");
+        downloads.mkdirs();
+        indexFile = new File(directory, "content-index");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                for (File entry : file.listFiles()) {
+                    entry.delete();
+                }
+            }
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void hash_isCachedBySizeAndModificationTime() throws Exception {
+        File file = new File(downloads, "asset.bin");
+        byte[] content = FileChannelTransferTest.randomBytes(100_000);
+        Files.write(file.toPath(), content);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(content);
+        assertArrayEquals(expected, new ContentIndex(indexFile).hash(file));
+
+        // Same size and time: a new index over the same file trusts the cached hash without reading the file
+        long lastModified = file.lastModified();
+        Files.write(file.toPath(), new byte[content.length]);
+        file.setLastModified(lastModified);
+        assertArrayEquals(expected, new ContentIndex(indexFile).hash(file));
+
+        file.setLastModified(lastModified + 5000);
+        assertFalse(Arrays.equals(expected, new ContentIndex(indexFile).hash(file)));
+    }
+
+    @Test
+    public void find_matchesContentNotName() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(50_000);
+        byte[] other = content.clone();
+        other[0] ^= 1;
+        Files.write(new File(downloads, "other.bin").toPath(), other);
+        Files.write(new File(downloads, "small.bin").toPath(), new byte[10]);
+        File copy = new File(downloads, "renamed.bin");
+        Files.write(copy.toPath(), content);
+        ContentIndex index = new ContentIndex(indexFile);
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+
+        assertEquals(copy, index.find(hash, content.length, downloads));
+        assertNull(index.find(hash, content.length + 1, downloads));
+        assertNull(index.find(new byte[ChunkChecksums.DIGEST_LENGTH], content.length, downloads));
+    }
+
+    @Test
+    public void materialize_createsFileWithSameContent() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(10_000);
+        File source = new File(downloads, "source.bin");
+        Files.write(source.toPath(), content);
+        File target = new File(downloads, "target.bin");
+        Files.write(target.toPath(), new byte[3]);
+
+        ReceiveFileOfferCommand.materialize(source, target);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(source.toPath()));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+public class DeltaEncoderTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("delta").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void roll_matchesChecksumOfShiftedWindow() {
+        byte[] bytes = FileChannelTransferTest.randomBytes(10_000);
+        int length = 2048;
+        int checksum = BlockSignatures.weakChecksum(bytes, 0, length);
+        for (int offset = 1; offset + length <= bytes.length; offset++) {
+            checksum = BlockSignatures.roll(checksum, bytes[offset - 1], bytes[offset + length - 1], length);
+            assertEquals("offset " + offset, BlockSignatures.weakChecksum(bytes, offset, length), checksum);
+        }
+    }
+
+    @Test
+    public void delta_rebuildsEditedFileFromOlderVersion() throws Exception {
+        byte[] older = FileChannelTransferTest.randomBytes(3 * 1024 * 1024 + 5);
+        // The newer version has bytes inserted near the start, one byte changed in the middle and a cut tail
+        byte[] inserted = new byte[777];
+        new Random(7).nextBytes(inserted);
+        int tail = 100_000;
+        byte[] newer = new byte[older.length + inserted.length - tail];
+        System.arraycopy(older, 0, newer, 0, 5000);
+        System.arraycopy(inserted, 0, newer, 5000, inserted.length);
+        System.arraycopy(older, 5000, newer, 5000 + inserted.length, older.length - 5000 - tail);
+        newer[newer.length / 2] ^= 1;
+
+        File basis = new File(directory, "older.bin");
+        Files.write(basis.toPath(), older);
+        BlockSignatures signatures = BlockSignatures.compute(basis, BlockSignatures.chooseBlockSize(older.length));
+        List<long[]> copies = DeltaEncoder.computeCopies(signatures, new ByteArrayInputStream(newer), newer.length);
+        List<long[]> literals = DeltaEncoder.missingRanges(copies, newer.length);
+
+        long literalBytes = 0;
+        for (long[] range : literals) {
+            literalBytes += range[1];
+        }
+        // The edits cost a few blocks, not the file
+        assertTrue(literalBytes + " literal bytes", literalBytes <= 4L * signatures.blockSize + inserted.length);
+
+        File target = new File(directory, "newer.bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(target, "rw")) {
+            randomAccessFile.setLength(newer.length);
+            ReceiveFileDeltaCommand.applyCopies(basis, target, copies);
+            for (long[] range : literals) {
+                randomAccessFile.seek(range[0]);
+                randomAccessFile.write(newer, (int) range[0], (int) range[1]);
+            }
+        }
+        assertArrayEquals(newer, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void unrelatedFile_isSentAsLiterals() throws Exception {
+        byte[] older = FileChannelTransferTest.randomBytes(1024 * 1024);
+        byte[] newer = new byte[older.length];
+        new Random(11).nextBytes(newer);
+        File basis = new File(directory, "older.bin");
+        Files.write(basis.toPath(), older);
+
+        BlockSignatures signatures = BlockSignatures.compute(basis, BlockSignatures.chooseBlockSize(older.length));
+        List<long[]> copies = DeltaEncoder.computeCopies(signatures, new ByteArrayInputStream(newer), newer.length);
+
+        assertTrue(copies.isEmpty());
+        List<long[]> literals = DeltaEncoder.missingRanges(copies, newer.length);
+        assertEquals(1, literals.size());
+        assertEquals(0, literals.get(0)[0]);
+        assertEquals(newer.length, literals.get(0)[1]);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FileChannelTransferTest {
+    private ServerSocketChannel serverSocket;
+    private SocketChannel sender;
+    private SocketChannel receiver;
+    private File sourceFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", 0));
+        sender = SocketChannel.open(serverSocket.getLocalAddress());
+        receiver = serverSocket.accept();
+        sourceFile = File.createTempFile("transfer", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        sender.close();
+        receiver.close();
+        serverSocket.close();
+        sourceFile.delete();
+    }
+
+    @Test
+    public void send_streamsWholeFileAndReportsProgress() throws Exception {
+        byte[] content = randomBytes(20 * 1024 * 1024 + 17);
+        Files.write(sourceFile.toPath(), content);
+        Future<byte[]> received = executor.submit(() -> readFully(receiver, content.length));
+        AtomicLong lastProgress = new AtomicLong();
+
+        try (FileChannel fileChannel = new RandomAccessFile(sourceFile, "r").getChannel()) {
+            FileChannelTransfer.send(fileChannel, 0, content.length, sender,
+                    (bytesTransferred, totalBytes, speed) -> lastProgress.set(bytesTransferred));
+        }
+
+        assertArrayEquals(content, received.get());
+        assertEquals(content.length, lastProgress.get());
+    }
+
+    @Test
+    public void send_fromOffset() throws Exception {
+        byte[] content = randomBytes(4096);
+        Files.write(sourceFile.toPath(), content);
+        Future<byte[]> received = executor.submit(() -> readFully(receiver, 1000));
+
+        try (FileChannel fileChannel = new RandomAccessFile(sourceFile, "r").getChannel()) {
+            FileChannelTransfer.send(fileChannel, 3000, 1000, sender, null);
+        }
+
+        byte[] expected = new byte[1000];
+        System.arraycopy(content, 3000, expected, 0, 1000);
+        assertArrayEquals(expected, received.get());
+    }
+
+    @Test(expected = EOFException.class)
+    public void send_failsWhenFileIsShorterThanAnnounced() throws Exception {
+        Files.write(sourceFile.toPath(), randomBytes(100));
+        try (FileChannel fileChannel = new RandomAccessFile(sourceFile, "r").getChannel()) {
+            FileChannelTransfer.send(fileChannel, 0, 200, sender, null);
+        }
+    }
+
+    @Test
+    public void receive_writesBufferedAndStreamedBytesIntoPreallocatedFile() throws Exception {
+        byte[] content = randomBytes(20 * 1024 * 1024 + 5);
+        ByteBuffer frame = ByteBuffer.allocate(content.length + 64);
+        frame.put(FrameEncoder.encodeFileHeader("a.bin", content.length)).put(content).flip();
+        Future<?> sent = executor.submit(() -> {
+            while (frame.hasRemaining()) {
+                sender.write(frame);
+            }
+            return null;
+        });
+
+        FrameDecoder decoder = new FrameDecoder(receiver);
+        assertEquals(FrameType.FILE, decoder.readFrameType());
+        assertEquals("a.bin", decoder.readString());
+        long length = decoder.readFileLength();
+        AtomicLong lastProgress = new AtomicLong();
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "rw")) {
+            file.setLength(length);
+            FileChannelTransfer.receive(decoder, file.getChannel(), 0, length,
+                    (bytesTransferred, totalBytes, speed) -> lastProgress.set(bytesTransferred));
+        }
+        sent.get();
+
+        assertArrayEquals(content, Files.readAllBytes(sourceFile.toPath()));
+        assertEquals(content.length, lastProgress.get());
+    }
+
+    @Test(expected = EOFException.class)
+    public void receive_failsWhenConnectionClosesEarly() throws Exception {
+        sender.write(ByteBuffer.wrap(randomBytes(100)));
+        sender.close();
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "rw")) {
+            file.setLength(200);
+            FileChannelTransfer.receive(new FrameDecoder(receiver), file.getChannel(), 0, 200, null);
+        }
+    }
+
+    static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFully(SocketChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loopback benchmark of the {@link FlushPolicy} choices for a typing-heavy chat: bursts of one to eight short
+ * messages with pauses of half a millisecond on average in between. For every policy it prints the writes and the
+ * TCP segments per message, the latter counted by the kernel for both directions, so they include the ACKs,
+ * and the median and 99th percentile time from queuing a message until the peer decoded it.
+ * The first row writes every frame on its own with Nagle's algorithm on, as the connection did before.
+ * Run it with the number of messages as the optional first argument.
+ */
+public class FlushPolicyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        List<FlushPolicy> policies = Arrays.asList(FlushPolicy.coalesce(0, 1), FlushPolicy.IMMEDIATE,
+                FlushPolicy.coalesce(200, 4 * 1024), FlushPolicy.coalesce(1000, 16 * 1024));
+
+        run(FlushPolicy.IMMEDIATE, true, messages / 4, false); // warm-up
+        System.out.printf("%-24s %8s %10s %10s %10s%n", "policy", "nodelay", "writes/msg", "segs/msg", "p50/p99 us");
+        run(policies.get(0), false, messages, true);
+        for (FlushPolicy policy : policies) {
+            run(policy, true, messages, true);
+        }
+    }
+
+    private static void run(FlushPolicy policy, boolean noDelay, int messages, boolean print) throws Exception {
+        long[] latencies = new long[messages];
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Future<Void> received = executor.submit(() -> {
+                receive(serverSocket, latencies);
+                return null;
+            });
+
+            try (SocketChannel socket = SocketChannel.open(serverSocket.getLocalAddress())) {
+                socket.socket().setTcpNoDelay(noDelay);
+                FrameWriterTest.CountingChannel counting = new FrameWriterTest.CountingChannel(socket);
+                FrameWriter writer = new FrameWriter("bench-writer", counting, policy);
+                writer.start();
+                long segments = outSegments();
+
+                Random random = new Random(42);
+                for (int sent = 0; sent < messages; ) {
+                    int burst = Math.min(1 + random.nextInt(8), messages - sent);
+                    for (int i = 0; i < burst; i++, sent++) {
+                        writer.send(FrameEncoder.encodeMessage(System.nanoTime() + " typing message " + sent));
+                    }
+                    LockSupport.parkNanos((long) (-Math.log(1 - random.nextDouble()) * 500_000));
+                }
+                received.get();
+                segments = outSegments() - segments;
+                writer.close();
+
+                if (print) {
+                    Arrays.sort(latencies);
+                    System.out.printf("%-24s %8s %10.2f %10.2f %5d/%d%n", policy, noDelay,
+                            counting.writes / (double) messages, segments / (double) messages,
+                            latencies[messages / 2] / 1000, latencies[messages * 99 / 100] / 1000);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void receive(ServerSocketChannel serverSocket, long[] latencies) throws IOException {
+        try (SocketChannel socket = serverSocket.accept()) {
+            FrameDecoder decoder = new FrameDecoder(socket);
+            for (int i = 0; i < latencies.length; i++) {
+                decoder.readFrameType();
+                String message = decoder.readString();
+                latencies[i] = System.nanoTime() - Long.parseLong(message.substring(0, message.indexOf(' ')));
+            }
+        }
+    }
+
+    /**
+     * @return - the TCP segments the kernel sent so far, or 0 where /proc/net/snmp cannot be read.
+     */
+    private static long outSegments() {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get("/proc/net/snmp"), StandardCharsets.UTF_8);
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (lines.get(i).startsWith("Tcp:") && lines.get(i + 1).startsWith("Tcp:")) {
+                    int column = Arrays.asList(lines.get(i).split(" ")).indexOf("OutSegs");
+                    return Long.parseLong(lines.get(i + 1).split(" ")[column]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux
+        }
+        return 0;
+    }
+}
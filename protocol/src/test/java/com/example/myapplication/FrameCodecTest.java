@@ -0,0 +1,158 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+public class FrameCodecTest {
+
+    @Test
+    public void message_roundTripsNonAsciiText() throws IOException {
+        String text = "Здравей, свят! 😀";
+        FrameDecoder decoder = decoderOf(FrameEncoder.encodeMessage(text));
+
+        assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+        assertFalse(decoder.isLegacyFrame());
+        assertEquals(text, decoder.readString());
+    }
+
+    @Test
+    public void message_usesOneByteOpcodeAndVarintLength() {
+        byte[] frame = FrameEncoder.encodeMessage("hi");
+        assertArrayEquals(new byte[]{0x01, 0x02, 'h', 'i'}, frame);
+    }
+
+    @Test
+    public void fileHeader_roundTripsFollowedByBody() throws IOException {
+        long size = 6L * 1024 * 1024 * 1024;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FrameEncoder.encodeFileHeader("отчет.pdf", size));
+        out.write(new byte[]{1, 2, 3});
+        FrameDecoder decoder = decoderOf(out.toByteArray());
+
+        assertEquals(FrameType.FILE, decoder.readFrameType());
+        assertEquals("отчет.pdf", decoder.readString());
+        assertEquals(size, decoder.readFileLength());
+        byte[] body = new byte[3];
+        decoder.readFully(body, 0, 3);
+        assertArrayEquals(new byte[]{1, 2, 3}, body);
+    }
+
+    @Test
+    public void resumableTransferFrames_roundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] contentHash = new byte[ChunkChecksums.DIGEST_LENGTH];
+        contentHash[0] = 42;
+        out.write(FrameEncoder.encodeFileOffer("id-1", "видео.mkv", 6_000_000_000L, 4, contentHash));
+        out.write(FrameEncoder.encodeFileAccept("id-1", 4_000_000_000L, 40123));
+        out.write(FrameEncoder.encodeFileDataHeader("id-1", 4_000_000_000L, 2_000_000_000L));
+        FrameDecoder decoder = decoderOf(out.toByteArray());
+
+        assertEquals(FrameType.FILE_OFFER, decoder.readFrameType());
+        assertEquals("id-1", decoder.readString());
+        assertEquals("видео.mkv", decoder.readString());
+        assertEquals(6_000_000_000L, decoder.readFileLength());
+        assertEquals(4, decoder.readVarint());
+        byte[] decodedHash = new byte[decoder.readLength()];
+        decoder.readFully(decodedHash, 0, decodedHash.length);
+        assertArrayEquals(contentHash, decodedHash);
+
+        assertEquals(FrameType.FILE_ACCEPT, decoder.readFrameType());
+        assertEquals("id-1", decoder.readString());
+        assertEquals(4_000_000_000L, decoder.readFileLength());
+        assertEquals(40123, decoder.readVarint());
+
+        assertEquals(FrameType.FILE_DATA, decoder.readFrameType());
+        assertEquals("id-1", decoder.readString());
+        assertEquals(4_000_000_000L, decoder.readFileLength());
+        assertEquals(2_000_000_000L, decoder.readFileLength());
+    }
+
+    @Test
+    public void varint_encodesBoundaries() throws IOException {
+        long[] values = {0, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+        for (long value : values) {
+            byte[] bytes = new byte[Varint.MAX_LONG_SIZE];
+            int size = Varint.write(value, bytes, 0);
+            assertEquals(Varint.sizeOf(value), size);
+            assertEquals(value, decoderOf(bytes).readVarint());
+        }
+    }
+
+    @Test
+    public void legacyFrames_areDecoded() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(CustomData.serialize(7));
+        out.write("Message".getBytes(StandardCharsets.US_ASCII));
+        out.write(CustomData.serialize(5));
+        out.write("hello".getBytes(StandardCharsets.US_ASCII));
+        out.write(CustomData.serialize(4));
+        out.write("File".getBytes(StandardCharsets.US_ASCII));
+        out.write(CustomData.serialize(5));
+        out.write("a.txt".getBytes(StandardCharsets.US_ASCII));
+        out.write(CustomData.serializeLong(10));
+        FrameDecoder decoder = decoderOf(out.toByteArray());
+
+        assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+        assertTrue(decoder.isLegacyFrame());
+        assertEquals("hello", decoder.readString());
+
+        assertEquals(FrameType.FILE, decoder.readFrameType());
+        assertEquals("a.txt", decoder.readString());
+        assertEquals(10, decoder.readFileLength());
+    }
+
+    @Test
+    public void strings_spanningAndExceedingReadBuffer_areDecoded() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 100 * 1024) {
+            text.append("chunk ъ ");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 2000; i++) {
+            out.write(FrameEncoder.encodeMessage("msg " + i));
+        }
+        out.write(FrameEncoder.encodeMessage(text.toString()));
+        FrameDecoder decoder = decoderOf(out.toByteArray());
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+            assertEquals("msg " + i, decoder.readString());
+        }
+        assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+        assertEquals(text.toString(), decoder.readString());
+    }
+
+    @Test
+    public void customData_roundTrips() {
+        assertEquals(-123456789, CustomData.deserialize(CustomData.serialize(-123456789)));
+        assertEquals(Long.MIN_VALUE + 7, CustomData.deserializeLong(CustomData.serializeLong(Long.MIN_VALUE + 7)));
+        assertArrayEquals(new byte[]{0, 0, 1, 2}, CustomData.serialize(258));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unknownOpcode_isRejected() throws IOException {
+        decoderOf(new byte[]{(byte) 0xFF}).readFrameType();
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedFrame_throwsEof() throws IOException {
+        FrameDecoder decoder = decoderOf(new byte[]{0x01, 0x05, 'a'});
+        decoder.readFrameType();
+        decoder.readString();
+    }
+
+    private static FrameDecoder decoderOf(byte[] bytes) {
+        return new FrameDecoder(new ByteArrayInputStream(bytes));
+    }
+}
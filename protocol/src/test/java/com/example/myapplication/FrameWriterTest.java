@@ -0,0 +1,388 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class FrameWriterTest {
+    private ServerSocketChannel serverSocket;
+    private SocketChannel sender;
+    private SocketChannel receiver;
+    private FrameWriter writer;
+    private File directory;
+    private TransferJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", 0));
+        sender = SocketChannel.open(serverSocket.getLocalAddress());
+        receiver = serverSocket.accept();
+        writer = new FrameWriter("writer-test", sender);
+        directory = Files.createTempDirectory("streams").toFile();
+        journal = new TransferJournal(new File(directory, "journal"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        sender.close();
+        receiver.close();
+        serverSocket.close();
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                for (File entry : file.listFiles()) {
+                    entry.delete();
+                }
+            }
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void message_overtakesFileStream() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(32 * 1024 * 1024);
+        File source = new File(directory, "source.bin");
+        Files.write(source.toPath(), content);
+        TransferJournal.Entry entry = beginTransfer("t1", content.length);
+
+        writer.start();
+        try (FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+            CompletableFuture<Void> completion = writer.openStream("t1", 0, ChunkSource.ofFileChannel(fileChannel, 0, content.length), null);
+            writer.send(FrameEncoder.encodeMessage("hello"));
+
+            List<String> frames = receiveFrames(1, 1);
+            completion.get(10, TimeUnit.SECONDS);
+
+            int chunks = content.length / FrameWriter.CHUNK_SIZE;
+            int messageIndex = frames.indexOf("MESSAGE");
+            assertEquals(chunks + 3, frames.size());
+            // The message waits for the chunks already in the socket buffers at most, not for the file
+            assertTrue("message after " + messageIndex + " of " + chunks + " chunks", messageIndex < chunks / 4);
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(new File(entry.path).toPath()));
+        assertNull(journal.find("t1"));
+    }
+
+    @Test
+    public void streams_takeTurnsChunkByChunk() throws Exception {
+        byte[] first = FileChannelTransferTest.randomBytes(4 * FrameWriter.CHUNK_SIZE);
+        byte[] second = FileChannelTransferTest.randomBytes(4 * FrameWriter.CHUNK_SIZE + 1);
+        TransferJournal.Entry firstEntry = beginTransfer("t1", first.length);
+        TransferJournal.Entry secondEntry = beginTransfer("t2", second.length);
+
+        // Both streams are queued before the writer starts
+        CompletableFuture<Void> firstCompletion = writer.openStream("t1", 0, ChunkSource.ofStream(new ByteArrayInputStream(first), first.length), null);
+        CompletableFuture<Void> secondCompletion = writer.openStream("t2", 0, ChunkSource.ofStream(new ByteArrayInputStream(second), second.length), null);
+        writer.start();
+
+        List<String> frames = receiveFrames(0, 2);
+        firstCompletion.get(10, TimeUnit.SECONDS);
+        secondCompletion.get(10, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("OPEN 1", "CHUNK 1", "OPEN 2", "CHUNK 2", "CHUNK 1", "CHUNK 2", "CHUNK 1", "CHUNK 2",
+                "CHUNK 1", "END 1", "CHUNK 2", "CHUNK 2", "END 2"), frames);
+        assertArrayEquals(first, Files.readAllBytes(new File(firstEntry.path).toPath()));
+        assertArrayEquals(second, Files.readAllBytes(new File(secondEntry.path).toPath()));
+    }
+
+    @Test
+    public void stream_reportsSpeedFromTheFirstChunkAndRecordsMetrics() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(4 * FrameWriter.CHUNK_SIZE);
+        beginTransfer("t1", content.length);
+        long chunksBefore = TransferMetrics.DEFAULT.snapshot().sent.chunks;
+        List<Double> speeds = new ArrayList<>();
+        writer.start();
+
+        CompletableFuture<Void> completion = writer.openStream("t1", 0, ChunkSource.ofStream(new ByteArrayInputStream(content), content.length),
+                (bytesTransferred, totalBytes, speed) -> speeds.add(speed));
+        receiveFrames(0, 1);
+        completion.get(10, TimeUnit.SECONDS);
+
+        assertEquals(4, speeds.size());
+        for (double speed : speeds) {
+            // The first chunk used to be divided by an elapsed time of 0 ms
+            assertTrue("speed " + speed, speed > 0 && !Double.isInfinite(speed));
+        }
+        assertTrue(TransferMetrics.DEFAULT.snapshot().sent.chunks >= chunksBefore + 4);
+    }
+
+    @Test
+    public void stream_failsWhenSourceEndsEarly() throws Exception {
+        beginTransfer("t1", 1000);
+        writer.start();
+        CompletableFuture<Void> completion = writer.openStream("t1", 0, ChunkSource.ofStream(new ByteArrayInputStream(new byte[10]), 1000), null);
+
+        try {
+            completion.get(10, TimeUnit.SECONDS);
+            fail("Stream should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        // Only the failed stream ends, the connection stays usable
+        writer.send(FrameEncoder.encodeMessage("still connected"));
+        FrameDecoder decoder = new FrameDecoder(receiver);
+        assertEquals(FrameType.STREAM_OPEN, decoder.readFrameType());
+        decoder.readVarint();
+        decoder.readString();
+        decoder.readFileLength();
+        decoder.readFileLength();
+        assertEquals(FrameType.STREAM_CHUNK, decoder.readFrameType());
+        decoder.readVarint();
+        long length = decoder.readVarint();
+        decoder.readInt();
+        decoder.skip(length);
+        assertEquals(FrameType.STREAM_RESET, decoder.readFrameType());
+        assertEquals(1, decoder.readVarint());
+        assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+        assertEquals("still connected", decoder.readString());
+    }
+
+    @Test
+    public void cancelledStream_isReset() throws Exception {
+        beginTransfer("t1", 1000);
+        CompletableFuture<Void> completion = writer.openStream("t1", 0, ChunkSource.ofStream(new ByteArrayInputStream(new byte[1000]), 1000), null);
+        completion.cancel(false);
+        writer.start();
+
+        FrameDecoder decoder = new FrameDecoder(receiver);
+        assertEquals(FrameType.STREAM_OPEN, decoder.readFrameType());
+        decoder.readVarint();
+        decoder.readString();
+        decoder.readFileLength();
+        decoder.readFileLength();
+        assertEquals(FrameType.STREAM_RESET, decoder.readFrameType());
+        assertEquals(1, decoder.readVarint());
+    }
+
+    @Test
+    public void close_failsPendingStreams() throws Exception {
+        beginTransfer("t1", 1000);
+        CompletableFuture<Void> completion = writer.openStream("t1", 0, ChunkSource.ofStream(new ByteArrayInputStream(new byte[1000]), 1000), null);
+        sender.close();
+        writer.start();
+
+        try {
+            completion.get(10, TimeUnit.SECONDS);
+            fail("Stream should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            writer.send(FrameEncoder.encodeMessage("late"));
+            fail("Failed writer should reject frames");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void concurrentProducers_neverInterleaveFrames() throws Exception {
+        int producers = 4;
+        int messages = 5000;
+        writer.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        writer.send(FrameEncoder.encodeMessage(producer + " " + i));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        FrameDecoder decoder = new FrameDecoder(receiver);
+        int[] next = new int[producers];
+        for (int i = 0; i < producers * messages; i++) {
+            assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+            String[] message = decoder.readString().split(" ");
+            int producer = Integer.parseInt(message[0]);
+            // Every producer's frames arrive whole and in the order it queued them
+            assertEquals(next[producer]++, Integer.parseInt(message[1]));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void queuedFrames_areWrittenTogether() throws Exception {
+        CountingChannel counting = new CountingChannel(sender);
+        FrameWriter batching = new FrameWriter("batching-test", counting);
+        try {
+            for (int i = 0; i < 10; i++) {
+                batching.send(FrameEncoder.encodeMessage("message " + i));
+            }
+            batching.start();
+
+            FrameDecoder decoder = new FrameDecoder(receiver);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+                assertEquals("message " + i, decoder.readString());
+            }
+            assertEquals(1, counting.writes);
+        } finally {
+            batching.close();
+        }
+    }
+
+    @Test
+    public void coalescingPolicy_waitsForMoreFrames() throws Exception {
+        CountingChannel counting = new CountingChannel(sender);
+        FrameWriter batching = new FrameWriter("coalescing-test", counting, FlushPolicy.coalesce(200_000, 16 * 1024));
+        batching.start();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 5; i++) {
+                batching.send(FrameEncoder.encodeMessage("message " + i));
+                Thread.sleep(5);
+            }
+
+            FrameDecoder decoder = new FrameDecoder(receiver);
+            for (int i = 0; i < 5; i++) {
+                assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+                assertEquals("message " + i, decoder.readString());
+            }
+            assertEquals(1, counting.writes);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        } finally {
+            batching.close();
+        }
+    }
+
+    @Test
+    public void coalescingPolicy_writesOnceThresholdIsReached() throws Exception {
+        CountingChannel counting = new CountingChannel(sender);
+        FrameWriter batching = new FrameWriter("threshold-test", counting, FlushPolicy.coalesce(10_000_000, 100));
+        batching.start();
+        try {
+            batching.send(FrameEncoder.encodeMessage(new String(new char[120]).replace('\0', 'x')));
+
+            // Far sooner than the delay of the policy
+            FrameDecoder decoder = new FrameDecoder(receiver);
+            assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+            assertEquals(120, decoder.readString().length());
+            assertEquals(1, counting.writes);
+        } finally {
+            batching.close();
+        }
+    }
+
+    /**
+     * Counts the writes reaching the socket, with TCP_NODELAY each of them is sent as its own packets.
+     */
+    static final class CountingChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        volatile int writes;
+
+        CountingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer) throws IOException {
+            writes++;
+            return channel.write(buffer);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private TransferJournal.Entry beginTransfer(String transferId, long size) throws IOException {
+        File file = new File(directory, transferId + ".bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(size);
+        }
+        return journal.begin(transferId, file.getAbsolutePath(), size);
+    }
+
+    /**
+     * Reads frames like the connection reader does until all opened streams are complete.
+     *
+     * @param messages - the number of message frames expected besides the streams.
+     * @param expectedStreams - the number of streams expected.
+     * @return - the received frames in order, e.g. "MESSAGE" or "CHUNK 1" for a chunk of stream 1.
+     * @throws IOException - also if a stream arrives corrupted
+     */
+    private List<String> receiveFrames(int messages, int expectedStreams) throws IOException {
+        FrameDecoder decoder = new FrameDecoder(receiver);
+        Map<Integer, InboundStream> streams = new HashMap<>();
+        List<String> frames = new ArrayList<>();
+        int opened = 0;
+        do {
+            FrameType frameType = decoder.readFrameType();
+            if (frameType == FrameType.MESSAGE) {
+                decoder.readString();
+                frames.add("MESSAGE");
+                messages--;
+            } else if (frameType == FrameType.STREAM_OPEN) {
+                int streamId = (int) decoder.readVarint();
+                frames.add("OPEN " + streamId);
+                TransferJournal.Entry entry = journal.find(decoder.readString());
+                streams.put(streamId, new InboundStream(journal, entry, decoder.readFileLength(), decoder.readFileLength()));
+                opened++;
+            } else if (frameType == FrameType.STREAM_CHUNK) {
+                int streamId = (int) decoder.readVarint();
+                frames.add("CHUNK " + streamId);
+                streams.get(streamId).receiveChunk(decoder, (int) decoder.readVarint(), decoder.readInt());
+            } else if (frameType == FrameType.STREAM_END) {
+                int streamId = (int) decoder.readVarint();
+                frames.add("END " + streamId);
+                byte[] digest = new byte[ChunkChecksums.DIGEST_LENGTH];
+                decoder.readFully(digest, 0, digest.length);
+                InboundStream stream = streams.remove(streamId);
+                List<long[]> badRanges = stream.finish(digest);
+                stream.close();
+                if (!badRanges.isEmpty()) {
+                    throw new IOException("Stream " + streamId + " arrived corrupted");
+                }
+                journal.remove(stream.getEntry().transferId);
+            } else {
+                fail("Unexpected frame " + frameType);
+            }
+        } while (messages > 0 || opened < expectedStreams || !streams.isEmpty());
+        return frames;
+    }
+}
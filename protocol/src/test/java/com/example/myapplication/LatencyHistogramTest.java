@@ -0,0 +1,56 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogram_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 50; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(25, histogram.getPercentileMicros(50));
+        assertEquals(50, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void percentiles_areWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (-Math.log(1 - random.nextDouble()) * 5000);
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(values[i]));
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{50, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getPercentileMicros(percentile);
+            assertTrue(percentile + ": " + actual + " vs " + expected, actual >= expected && actual <= expected * 1.03 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMaxMicros());
+    }
+
+    @Test
+    public void buckets_coverTheirValues() {
+        for (long micros = 0; micros < 1 << 20; micros += 7) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(micros + " above its bucket", micros <= LatencyHistogram.highestValueOf(bucket));
+            assertTrue(micros + " below its bucket", bucket == 0 || micros > LatencyHistogram.highestValueOf(bucket - 1));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ProgressDispatcherTest {
+    private final List<Long> scheduledDelays = new ArrayList<>();
+    private final ProgressDispatcher dispatcher = new ProgressDispatcher(scheduledDelays::add, 0, TimeUnit.MILLISECONDS);
+
+    /**
+     * Keeps the updates a transfer received.
+     */
+    private static class Updates implements ProgressListener {
+        final List<long[]> received = new ArrayList<>();
+
+        @Override
+        public void onProgressUpdate(long bytesTransferred, long totalBytes, double speed) {
+            received.add(new long[]{bytesTransferred, totalBytes});
+        }
+    }
+
+    @Test
+    public void updatesBetweenFrames_areCoalescedToTheLatest() {
+        Updates first = new Updates();
+        Updates second = new Updates();
+        ProgressListener firstSlot = dispatcher.register(first);
+        ProgressListener secondSlot = dispatcher.register(second);
+
+        for (long bytes = 1; bytes <= 10_000; bytes++) {
+            firstSlot.onProgressUpdate(bytes, 10_000, 1.0);
+            secondSlot.onProgressUpdate(bytes * 2, 20_000, 1.0);
+        }
+        assertEquals(1, scheduledDelays.size());
+
+        dispatcher.dispatch();
+
+        assertEquals(1, first.received.size());
+        assertEquals(10_000, first.received.get(0)[0]);
+        assertEquals(1, second.received.size());
+        assertEquals(20_000, second.received.get(0)[0]);
+        assertEquals(20_000, second.received.get(0)[1]);
+    }
+
+    @Test
+    public void transferWithoutProgress_isNotDispatched() {
+        Updates idle = new Updates();
+        Updates busy = new Updates();
+        dispatcher.register(idle);
+        ProgressListener busySlot = dispatcher.register(busy);
+
+        busySlot.onProgressUpdate(1, 2, 0);
+        dispatcher.dispatch();
+        // Nothing changed since, so nothing is scheduled or handed over
+        dispatcher.dispatch();
+
+        assertEquals(0, idle.received.size());
+        assertEquals(1, busy.received.size());
+        assertEquals(1, scheduledDelays.size());
+    }
+
+    @Test
+    public void progressAfterADispatch_schedulesTheNext() {
+        Updates updates = new Updates();
+        ProgressListener slot = dispatcher.register(updates);
+
+        slot.onProgressUpdate(1, 3, 0);
+        dispatcher.dispatch();
+        slot.onProgressUpdate(2, 3, 0);
+
+        assertEquals(2, scheduledDelays.size());
+    }
+
+    @Test
+    public void interval_delaysTheNextDispatch() {
+        List<Long> delays = new ArrayList<>();
+        ProgressDispatcher throttled = new ProgressDispatcher(delays::add, 250, TimeUnit.MILLISECONDS);
+        ProgressListener slot = throttled.register(new Updates());
+
+        slot.onProgressUpdate(1, 3, 0);
+        throttled.dispatch();
+        slot.onProgressUpdate(2, 3, 0);
+
+        assertEquals(0, (long) delays.get(0));
+        assertTrue(delays.get(1) > TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void unregister_handsOverTheLastProgress() {
+        Updates updates = new Updates();
+        ProgressListener slot = dispatcher.register(updates);
+
+        slot.onProgressUpdate(3, 3, 0);
+        dispatcher.unregister(updates);
+
+        assertEquals(1, updates.received.size());
+        assertEquals(0, dispatcher.size());
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.myapplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback benchmark of {@link RangeTransfer}, printing the throughput for a growing number of streams.
+ * Run it with a file size in MB as the optional first argument, e.g. from the IDE.
+ * Loopback has no per-stream bandwidth limit, so it shows the overhead of the extra streams;
+ * the gains only appear on real links where a single TCP stream cannot fill the bandwidth.
+ */
+public class RangeTransferBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 512) * 1024 * 1024;
+        File source = File.createTempFile("bench", ".src");
+        File target = File.createTempFile("bench", ".dst");
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            file.setLength(size);
+        }
+
+        try {
+            run(source, target, size, 1); // warm-up
+            System.out.printf("%-8s %10s%n", "streams", "MB/s");
+            for (int streams = 1; streams <= RangeTransfer.MAX_STREAMS; streams *= 2) {
+                double seconds = run(source, target, size, streams);
+                System.out.printf("%-8d %10.1f%n", streams, size / seconds / (1024 * 1024));
+            }
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    private static double run(File source, File target, long size, int streams) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(size);
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        RangeReceiver receiver = new RangeReceiver("bench", target, 0, size, streams, new RangeReceiver.Listener() {
+            @Override
+            public void onCommitted(long committedOffset, FileChannel fileChannel) {
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException cause) {
+                cause.printStackTrace();
+                done.countDown();
+            }
+        });
+
+        long start = System.nanoTime();
+        try (FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+            RangeTransfer.send(fileChannel, "bench", 0, size,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getPort()), streams, null);
+        }
+        done.await(1, TimeUnit.MINUTES);
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RangeTransferTest {
+    private File source;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("ranges", ".src");
+        target = File.createTempFile("ranges", ".dst");
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Test
+    public void split_coversRangeWithoutGaps() {
+        long[] bounds = RangeTransfer.split(100, 1001, 4);
+        assertEquals(5, bounds.length);
+        assertEquals(100, bounds[0]);
+        assertEquals(1101, bounds[4]);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(bounds[i + 1] - bounds[i] >= 250);
+        }
+    }
+
+    @Test
+    public void chooseStreamCount_respectsFileSizeAndLimit() {
+        assertEquals(1, RangeTransfer.chooseStreamCount(10 * 1024 * 1024, RangeTransfer.AUTO_STREAMS));
+        assertEquals(RangeTransfer.MAX_STREAMS, RangeTransfer.chooseStreamCount(6L << 30, RangeTransfer.AUTO_STREAMS));
+        assertEquals(3, RangeTransfer.chooseStreamCount(6L << 30, 3));
+        assertEquals(1, RangeTransfer.chooseStreamCount(6L << 30, 1));
+    }
+
+    @Test
+    public void parallelRanges_reassembleFile() throws Exception {
+        byte[] content = FileChannelTransferTest.randomBytes(12 * 1024 * 1024 + 3);
+        Files.write(source.toPath(), content);
+        long offset = 1024 * 1024;
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(content.length);
+            file.write(content, 0, (int) offset);
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong committed = new AtomicLong();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        RangeReceiver receiver = new RangeReceiver("t1", target, offset, content.length, 4, new RangeReceiver.Listener() {
+            @Override
+            public void onCommitted(long committedOffset, FileChannel fileChannel) {
+                committed.accumulateAndGet(committedOffset, Math::max);
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(IOException cause) {
+                failure.set(cause);
+                done.countDown();
+            }
+        });
+
+        try (FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+            RangeTransfer.send(fileChannel, "t1", offset, content.length - offset,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getPort()), 4, null);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertEquals(content.length, committed.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RollingCounterTest {
+    private long now = 0;
+    private final RollingCounter counter = new RollingCounter(10, TimeUnit.SECONDS.toNanos(1), () -> now);
+
+    @Test
+    public void firstCount_hasAFiniteRate() {
+        counter.add(64 * 1024);
+
+        double rate = counter.ratePerSecond();
+        assertTrue("rate " + rate, rate > 0 && !Double.isInfinite(rate));
+    }
+
+    @Test
+    public void rate_coversTheWindow() {
+        for (int second = 0; second < 30; second++) {
+            now = TimeUnit.SECONDS.toNanos(second);
+            counter.add(100);
+        }
+        now = TimeUnit.SECONDS.toNanos(29) + TimeUnit.MILLISECONDS.toNanos(999);
+
+        assertEquals(100, counter.ratePerSecond(), 1);
+    }
+
+    @Test
+    public void stall_bringsTheRateDownWithinTheWindow() {
+        for (int second = 0; second < 10; second++) {
+            now = TimeUnit.SECONDS.toNanos(second);
+            counter.add(1000);
+        }
+        now = TimeUnit.SECONDS.toNanos(15);
+        assertEquals(400, counter.ratePerSecond(), 50);
+
+        now = TimeUnit.SECONDS.toNanos(25);
+        assertEquals(0, counter.ratePerSecond(), 0);
+    }
+}
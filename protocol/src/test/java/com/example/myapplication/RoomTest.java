@@ -0,0 +1,133 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RoomTest {
+    private ServerSocketChannel serverSocket;
+    private final List<Session> sessions = new ArrayList<>();
+    private final List<SocketChannel> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Session session : sessions) {
+            session.close();
+        }
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        serverSocket.close();
+    }
+
+    /**
+     * Connects a peer. The writer of a session which is not started never drains its queue, like a peer
+     * which stopped reading.
+     */
+    private Session connect(String peer, boolean start) throws IOException {
+        clients.add(SocketChannel.open(serverSocket.getLocalAddress()));
+        Session session = new Session(peer, serverSocket.accept(), FlushPolicy.IMMEDIATE, null);
+        sessions.add(session);
+        if (start) {
+            session.frameWriter.start();
+        }
+        return session;
+    }
+
+    /**
+     * Waits until the writer of a member took all frames, so only the slow member falls behind.
+     */
+    private static void awaitDrained(Session session) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (session.frameWriter.queuedBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void broadcast_reachesEveryMember() throws Exception {
+        Room room = new Room(64 * 1024, Room.SlowMemberPolicy.DISCONNECT);
+        for (int peer = 0; peer < 4; peer++) {
+            room.join(connect("peer" + peer, true));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(4, room.broadcast(FrameEncoder.encodeMessage("message " + i)));
+        }
+        for (SocketChannel client : clients) {
+            FrameDecoder decoder = new FrameDecoder(client);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+                assertEquals("message " + i, decoder.readString());
+            }
+        }
+        assertEquals(0, room.droppedFrames());
+    }
+
+    @Test
+    public void slowMember_missesFramesWithDropPolicy() throws Exception {
+        byte[] frame = FrameEncoder.encodeMessage("hello room");
+        int fitting = 10;
+        Room room = new Room(fitting * frame.length, Room.SlowMemberPolicy.DROP);
+        Session fast = connect("fast", true);
+        Session slow = connect("slow", false);
+        room.join(fast);
+        room.join(slow);
+
+        for (int i = 0; i < 25; i++) {
+            room.broadcast(frame);
+            awaitDrained(fast);
+        }
+
+        assertEquals(25 - fitting, room.droppedFrames());
+        assertEquals(2, room.getMembers().size());
+        assertEquals(fitting * frame.length, slow.frameWriter.queuedBytes());
+        FrameDecoder decoder = new FrameDecoder(clients.get(0));
+        for (int i = 0; i < 25; i++) {
+            assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+            assertEquals("hello room", decoder.readString());
+        }
+    }
+
+    @Test
+    public void slowMember_isDisconnectedWithDisconnectPolicy() throws Exception {
+        byte[] frame = FrameEncoder.encodeMessage("hello room");
+        Room room = new Room(4 * frame.length, Room.SlowMemberPolicy.DISCONNECT);
+        Session fast = connect("fast", true);
+        Session slow = connect("slow", false);
+        room.join(fast);
+        room.join(slow);
+
+        for (int i = 0; i < 5; i++) {
+            room.broadcast(frame);
+            awaitDrained(fast);
+        }
+
+        assertEquals(1, room.droppedFrames());
+        assertEquals(1, room.getMembers().size());
+        assertFalse(slow.socket.isOpen());
+        // The peer sees the end of the connection
+        assertEquals(-1, clients.get(1).read(ByteBuffer.allocate(1)));
+        assertTrue(fast.socket.isOpen());
+        assertEquals(1, room.broadcast(frame));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class SegmentedLogTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("log").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static byte[] record(long index) {
+        return ("message " + index).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] record) {
+        return new String(record, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void records_areReadBackAcrossSegmentsAfterReopening() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory, 4096)) {
+            for (long i = 0; i < 5000; i++) {
+                assertEquals(i, log.append(record(i)));
+            }
+        }
+        assertEquals(true, directory.list().length > 20);
+
+        try (SegmentedLog log = new SegmentedLog(directory, 4096)) {
+            assertEquals(5000, log.size());
+            for (long from : new long[]{0, 63, 64, 1234, 4990}) {
+                List<byte[]> records = log.read(from, 100);
+                assertEquals(Math.min(100, 5000 - from), records.size());
+                for (int i = 0; i < records.size(); i++) {
+                    assertEquals("message " + (from + i), text(records.get(i)));
+                }
+            }
+            assertEquals(5000, log.append(record(5000)));
+            assertEquals("message 5000", text(log.read(5000, 1).get(0)));
+        }
+    }
+
+    @Test
+    public void tornRecord_isCutOffOnReopening() throws IOException {
+        File logFile;
+        try (SegmentedLog log = new SegmentedLog(directory)) {
+            for (long i = 0; i < 129; i++) {
+                log.append(record(i));
+            }
+            logFile = directory.listFiles((dir, name) -> name.endsWith(".log"))[0];
+        }
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            // Half of the last record, the first after an index entry, made it to the file
+            file.setLength(file.length() - 5);
+        }
+
+        try (SegmentedLog log = new SegmentedLog(directory)) {
+            assertEquals(128, log.size());
+            assertEquals(128, log.append(record(128)));
+            assertEquals("message 127", text(log.read(127, 1).get(0)));
+            assertEquals("message 128", text(log.read(128, 1).get(0)));
+        }
+    }
+
+    @Test
+    public void emptyLog_readsNothing() throws IOException {
+        try (SegmentedLog log = new SegmentedLog(directory)) {
+            assertEquals(0, log.size());
+            assertEquals(0, log.read(0, 10).size());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SessionTest {
+    private ServerSocketChannel serverSocket;
+    private final List<Session> sessions = new ArrayList<>();
+    private final List<SocketChannel> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Session session : sessions) {
+            session.close();
+        }
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        serverSocket.close();
+    }
+
+    @Test
+    public void sessions_answerTheirOwnPeer() throws Exception {
+        int peers = 5;
+        CountDownLatch disconnected = new CountDownLatch(1);
+        Session.Listener echo = new Session.Listener() {
+            @Override
+            public void onFrame(Session session, FrameType frameType) throws IOException {
+                String message = session.decoder.readString();
+                session.frameWriter.send(FrameEncoder.encodeMessage(session.peer + ": " + message));
+            }
+
+            @Override
+            public void onDisconnected(Session session, IOException cause) {
+                disconnected.countDown();
+            }
+        };
+        for (int peer = 0; peer < peers; peer++) {
+            clients.add(SocketChannel.open(serverSocket.getLocalAddress()));
+            Session session = new Session("peer" + peer, serverSocket.accept(), FlushPolicy.IMMEDIATE, null);
+            sessions.add(session);
+            session.start(echo);
+        }
+
+        for (int peer = 0; peer < peers; peer++) {
+            clients.get(peer).write(ByteBuffer.wrap(FrameEncoder.encodeMessage("hello " + peer)));
+        }
+        for (int peer = 0; peer < peers; peer++) {
+            FrameDecoder decoder = new FrameDecoder(clients.get(peer));
+            assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+            assertEquals("peer" + peer + ": hello " + peer, decoder.readString());
+        }
+
+        // One peer leaving ends its session only
+        clients.get(0).close();
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        clients.get(1).write(ByteBuffer.wrap(FrameEncoder.encodeMessage("still here")));
+        FrameDecoder decoder = new FrameDecoder(clients.get(1));
+        assertEquals(FrameType.MESSAGE, decoder.readFrameType());
+        assertEquals("peer1: still here", decoder.readString());
+    }
+
+    @Test
+    public void sessions_keepSeparateHandshakes() throws Exception {
+        clients.add(SocketChannel.open(serverSocket.getLocalAddress()));
+        Session first = new Session("first", serverSocket.accept(), FlushPolicy.IMMEDIATE, null);
+        clients.add(SocketChannel.open(serverSocket.getLocalAddress()));
+        Session second = new Session("second", serverSocket.accept(), FlushPolicy.IMMEDIATE, null);
+        sessions.add(first);
+        sessions.add(second);
+
+        // The same file offered to two peers waits for the answer of each of them
+        first.transferHandshake.expect("t1");
+        second.transferHandshake.expect("t1");
+        assertTrue(first.transferHandshake.complete("t1", new TransferHandshake.Accept(10, 0)));
+        assertEquals(10, first.transferHandshake.await("t1", 1000).committedOffset);
+        assertTrue(second.transferHandshake.complete("t1", new TransferHandshake.Accept(20, 0)));
+        assertEquals(20, second.transferHandshake.await("t1", 1000).committedOffset);
+    }
+
+    @Test
+    public void close_putsBackOlderVersionWhoseDeltaNeverCame() throws Exception {
+        File directory = Files.createTempDirectory("session").toFile();
+        File downloads = new File(directory, "Download");
+        downloads.mkdirs();
+        File original = new File(downloads, "report.bin");
+        byte[] content = FileChannelTransferTest.randomBytes((int) ReceiveFileOfferCommand.MIN_DELTA_SIZE * 2);
+        Files.write(original.toPath(), content);
+        TransferStore store = new TransferStore() {
+            private final TransferJournal transferJournal = new TransferJournal(new File(directory, "transfers"));
+            private final ContentIndex contentIndex = new ContentIndex(new File(directory, "content-index"));
+
+            @Override
+            public TransferJournal getTransferJournal() {
+                return transferJournal;
+            }
+
+            @Override
+            public ContentIndex getContentIndex() {
+                return contentIndex;
+            }
+
+            @Override
+            public File prepareFileForWriting(String fileName, long fileSize, String transferId) {
+                return new File(downloads, fileName);
+            }
+
+            @Override
+            public void preallocate(RandomAccessFile file, long length) throws IOException {
+                file.setLength(length);
+            }
+
+            @Override
+            public void onFileReceived(Session session, String transferId, File file) {
+            }
+        };
+
+        try {
+            clients.add(SocketChannel.open(serverSocket.getLocalAddress()));
+            Session session = new Session("sender", serverSocket.accept(), FlushPolicy.IMMEDIATE, store);
+            session.start(new Session.Listener() {
+                @Override
+                public void onFrame(Session session, FrameType frameType) throws IOException {
+                    TransferCommands.create(frameType, session).execute();
+                }
+
+                @Override
+                public void onDisconnected(Session session, IOException cause) {
+                }
+            });
+            byte[] newer = content.clone();
+            newer[0] ^= 1;
+            clients.get(0).write(ByteBuffer.wrap(FrameEncoder.encodeFileOffer("t1", original.getName(), newer.length, 1,
+                    MessageDigest.getInstance("SHA-256").digest(newer))));
+            FrameDecoder decoder = new FrameDecoder(clients.get(0));
+            assertEquals(FrameType.FILE_SIGNATURES, decoder.readFrameType());
+            assertTrue(ReceiveFileOfferCommand.basisFile(original, "t1").isFile());
+
+            // The sender goes away before sending the delta
+            session.close();
+            assertArrayEquals(content, Files.readAllBytes(original.toPath()));
+            assertEquals(1, downloads.list().length);
+            assertNull(store.getTransferJournal().find("t1"));
+        } finally {
+            for (File file : directory.listFiles()) {
+                if (file.isDirectory()) {
+                    for (File entry : file.listFiles()) {
+                        entry.delete();
+                    }
+                }
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class TransferHandshakeTest {
+
+    @Test
+    public void handshake_deliversAcceptedOffset() throws Exception {
+        TransferHandshake<TransferHandshake.Accept> handshake = new TransferHandshake<>();
+        handshake.expect("t1");
+        new Thread(() -> handshake.complete("t1", new TransferHandshake.Accept(1234, 0))).start();
+        assertEquals(1234, handshake.await("t1", 1000).committedOffset);
+    }
+
+    @Test(expected = IOException.class)
+    public void handshake_timesOutWithoutAnswer() throws Exception {
+        TransferHandshake<TransferHandshake.Accept> handshake = new TransferHandshake<>();
+        handshake.expect("t1");
+        handshake.await("t1", 50);
+    }
+
+    @Test
+    public void unexpectedAccept_isIgnored() {
+        assertFalse(new TransferHandshake<TransferHandshake.Accept>().complete("unknown", new TransferHandshake.Accept(0, 0)));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class TransferJournalTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void committedOffset_survivesReopening() throws IOException {
+        TransferJournal journal = new TransferJournal(directory);
+        journal.begin("t1", "/sdcard/Download/video.mkv", 6_000_000_000L);
+        journal.commit("t1", 4_200_000_000L);
+
+        TransferJournal.Entry entry = new TransferJournal(directory).find("t1");
+        assertEquals("/sdcard/Download/video.mkv", entry.path);
+        assertEquals(6_000_000_000L, entry.size);
+        assertEquals(4_200_000_000L, entry.committed);
+    }
+
+    @Test
+    public void removedTransfer_isForgotten() throws IOException {
+        TransferJournal journal = new TransferJournal(directory);
+        journal.begin("t1", "/tmp/a", 10);
+        journal.remove("t1");
+        assertNull(journal.find("t1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void commitOfUnknownTransfer_fails() throws IOException {
+        new TransferJournal(directory).commit("missing", 1);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TransferManagerTest {
+    private final TransferManager manager = new TransferManager(1);
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * A transfer that blocks until released or cancelled.
+     */
+    private class BlockingCommand implements CancellableCommand {
+        private final String name;
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+
+        BlockingCommand(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute() throws IOException {
+            started.add(name);
+            try {
+                while (!release.await(10, TimeUnit.MILLISECONDS)) {
+                    if (cancelled.getCount() == 0) {
+                        throw new CancellationException();
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        manager.shutdown();
+    }
+
+    @Test
+    public void queue_startsByPriorityUpToConcurrencyCap() throws Exception {
+        CountDownLatch finished = new CountDownLatch(4);
+        manager.setListener(finishedListener(finished));
+        manager.enqueue("first", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("first"));
+        manager.enqueue("low", 10, TransferManager.PRIORITY_LOW, listener -> new BlockingCommand("low"));
+        manager.enqueue("normal", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("normal"));
+        manager.enqueue("high", 10, TransferManager.PRIORITY_HIGH, listener -> new BlockingCommand("high"));
+
+        List<TransferManager.Transfer> transfers = manager.getTransfers();
+        assertEquals(TransferManager.State.ACTIVE, transfers.get(0).getState());
+        assertEquals("high", transfers.get(1).getName());
+        assertEquals("normal", transfers.get(2).getName());
+        assertEquals("low", transfers.get(3).getName());
+
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "high", "normal", "low"), started);
+    }
+
+    @Test
+    public void move_andCancel_changeTheQueue() throws Exception {
+        manager.enqueue("first", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("first"));
+        TransferManager.Transfer second = manager.enqueue("second", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("second"));
+        TransferManager.Transfer third = manager.enqueue("third", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("third"));
+
+        assertTrue(manager.move(third.getId(), 0));
+        assertEquals("third", manager.getTransfers().get(1).getName());
+
+        assertTrue(manager.cancel(second.getId()));
+        assertEquals(TransferManager.State.CANCELLED, second.getState());
+        assertEquals(2, manager.getTransfers().size());
+    }
+
+    @Test
+    public void cancel_stopsRunningTransferAndStartsNext() throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        manager.setListener(finishedListener(finished));
+        TransferManager.Transfer first = manager.enqueue("first", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("first"));
+        manager.enqueue("second", 10, TransferManager.PRIORITY_NORMAL, listener -> new BlockingCommand("second"));
+
+        assertTrue(manager.cancel(first.getId()));
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(TransferManager.State.CANCELLED, first.getState());
+        assertEquals(TransferManager.State.ACTIVE, manager.getTransfers().get(0).getState());
+        assertEquals("second", manager.getTransfers().get(0).getName());
+    }
+
+    @Test
+    public void failedTransfer_reportsCause() throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        manager.setListener(finishedListener(finished));
+        TransferManager.Transfer transfer = manager.enqueue("broken", 10, TransferManager.PRIORITY_NORMAL, listener -> new CancellableCommand() {
+            @Override
+            public void execute() throws IOException {
+                throw new IOException("Connection lost");
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(TransferManager.State.FAILED, transfer.getState());
+        assertEquals("Connection lost", transfer.getFailure().getMessage());
+    }
+
+    private static TransferManager.Listener finishedListener(CountDownLatch finished) {
+        return new TransferManager.Listener() {
+            @Override
+            public void onTransfersChanged() {
+            }
+
+            @Override
+            public void onTransferFinished(TransferManager.Transfer transfer) {
+                finished.countDown();
+            }
+        };
+    }
+}
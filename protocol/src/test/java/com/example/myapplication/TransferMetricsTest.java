@@ -0,0 +1,40 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TransferMetricsTest {
+    @Test
+    public void snapshot_summarizesBothDirections() {
+        TransferMetrics metrics = new TransferMetrics();
+        long millisecond = TimeUnit.MILLISECONDS.toNanos(1);
+        for (int i = 0; i < 100; i++) {
+            metrics.sent.chunk(FrameWriter.CHUNK_SIZE, millisecond, millisecond);
+        }
+        // One chunk came long after the previous one
+        metrics.received.chunk(FrameWriter.CHUNK_SIZE, millisecond, TransferMetrics.STALL_NANOS + 1);
+        metrics.sent.messages(3);
+        metrics.received.messages(1);
+        metrics.sent.transfer(1000);
+        metrics.sent.transfer(3000);
+
+        TransferMetrics.Snapshot snapshot = metrics.snapshot();
+
+        assertEquals(100, snapshot.sent.chunks);
+        assertEquals(100L * FrameWriter.CHUNK_SIZE, snapshot.sent.bytes);
+        assertEquals(1000, snapshot.sent.chunkLatencyP99Micros, 30);
+        assertTrue(snapshot.sent.bytesPerSecond > 0);
+        assertEquals(0, snapshot.sent.stalls);
+        assertEquals(1, snapshot.received.stalls);
+        assertEquals(3, snapshot.sent.messages);
+        assertEquals(1, snapshot.received.messages);
+        assertEquals(2, snapshot.sent.transfers);
+        assertEquals(2000, snapshot.sent.averageTransferBytes);
+        assertEquals(3000, snapshot.sent.largestTransferBytes);
+        assertTrue(snapshot.toString().contains("1 stalls"));
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+
+/**
+ * The RelayMessageCommand class forwards a chat message read by the relay to every other member of the room.
+ * The message is encoded once for all of them, see {@link Room}.
+ */
+public class RelayMessageCommand implements Command {
+    private final Session session;
+    private final Room room;
+
+    public RelayMessageCommand(Session session, Room room) {
+        this.session = session;
+        this.room = room;
+    }
+
+    @Override
+    public void execute() throws IOException {
+        String message = session.decoder.readString();
+        TransferMetrics.DEFAULT.sent.messages(room.broadcast(FrameEncoder.encodeMessage(message), session));
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.myapplication;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless relay the apps connect to like to any peer. Chat messages are forwarded to every other connected
+ * app through a {@link Room}. Files are stored and forwarded: the relay receives a file like an app does,
+ * with the same commands, into its spool directory, then sends it to every other connected app with a
+ * {@link FileSender}, and deletes it once all of them have it or failed.
+ * Every session runs its reader and writer on a virtual thread when the JVM has them (JDK 21),
+ * so an idle client costs a few kilobytes of heap instead of two platform thread stacks.
+ * Run it with the port, the spool directory and the most clients as optional arguments.
+ */
+public class RelayServer implements Closeable {
+    static final int DEFAULT_PORT = 7777;
+    static final int DEFAULT_MAX_SESSIONS = 10_000;
+    /** The chat bytes that may wait for one client before it is disconnected as too slow for the room. */
+    static final int MAX_QUEUED_BYTES = 256 * 1024;
+    /** The time between two dumps of the {@link TransferMetrics} to the output. */
+    static final long METRICS_LOG_MINUTES = 1;
+    private static final ProgressListener NO_PROGRESS = (bytesTransferred, totalBytes, speed) -> {
+    };
+
+    private final DirectoryTransferStore store;
+    private final int maxSessions;
+    private final ThreadFactory threadFactory = sessionThreadFactory();
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final Room room = new Room(MAX_QUEUED_BYTES, Room.SlowMemberPolicy.DISCONNECT);
+    private final ExecutorService forwarders = Executors.newCachedThreadPool(threadFactory);
+    private ServerSocketChannel serverSocket;
+    private Thread acceptor;
+
+    /**
+     * @param spoolDirectory - where received files are kept until they are forwarded.
+     * @param maxSessions - the most clients connected at the same time.
+     * @throws IOException - if the spool directory cannot be created
+     */
+    public RelayServer(File spoolDirectory, int maxSessions) throws IOException {
+        this.maxSessions = maxSessions;
+        this.store = new DirectoryTransferStore(spoolDirectory) {
+            @Override
+            public void onFileReceived(Session session, String transferId, File file) {
+                forward(session, transferId, file);
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        File spoolDirectory = new File(args.length > 1 ? args[1] : "relay-spool");
+        int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_SESSIONS;
+
+        RelayServer server = new RelayServer(spoolDirectory, maxSessions);
+        int boundPort = server.start(port);
+        System.out.println("Relay listening on port " + boundPort + ", spooling to " + spoolDirectory.getAbsolutePath()
+                + (server.usesVirtualThreads() ? ", with virtual threads" : ", with platform threads"));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        TransferMetrics.DEFAULT.logPeriodically(Executors.newSingleThreadScheduledExecutor(Threads.DAEMON),
+                METRICS_LOG_MINUTES, TimeUnit.MINUTES, System.out::println);
+        server.acceptor.join();
+    }
+
+    /**
+     * Binds the relay and starts accepting clients.
+     *
+     * @param port - the port to listen on, 0 picks a free one.
+     * @return - the port the relay listens on.
+     * @throws IOException - if the port cannot be bound
+     */
+    public int start(int port) throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(port));
+        acceptor = new Thread(this::acceptClients, "relay-acceptor");
+        acceptor.start();
+        return serverSocket.socket().getLocalPort();
+    }
+
+    private void acceptClients() {
+        while (serverSocket.isOpen()) {
+            try {
+                SocketChannel socket = serverSocket.accept();
+                String peer = socket.getRemoteAddress().toString();
+                if (sessions.size() >= maxSessions) {
+                    System.out.println("Refusing " + peer + ", " + maxSessions + " clients are connected");
+                    socket.close();
+                    continue;
+                }
+                socket.socket().setTcpNoDelay(true);
+                startSession(peer, socket);
+            } catch (IOException e) {
+                if (serverSocket.isOpen()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void startSession(String peer, SocketChannel socket) {
+        Session session = new Session(peer, socket, FlushPolicy.IMMEDIATE, store, threadFactory);
+        sessions.add(session);
+        room.join(session);
+        session.start(new Session.Listener() {
+            @Override
+            public void onFrame(Session session, FrameType frameType) throws IOException {
+                createReceiveCommand(frameType, session).execute();
+            }
+
+            @Override
+            public void onDisconnected(Session session, IOException cause) {
+                sessions.remove(session);
+                room.leave(session);
+                try {
+                    session.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the command which handles frames of the given type on the relay.
+     *
+     * @param frameType - the type of the frame that was read.
+     * @param session - the session the frame was read from.
+     * @return - the matching command.
+     * @throws ProtocolException - if the relay does not handle the frame type, which ends the session
+     */
+    Command createReceiveCommand(FrameType frameType, Session session) throws ProtocolException {
+        if (frameType == FrameType.MESSAGE) {
+            return new RelayMessageCommand(session, room);
+        }
+        Command command = TransferCommands.create(frameType, session);
+        if (command == null) {
+            // The single FILE frame of v1 cannot be forwarded before it is read completely
+            throw new ProtocolException("Frame " + frameType + " is not relayed");
+        }
+        return command;
+    }
+
+    /**
+     * Sends a received file to every connected client but its sender, then deletes it.
+     * The file keeps the transfer id and the content hash it was sent with, so a client which has it already skips it.
+     *
+     * @param from - the session the file was offered on.
+     * @param transferId - the id of the transfer.
+     * @param file - the received file.
+     */
+    private void forward(Session from, String transferId, File file) {
+        List<Session> targets = new ArrayList<>(sessions);
+        targets.remove(from);
+        forwarders.execute(() -> {
+            List<CompletableFuture<Void>> forwards = new ArrayList<>();
+            try {
+                // Not kept in the index, the file is deleted once forwarded
+                byte[] contentHash = store.getContentIndex().hash(file.getAbsolutePath(), file.length(), 0,
+                        () -> new FileInputStream(file));
+                for (Session target : targets) {
+                    forwards.add(CompletableFuture.runAsync(() -> send(target, transferId, file, contentHash), forwarders));
+                }
+                CompletableFuture.allOf(forwards.toArray(new CompletableFuture<?>[0])).join();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                file.delete();
+                file.getParentFile().delete();
+            }
+        });
+    }
+
+    /**
+     * Sends a file to one client. Every client reads the file through its own channel, a delta reads it from the start.
+     */
+    private static void send(Session target, String transferId, File file, byte[] contentHash) {
+        try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel()) {
+            new FileSender(target, NO_PROGRESS).sendFile(fileChannel, transferId, file.getName(), fileChannel.size(), contentHash, 1, false);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Cannot forward " + file.getName() + " to " + target);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return - the connected clients.
+     */
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    public boolean usesVirtualThreads() {
+        return threadFactory != Threads.DAEMON;
+    }
+
+    /**
+     * Creates virtual threads where the JVM has them, daemon platform threads otherwise.
+     * Looked up by reflection, so the relay also runs on JVMs before Java 21.
+     */
+    static ThreadFactory sessionThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Threads.DAEMON;
+        }
+    }
+
+    /**
+     * Stops accepting clients and closes every session.
+     */
+    @Override
+    public void close() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Session session : sessions) {
+            sessions.remove(session);
+            room.leave(session);
+            try {
+                session.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        forwarders.shutdownNow();
+    }
+}
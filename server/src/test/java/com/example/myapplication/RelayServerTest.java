@@ -0,0 +1,158 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class RelayServerTest {
+    private File directory;
+    private RelayServer server;
+    private int port;
+    private final List<Client> clients = new ArrayList<>();
+
+    /**
+     * An app connected to the relay, which keeps the messages and files it receives.
+     */
+    private class Client {
+        final Session session;
+        final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        final BlockingQueue<File> files = new LinkedBlockingQueue<>();
+
+        Client(String name) throws IOException {
+            SocketChannel socket = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            TransferStore store = new DirectoryTransferStore(new File(directory, name)) {
+                @Override
+                public void onFileReceived(Session session, String transferId, File file) {
+                    files.add(file);
+                }
+            };
+            session = new Session(name, socket, FlushPolicy.IMMEDIATE, store);
+            session.start(new Session.Listener() {
+                @Override
+                public void onFrame(Session session, FrameType frameType) throws IOException {
+                    if (frameType == FrameType.MESSAGE) {
+                        messages.add(session.decoder.readString());
+                    } else {
+                        TransferCommands.create(frameType, session).execute();
+                    }
+                }
+
+                @Override
+                public void onDisconnected(Session session, IOException cause) {
+                }
+            });
+            clients.add(this);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("relay").toFile();
+        server = new RelayServer(new File(directory, "spool"), 100);
+        port = server.start(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Client client : clients) {
+            client.session.close();
+        }
+        server.close();
+        deleteRecursively(directory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void awaitSessions(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getSessions().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, server.getSessions().size());
+    }
+
+    @Test
+    public void message_isRelayedToEveryOtherClient() throws Exception {
+        Client alice = new Client("alice");
+        Client bob = new Client("bob");
+        Client carol = new Client("carol");
+        awaitSessions(3);
+
+        alice.session.frameWriter.send(FrameEncoder.encodeMessage("hello everyone"));
+
+        assertEquals("hello everyone", bob.messages.poll(5, TimeUnit.SECONDS));
+        assertEquals("hello everyone", carol.messages.poll(5, TimeUnit.SECONDS));
+        assertNull(alice.messages.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void file_isStoredAndForwardedToEveryOtherClient() throws Exception {
+        Client alice = new Client("alice");
+        Client bob = new Client("bob");
+        Client carol = new Client("carol");
+        awaitSessions(3);
+
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(5).nextBytes(content);
+        File source = new File(directory, "photo.jpg");
+        Files.write(source.toPath(), content);
+        try (FileChannel fileChannel = new RandomAccessFile(source, "r").getChannel()) {
+            new FileSender(alice.session, (bytesTransferred, totalBytes, speed) -> {
+            }).sendFile(fileChannel, "t1", "photo.jpg", content.length, null, 1, false);
+        }
+
+        for (Client receiver : new Client[]{bob, carol}) {
+            File received = receiver.files.poll(10, TimeUnit.SECONDS);
+            assertEquals("photo.jpg", received.getName());
+            assertArrayEquals(content, Files.readAllBytes(received.toPath()));
+        }
+        assertNull(alice.files.poll(200, TimeUnit.MILLISECONDS));
+
+        // The relay deletes its copy once every client has the file
+        File spooled = new File(new File(directory, "spool"), "t1");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (spooled.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(spooled.exists());
+        // Nor does it index its copies, which would only pile up
+        assertFalse(new File(new File(directory, "spool"), ".content-index").exists());
+    }
+
+    @Test
+    public void sessionThreads_areDaemons() {
+        Thread thread = RelayServer.sessionThreadFactory().newThread(() -> {
+        });
+        // Virtual threads are always daemons, so both kinds never keep the relay alive
+        assertTrue(thread.isDaemon());
+    }
+}